@@ -8,13 +8,19 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.commons.io.file.PathUtils;
 import org.gradle.api.Project;
 
 import com.wildermods.thrixlvault.Vault;
+import com.wildermods.workspace.copy.MaterializationMode;
+import com.wildermods.workspace.copy.MaterializationProfile;
+import com.wildermods.workspace.copy.WorkspaceSlots;
+import com.wildermods.workspace.decomp.DecompilationCache;
 import com.wildermods.workspace.dependency.VaultedDependencySpec;
 import com.wildermods.workspace.util.Platform;
 
@@ -23,7 +29,22 @@ public class WilderWorkspaceExtension {
 	private String platform = Platform.steam.name();
 	private String patchline;
 	private String gameDestDir;
+	private String materialization = MaterializationMode.copy.name();
+	private String materializationProfile = MaterializationProfile.RUN.name();
+	private final Map<String, MaterializationProfile> materializationProfiles = new LinkedHashMap<>();
 	private String decompDir;
+	private WorkspaceSlots.Slot workspaceSlot;
+	private String decompCacheDir = DecompilationCache.DEFAULT_DIR.toString();
+	private boolean incrementalDecompile = true;
+	private boolean compressDecompiledSources = true;
+	private boolean lazyDecompile = false;
+	private boolean lowMemoryDecompile = false;
+	private boolean priorityDecompile = false;
+	private String decompilerMaxHeap = "4g";
+	private List<String> decompilerJvmArgs = new ArrayList<>(List.of("-XX:+UseParallelGC"));
+	private Integer decompilerJavaVersion;
+	private String decompilerTraceLog;
+	private Map<String, String> decompilerOptions = new LinkedHashMap<>();
 	
 	private String steamCMDUser;
 	private final List<VaultedDependencySpec> vaultedDependencies = new ArrayList<>();
@@ -33,6 +54,9 @@ public class WilderWorkspaceExtension {
 		this.patchline = project.getName() + " " + project.getVersion();
 		this.gameDestDir = project.file("bin").toString();
 		this.decompDir = Path.of(gameDestDir).toString();
+		for(MaterializationProfile profile : List.of(MaterializationProfile.COMPILE_ONLY, MaterializationProfile.RUN, MaterializationProfile.FULL)) {
+			materializationProfiles.put(profile.name(), profile);
+		}
 	}
 	
 	public Project getProject() {
@@ -73,6 +97,78 @@ public class WilderWorkspaceExtension {
 		this.gameDestDir = dir;
 	}
 	
+	/**
+	 * @return how the files of the game installation or vault are put into the workspace: {@code copy},
+	 * {@code reflink} to clone them where the filesystem supports it, or {@code link} to also
+	 * hardlink them where it doesn't. See {@link MaterializationMode}. Vaulted dependencies are
+	 * cloned or linked from an export shared by every project.
+	 */
+	public String getMaterialization() {
+		return materialization;
+	}
+	
+	public void setMaterialization(String materialization) {
+		this.materialization = materialization;
+	}
+	
+	/**
+	 * @return the name of the profile which selects the files of the game that are put into the
+	 * workspace: {@code compile-only} for just the jars needed to compile, {@code run} for
+	 * everything but the saves and logs of the installation, or {@code full}. See {@link MaterializationProfile}.
+	 */
+	public String getMaterializationProfile() {
+		return materializationProfile;
+	}
+	
+	public void setMaterializationProfile(String profile) {
+		this.materializationProfile = profile;
+	}
+	
+	/**
+	 * Defines a materialization profile, or replaces the one with the same name.
+	 * 
+	 * @param includes patterns of the files to put into the workspace, such as {@code lib/**}, or empty for every file
+	 * @param excludes patterns of the files to leave out of the workspace
+	 */
+	public void defineMaterializationProfile(String name, List<String> includes, List<String> excludes) {
+		materializationProfiles.put(name, new MaterializationProfile(name, includes, excludes));
+	}
+	
+	public Map<String, MaterializationProfile> getMaterializationProfiles() {
+		return materializationProfiles;
+	}
+	
+	/**
+	 * @return the selected materialization profile
+	 * @throws IllegalArgumentException if no profile has the selected name
+	 */
+	public MaterializationProfile resolveMaterializationProfile() {
+		MaterializationProfile profile = materializationProfiles.get(materializationProfile);
+		if(profile == null) {
+			throw new IllegalArgumentException("Unknown materialization profile '" + materializationProfile + "', expected one of " + String.join(", ", materializationProfiles.keySet()));
+		}
+		return profile;
+	}
+	
+	/**
+	 * @return the workspace slot of the game version, whose game directory the workspace directory
+	 * links to, or null if workspace slots are not used. See {@link WorkspaceSlots}.
+	 */
+	public WorkspaceSlots.Slot getWorkspaceSlot() {
+		return workspaceSlot;
+	}
+	
+	/**
+	 * Makes the game files, decompiled sources and Ivy repository of the workspace those of the slot.
+	 */
+	public void setWorkspaceSlot(WorkspaceSlots.Slot slot) {
+		if(Path.of(decompDir).equals(Path.of(gameDestDir))) {
+			this.decompDir = slot.gameDir().toString();
+		}
+		this.gameDestDir = slot.gameDir().toString();
+		this.workspaceSlot = slot;
+	}
+	
 	public String getDecompDir() {
 		return decompDir;
 	}
@@ -81,6 +177,135 @@ public class WilderWorkspaceExtension {
 		this.decompDir = dir;
 	}
 	
+	/**
+	 * @return the directory decompiled sources are cached in, or null if decompilation caching is disabled
+	 */
+	public String getDecompCacheDir() {
+		return decompCacheDir;
+	}
+	
+	/**
+	 * Sets the directory decompiled sources are cached in. Set to null to disable the cache.
+	 */
+	public void setDecompCacheDir(String dir) {
+		this.decompCacheDir = dir;
+	}
+	
+	/**
+	 * @return true if only the classes which changed since the previous decompilation are decompiled again
+	 */
+	public boolean isIncrementalDecompile() {
+		return incrementalDecompile;
+	}
+	
+	public void setIncrementalDecompile(boolean incrementalDecompile) {
+		this.incrementalDecompile = incrementalDecompile;
+	}
+	
+	/**
+	 * @return true if decompiled source jars are deflated, false if their entries are stored uncompressed
+	 */
+	public boolean isCompressDecompiledSources() {
+		return compressDecompiledSources;
+	}
+	
+	public void setCompressDecompiledSources(boolean compress) {
+		this.compressDecompiledSources = compress;
+	}
+	
+	/**
+	 * @return true if game classes are only decompiled when requested with the decompileClass task
+	 */
+	public boolean isLazyDecompile() {
+		return lazyDecompile;
+	}
+	
+	public void setLazyDecompile(boolean lazy) {
+		this.lazyDecompile = lazy;
+	}
+	
+	/**
+	 * @return true if game jars are decompiled one at a time in package shards that fit into
+	 * {@link #getDecompilerMaxHeap() the decompiler heap}, rather than all at once
+	 */
+	public boolean isLowMemoryDecompile() {
+		return lowMemoryDecompile;
+	}
+	
+	public void setLowMemoryDecompile(boolean lowMemory) {
+		this.lowMemoryDecompile = lowMemory;
+	}
+	
+	/**
+	 * @return true if the game classes targeted by the mod's mixins and access wideners are
+	 * decompiled first, into partial source jars that can be browsed while the rest of the
+	 * game is decompiled
+	 */
+	public boolean isPriorityDecompile() {
+		return priorityDecompile;
+	}
+	
+	public void setPriorityDecompile(boolean priority) {
+		this.priorityDecompile = priority;
+	}
+	
+	/**
+	 * @return the maximum heap size of the decompiler worker process, such as {@code 4g}.
+	 * In low memory mode the decompilation shards are sized to fit into it.
+	 */
+	public String getDecompilerMaxHeap() {
+		return decompilerMaxHeap;
+	}
+	
+	public void setDecompilerMaxHeap(String maxHeap) {
+		this.decompilerMaxHeap = maxHeap;
+	}
+	
+	/**
+	 * @return additional JVM arguments, such as GC flags, for the decompiler worker process
+	 */
+	public List<String> getDecompilerJvmArgs() {
+		return decompilerJvmArgs;
+	}
+	
+	public void setDecompilerJvmArgs(List<String> jvmArgs) {
+		this.decompilerJvmArgs = new ArrayList<>(jvmArgs);
+	}
+	
+	/**
+	 * @return the Java version of the toolchain the decompiler worker process runs on, or null to use the same Java installation as Gradle
+	 */
+	public Integer getDecompilerJavaVersion() {
+		return decompilerJavaVersion;
+	}
+	
+	public void setDecompilerJavaVersion(Integer javaVersion) {
+		this.decompilerJavaVersion = javaVersion;
+	}
+	
+	/**
+	 * @return the file every decompiler message, including trace messages, is written to, or
+	 * null to only log messages at Gradle's log level
+	 */
+	public String getDecompilerTraceLog() {
+		return decompilerTraceLog;
+	}
+	
+	public void setDecompilerTraceLog(String traceLog) {
+		this.decompilerTraceLog = traceLog;
+	}
+	
+	/**
+	 * @return additional Vineflower options, which override the defaults of WilderWorkspace
+	 */
+	public Map<String, String> getDecompilerOptions() {
+		return decompilerOptions;
+	}
+	
+	public void setDecompilerOptions(Map<String, String> options) {
+		this.decompilerOptions = new LinkedHashMap<>(options);
+	}
+	
 	public void useDependency(VaultedDependencySpec dependency) {
 		vaultedDependencies.add(dependency);
 	}
@@ -1,5 +1,6 @@
 package com.wildermods.workspace;
 
+import org.gradle.api.Action;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
 import org.gradle.api.artifacts.ComponentMetadataContext;
@@ -16,9 +17,12 @@ import org.gradle.api.file.FileTree;
 import org.gradle.api.initialization.Settings;
 import org.gradle.api.initialization.dsl.ScriptHandler;
 import org.gradle.api.logging.LogLevel;
+import org.gradle.api.plugins.ExtraPropertiesExtension;
 import org.gradle.api.plugins.JavaPlugin;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Copy;
+import org.gradle.api.tasks.SourceSet;
+import org.gradle.api.tasks.SourceSetContainer;
 import org.gradle.api.tasks.TaskProvider;
 import org.gradle.internal.classloader.VisitableURLClassLoader;
 import org.gradle.jvm.tasks.Jar;
@@ -41,14 +45,23 @@ import com.wildermods.workspace.capabilities.CapabilityHandler;
 import com.wildermods.workspace.capabilities.GradleProject;
 import com.wildermods.workspace.capabilities.ModuleInfo;
 import com.wildermods.workspace.capabilities.CapabilityHandler.SourceStrategy;
+import com.wildermods.workspace.copy.WorkspaceManifest;
+import com.wildermods.workspace.copy.WorkspaceSlots;
+import com.wildermods.workspace.decomp.DecompilerBuilder;
+import com.wildermods.workspace.decomp.LazySourceProvider;
+import com.wildermods.workspace.decomp.PriorityDecompilation;
+import com.wildermods.workspace.decomp.RemappedJars;
+import com.wildermods.workspace.decomp.WilderWorkspaceDecompiler;
 import com.wildermods.workspace.dependency.ProjectDependencyType;
 import com.wildermods.workspace.dependency.WWProjectDependency;
 import com.wildermods.workspace.tasks.ClearLocalRuntimeTask;
 import com.wildermods.workspace.tasks.CopyLocalDependenciesToWorkspaceTask;
+import com.wildermods.workspace.tasks.DecompileClassTask;
 import com.wildermods.workspace.tasks.DecompileJarsTask;
 import com.wildermods.workspace.tasks.GenNestedMetadataJarsTask;
 import com.wildermods.workspace.tasks.GenerateLauncherMetadataTask;
 import com.wildermods.workspace.tasks.JarJarTask;
+import com.wildermods.workspace.tasks.SearchGameTask;
 import com.wildermods.workspace.tasks.eclipse.GenerateRunConfigurationTask;
 import com.wildermods.workspace.util.ExceptionUtil;
 
@@ -65,6 +78,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -73,6 +87,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -163,6 +178,7 @@ public class WilderWorkspacePluginImpl implements Plugin<Object> {
 				extension.useDependency(gameVersion);
 				project.getLogger().info("Automatically using game version from ext.gameVersion: " + gameVersion);
 			}
+			activateWorkspaceSlot(project, extension);
 			
 			WWProjectContext context = new WWProjectContext(project, extension) {};
 
@@ -191,6 +207,58 @@ public class WilderWorkspacePluginImpl implements Plugin<Object> {
 		}
 	}
 	
+	/**
+	 * Switches the workspace to the slot of {@code ext.gameVersion}, if the {@code workspaceSlots}
+	 * property is true. The slots may take up {@code workspaceSlotBudget} of disk space, such as
+	 * {@code 16g}.
+	 * <p>
+	 * This happens before the game jars are scanned, so they are scanned in the slot of the version.
+	 * If the slot can't be switched to, for example because the filesystem doesn't support symbolic
+	 * links, the workspace directory is used as is.
+	 * </p>
+	 *
+	 * @param project the project
+	 * @param extension the WilderWorkspace extension of the project
+	 */
+	private void activateWorkspaceSlot(Project project, WilderWorkspaceExtension extension) {
+		if(!Boolean.parseBoolean(String.valueOf(project.findProperty("workspaceSlots")))) {
+			return;
+		}
+		if(!project.hasProperty("gameVersion")) {
+			project.getLogger().warn("Workspace slots are enabled, but no ext.gameVersion is set. Using " + extension.getGameDestDir() + " directly.");
+			return;
+		}
+		Object budget = project.findProperty("workspaceSlotBudget");
+		WorkspaceSlots slots = new WorkspaceSlots(
+			project.file(".wilderworkspace").toPath().resolve("slots"),
+			Path.of(extension.getGameDestDir()),
+			budget == null ? WorkspaceSlots.DEFAULT_BUDGET : WorkspaceSlots.parseSize(budget.toString()),
+			project.getLogger()::lifecycle
+		);
+		WorkspaceSlots.Slot slot;
+		try {
+			slot = slots.activate(project.property("gameVersion").toString());
+		}
+		catch(IOException | UnsupportedOperationException e) {
+			project.getLogger().warn("Could not switch the workspace slot. Using " + extension.getGameDestDir() + " directly.", e);
+			return;
+		}
+		extension.setWorkspaceSlot(slot);
+		
+		//measuring and evicting walk the slots, so they only run once files were put into the slot
+		Action<Task> recordSlot = task -> {
+			try {
+				slots.record(slot);
+				slots.evict(slot);
+			}
+			catch(IOException e) {
+				task.getLogger().warn("Could not record the size of the workspace slot " + slot.name(), e);
+			}
+		};
+		project.getTasks().withType(CopyLocalDependenciesToWorkspaceTask.class).configureEach(task -> task.doLast(recordSlot));
+		project.getTasks().withType(DecompileJarsTask.class).configureEach(task -> task.doLast(recordSlot));
+	}
+	
 	/**
 	 * Applies the plugin to the given settings.
 	 * <p>
@@ -358,6 +426,23 @@ public class WilderWorkspacePluginImpl implements Plugin<Object> {
 						"Game not found. Please run the 'prepare' task first: ./gradlew prepare"
 					);
 				}
+				Path gameDir = Path.of(extension.getGameDestDir());
+				WorkspaceManifest manifest = WorkspaceManifest.read(gameDir);
+				if (manifest != null) {
+					try {
+						WorkspaceManifest.Verification verification = manifest.verify(gameDir);
+						if (!verification.isIntact()) {
+							// copyLocalDependenciesToWorkspace runs after this check and repairs them
+							project.getLogger().warn("Game files are damaged, " + verification.describe() + ". They are repaired by the 'prepare' task: ./gradlew prepare");
+						}
+						else {
+							project.getLogger().info("Verified " + verification.files() + " game files in " + verification.nanos() / 1_000_000 + "ms");
+						}
+					}
+					catch (IOException e) {
+						throw new IOError(e);
+					}
+				}
 			});
 		});
 		
@@ -365,14 +450,47 @@ public class WilderWorkspacePluginImpl implements Plugin<Object> {
 			task.setPlatform(extension.getPlatform());
 			task.setPatchline(extension.getPatchline());
 			task.setDestDir(extension.getGameDestDir());
+			task.setMaterialization(extension.getMaterialization());
+			task.setMaterializationProfile(extension.resolveMaterializationProfile());
 			task.setSteamUser(extension.getSteamUser());
 			task.finalizedBy(project.getTasks().getByName("copyProjectDependencies"));
 			task.getOutputs().cacheIf(t -> false);
 			task.getOutputs().upToDateWhen(t -> false);
 			task.mustRunAfter(project.getTasks().getByName("checkGame"));
+			task.onlyIf("the workspace is not intact", t -> !task.isWorkspaceIntact());
 		});
 		
 		project.getTasks().register("decompileJars", DecompileJarsTask.class, task -> {
+			task.setRootDir(project.getRootDir().getAbsolutePath());
+			task.setDecompDir(extension.getDecompDir());
+			task.getSourceJars().from((Callable<Collection<Path>>) () -> resolveDecompilationJars(project, extension).getSources());
+			task.getLibraryJars().from((Callable<Collection<Path>>) () -> resolveDecompilationJars(project, extension).getLibraries());
+			task.setDecompilerOptions(extension.getDecompilerOptions());
+			task.setDecompCacheDir(extension.getDecompCacheDir());
+			task.setIncremental(extension.isIncrementalDecompile());
+			task.setCompressSources(extension.isCompressDecompiledSources());
+			task.setLazy(extension.isLazyDecompile());
+			task.setLowMemory(extension.isLowMemoryDecompile());
+			task.setPriority(extension.isPriorityDecompile());
+			project.getPlugins().withType(JavaPlugin.class, java -> {
+				SourceSet main = project.getExtensions().getByType(SourceSetContainer.class).getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+				task.getMixinRoots().from(main.getResources().getSourceDirectories(), main.getOutput().getClassesDirs());
+			});
+			task.setMaxWorkers(project.getGradle().getStartParameter().getMaxWorkerCount());
+			task.setMaxHeap(extension.getDecompilerMaxHeap());
+			task.setJvmArgs(extension.getDecompilerJvmArgs());
+			task.setJavaVersion(extension.getDecompilerJavaVersion());
+			task.setTraceLog(extension.getDecompilerTraceLog());
+			task.setTelemetryReport(project.getBuildDir().toPath().resolve("reports").resolve("decompilation").resolve("telemetry.json").toString());
+			task.mustRunAfter(project.getTasks().getByName("copyLocalDependenciesToWorkspace"));
+		});
+		
+		project.getTasks().register("decompileClass", DecompileClassTask.class, task -> {
+			task.setDecompileJars((DecompileJarsTask) project.getTasks().getByName("decompileJars"));
+		});
+		
+		project.getTasks().register("searchGame", SearchGameTask.class, task -> {
+			task.setRootDir(project.getRootDir().getAbsolutePath());
 			task.setDecompDir(extension.getDecompDir());
 		});
 		
@@ -401,26 +519,19 @@ public class WilderWorkspacePluginImpl implements Plugin<Object> {
 			});
 		});
 		
-		//This task isn't implemented correctly yet, so we're not including it.
-		
-		/**
 		project.getTasks().register("updateDecompWorkspace", CopyLocalDependenciesToWorkspaceTask.class, task -> {
 			task.setPlatform(extension.getPlatform());
 			task.setPatchline(extension.getPatchline());
 			task.setDestDir(extension.getGameDestDir());
-			task.setOverwrite(true);
-			task.dependsOn(project.getTasks().named("clearLocalDependencies"));
-			task.finalizedBy(project.provider(() -> {
-				CopyLocalDependenciesToWorkspaceTask copyTask = (CopyLocalDependenciesToWorkspaceTask) project.getTasks().named("copyLocalDependenciesToWorkspace").get();
-				copyTask.setOverwrite(true);
-				copyTask.finalizedBy(project.provider(() -> {
-					DecompileJarsTask decompileTask = (DecompileJarsTask)project.getTasks().named("decompileJars").get();
-					return decompileTask;
-				}));
-				return copyTask;
-			}));
+			task.setMaterialization(extension.getMaterialization());
+			task.setMaterializationProfile(extension.resolveMaterializationProfile());
+			task.setSteamUser(extension.getSteamUser());
+			task.setSync(true);
+			task.getOutputs().cacheIf(t -> false);
+			task.getOutputs().upToDateWhen(t -> false);
+			task.finalizedBy(project.getTasks().getByName("copyProjectDependencies"));
+			task.finalizedBy(project.getTasks().named("decompileJars"));
 		});
-		*/
 		
 		project.getTasks().register("copyFabricDependencies", Copy.class, task -> {
 			task.from(fabricDep);
@@ -599,10 +710,10 @@ public class WilderWorkspacePluginImpl implements Plugin<Object> {
 			Map<String, ModuleInfo> flatDirModuleInfo = scanFlatDirModules(project, handler);
 			project.getLogger().info("Found " + flatDirModuleInfo.size() + " flatDir modules");
 
-			generateIvyRepository(project, flatDirModuleInfo);
+			generateIvyRepository(context, flatDirModuleInfo);
 
 			// 3. Add Ivy repository FIRST
-			addIvyRepository(project);
+			addIvyRepository(project, getIvyRepositoryDir(context));
 
 			// 4. Add external Maven repositories (will come after Ivy)
 			RepositoryHandler repos = project.getRepositories();
@@ -644,14 +755,16 @@ public class WilderWorkspacePluginImpl implements Plugin<Object> {
 					Map<String, ModuleInfo> filteredModules = new HashMap<>();
 					for (Map.Entry<String, ModuleInfo> entry : flatDirModuleInfo.entrySet()) {
 						Path jarPath;
+						Path classpathJarPath;
 						try {
 							jarPath = project.getRootDir().toPath().resolve(entry.getValue().relativeJarPath()).toRealPath().normalize();
+							classpathJarPath = getClasspathJar(context, jarPath).toRealPath().normalize();
 						}
 						catch(IOException e) {
 							throw new IOError(e);
 						}
 						
-						if (resolvedJarPaths.contains(jarPath)) {
+						if (resolvedJarPaths.contains(jarPath) || resolvedJarPaths.contains(classpathJarPath)) {
 							filteredModules.put(entry.getKey(), entry.getValue());
 						} else {
 							project.getLogger().info("Excluding from decompilation (not in classpath): " + jarPath);
@@ -667,8 +780,7 @@ public class WilderWorkspacePluginImpl implements Plugin<Object> {
 		}
 	}
 	
-	private void addIvyRepository(Project project) {
-		Path ivyRepoDir = project.getBuildDir().toPath().resolve("ivy").toAbsolutePath();
+	private void addIvyRepository(Project project, Path ivyRepoDir) {
 		// Construct explicit file: URL (double slash after colon)
 		String path = ivyRepoDir.toString().replace('\\', '/');
 		String repoUrl = path.startsWith("/") ? "file:" + path : "file:/" + path;
@@ -788,8 +900,9 @@ public class WilderWorkspacePluginImpl implements Plugin<Object> {
 														.resolve(info.relativeJarPath())
 														.toRealPath()
 														.normalize();
+												Path classpathJarPath = getClasspathJar(context, jarPath).toRealPath().normalize();
 												Path libPath = path.toRealPath().normalize();
-												if (jarPath.equals(libPath)) {
+												if (jarPath.equals(libPath) || classpathJarPath.equals(libPath)) {
 													module = info;
 													break;
 												}
@@ -803,7 +916,14 @@ public class WilderWorkspacePluginImpl implements Plugin<Object> {
 												Path decompRoot = Path.of(extension.getDecompDir());
 												// Get the original JAR file name (e.g., "wildermyth.jar")
 												Path originalJarName = module.relativeJarPath().getFileName();
-												Path sourcePath = decompRoot.resolve("decomp").resolve(originalJarName);
+												Path sourcePath = extension.isLazyDecompile()
+													? LazySourceProvider.getOutputDir(decompRoot).resolve(originalJarName)
+													: decompRoot.resolve("decomp").resolve(originalJarName);
+												Path prioritySourcePath = PriorityDecompilation.getOutputDir(decompRoot).resolve(originalJarName);
+												if (!Files.exists(sourcePath) && Files.exists(prioritySourcePath)) {
+													// the full decompilation did not finish, the classes targeted by mixins are better than nothing
+													sourcePath = prioritySourcePath;
+												}
 												if (Files.exists(sourcePath)) {
 													FileReference sourceRef = c.fileReference(sourcePath.toFile());
 													lib.setSourcePath(sourceRef);
@@ -935,8 +1055,9 @@ public class WilderWorkspacePluginImpl implements Plugin<Object> {
 		return handler.scanFlatDirModules(new GradleProject(project), repo.getDirs());
 	}
 	
-	private void generateIvyRepository(Project project, Map<String, ModuleInfo> moduleInfoMap) throws IOException {
-		Path ivyRepoRoot = project.getBuildDir().toPath().resolve("ivy");
+	private void generateIvyRepository(WWProjectContext context, Map<String, ModuleInfo> moduleInfoMap) throws IOException {
+		Project project = context.getProject();
+		Path ivyRepoRoot = getIvyRepositoryDir(context);
 		// Clean previous
 		if (Files.exists(ivyRepoRoot)) {
 			Files.walk(ivyRepoRoot)
@@ -977,17 +1098,53 @@ public class WilderWorkspacePluginImpl implements Plugin<Object> {
 			Path revisionDir = moduleDir.resolve(info.version().toString());
 			Files.createDirectories(revisionDir);
 			Path targetJar = revisionDir.resolve(info.artifact() + "-" + info.version() + ".jar");
+			Path linkedJar = getClasspathJar(context, sourceJar).toAbsolutePath();
 			Files.deleteIfExists(targetJar);
 			try {
-				Files.createSymbolicLink(targetJar, sourceJar);
-				project.getLogger().info("Created symlink: " + targetJar + " -> " + sourceJar);
+				Files.createSymbolicLink(targetJar, linkedJar);
+				project.getLogger().info("Created symlink: " + targetJar + " -> " + linkedJar);
 			} catch (UnsupportedOperationException | IOException e) {
 				project.getLogger().warn("Symlinks not supported, copying JAR instead.", e);
-				Files.copy(sourceJar, targetJar, StandardCopyOption.REPLACE_EXISTING);
+				Files.copy(linkedJar, targetJar, StandardCopyOption.REPLACE_EXISTING);
 			}
 		}
 	}
 	
+	/**
+	 * @return the Ivy repository of the game jars, in the workspace slot if one is active
+	 */
+	private static Path getIvyRepositoryDir(WWProjectContext context) {
+		WorkspaceSlots.Slot slot = context.getWWExtension().getWorkspaceSlot();
+		if(slot != null) {
+			return slot.ivyDir();
+		}
+		return context.getProject().getBuildDir().toPath().resolve("ivy").toAbsolutePath();
+	}
+	
+	/**
+	 * Resolves the jars of the decompilation modules chosen by the capability setup. Jars
+	 * which were not copied into the workspace yet are left out.
+	 */
+	@SuppressWarnings("unchecked")
+	private static WilderWorkspaceDecompiler resolveDecompilationJars(Project project, WilderWorkspaceExtension extension) {
+		ExtraPropertiesExtension extra = project.getExtensions().getExtraProperties();
+		Map<String, ModuleInfo> modules = extra.has(DECOMP_MODULES) ? (Map<String, ModuleInfo>) extra.get(DECOMP_MODULES) : Map.of();
+		Path rootDir = project.getRootDir().toPath();
+		return new DecompilerBuilder()
+			.setModules(modules, rootDir)
+			.setDecompDest(rootDir.resolve(extension.getDecompDir()))
+			.build();
+	}
+	
+	/**
+	 * Returns the jar to put on the classpath for a game jar: its line remapped copy if it
+	 * was decompiled and is still up to date, otherwise the game jar itself.
+	 */
+	private Path getClasspathJar(WWProjectContext context, Path gameJar) {
+		Path decompDir = context.getProject().getRootDir().toPath().resolve(context.getWWExtension().getDecompDir());
+		return RemappedJars.resolve(decompDir, gameJar);
+	}
+	
 	private boolean canResolveUrl(WWProjectContext context, String urlString) {
 		Project project = context.getProject();
 		project.getLogger().log(LogLevel.INFO, "Checking URL: " + urlString);
@@ -0,0 +1,86 @@
+package com.wildermods.workspace.capabilities;
+
+import java.nio.file.Path;
+
+import org.gradle.api.logging.Logger;
+
+/**
+ * A {@link GameProject} backed only by a root directory and a Gradle {@link Logger}, for use
+ * where the {@link org.gradle.api.Project} is not available, such as inside worker processes.
+ */
+public class GradleLoggerProject implements GameProject {
+
+	private final Path rootDir;
+	private final Logger logger;
+	
+	public GradleLoggerProject(Path rootDir, Logger logger) {
+		this.rootDir = rootDir;
+		this.logger = logger;
+	}
+
+	@Override
+	public Path getRootDir() {
+		return rootDir;
+	}
+
+	@Override
+	public void trace(String message) {
+		logger.trace(message);
+	}
+
+	@Override
+	public void debug(String message) {
+		logger.debug(message);
+	}
+
+	@Override
+	public void info(String message) {
+		logger.info(message);
+	}
+
+	@Override
+	public void warn(String message) {
+		logger.warn(message);
+	}
+
+	@Override
+	public void error(String message) {
+		logger.error(message);
+	}
+	
+	@Override
+	public void fatal(String message) {
+		error(message);
+	}
+
+	@Override
+	public void trace(Throwable t, String message) {
+		logger.trace(message, t);
+	}
+
+	@Override
+	public void debug(Throwable t, String message) {
+		logger.debug(message, t);
+	}
+
+	@Override
+	public void info(Throwable t, String message) {
+		logger.info(message, t);
+	}
+
+	@Override
+	public void warn(Throwable t, String message) {
+		logger.warn(message, t);
+	}
+
+	@Override
+	public void error(Throwable t, String message) {
+		logger.error(message, t);
+	}
+	
+	@Override
+	public void fatal(Throwable t, String message) {
+		error(t, message);
+	}
+	
+}
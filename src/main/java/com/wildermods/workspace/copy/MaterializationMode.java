@@ -0,0 +1,36 @@
+package com.wildermods.workspace.copy;
+
+/**
+ * How the files of the game are put into the workspace.
+ */
+public enum MaterializationMode {
+
+	/**
+	 * Every file is copied.
+	 */
+	copy,
+
+	/**
+	 * Files are cloned with reflinks where the filesystem supports them, and copied otherwise.
+	 * A clone behaves like a copy, but shares its data with the original until either is written
+	 * to, so it takes no time and no disk space.
+	 */
+	reflink,
+
+	/**
+	 * Files are cloned with reflinks where the filesystem supports them, hardlinked to the original
+	 * otherwise, and only copied if neither is possible. Files the game writes to are never hardlinked,
+	 * as writing to a hardlink changes the original.
+	 */
+	link;
+
+	public static MaterializationMode fromString(String input) {
+		for(MaterializationMode mode : values()) {
+			if(mode.name().equals(input.toLowerCase())) {
+				return mode;
+			}
+		}
+		throw new IllegalArgumentException("Unknown materialization mode '" + input + "', expected one of copy, reflink or link");
+	}
+
+}
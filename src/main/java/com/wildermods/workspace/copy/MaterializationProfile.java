@@ -0,0 +1,55 @@
+package com.wildermods.workspace.copy;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Which files of the game are put into the workspace, as include and exclude patterns of a
+ * {@link WorkspaceFilter}.
+ *
+ * @param name the name the profile is selected by
+ * @param includes the files to put into the workspace, or empty for every file
+ * @param excludes the files to leave out of the workspace
+ */
+public record MaterializationProfile(String name, List<String> includes, List<String> excludes) implements Serializable {
+
+	/**
+	 * The directories the game writes its saves, logs and reports to while it runs.
+	 */
+	public static final Set<String> RUNTIME_DIRECTORIES = Set.of("backup", "feedback", "logs", "out", "players", "screenshots");
+
+	/**
+	 * Only what compiling a mod needs: the game jars, its libraries and its version. Leaves out
+	 * the assets, which are most of the installation.
+	 */
+	public static final MaterializationProfile COMPILE_ONLY = new MaterializationProfile("compile-only", List.of("*.jar", "lib/**", "version.txt"), List.of());
+
+	/**
+	 * Everything the game needs to run, without the saves, logs and reports of the installation.
+	 */
+	public static final MaterializationProfile RUN = new MaterializationProfile("run", List.of(), RUNTIME_DIRECTORIES.stream().sorted().map(dir -> "**/" + dir + "/**").toList());
+
+	/**
+	 * The whole installation.
+	 */
+	public static final MaterializationProfile FULL = new MaterializationProfile("full", List.of(), List.of());
+
+	public MaterializationProfile {
+		includes = List.copyOf(includes);
+		excludes = List.copyOf(excludes);
+	}
+
+	public WorkspaceFilter toFilter() {
+		return new WorkspaceFilter(includes, excludes);
+	}
+
+	/**
+	 * @return whether the profile leaves out files of the game itself, rather than only the
+	 * files the game writes while it runs
+	 */
+	public boolean isSparse() {
+		return !includes.isEmpty() || !RUN.excludes().containsAll(excludes);
+	}
+
+}
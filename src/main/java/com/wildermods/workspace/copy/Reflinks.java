@@ -0,0 +1,127 @@
+package com.wildermods.workspace.copy;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import com.wildermods.workspace.util.OS;
+
+/**
+ * Creates reflinks, copy-on-write clones which share the data of the original file until
+ * either file is written to.
+ * <p>
+ * Java has no API for reflinks, so they are created through the C library: with the
+ * {@code FICLONE} ioctl on Linux (btrfs, XFS, bcachefs...) and with {@code clonefile} on macOS
+ * (APFS). Other platforms and filesystems are reported as unsupported.
+ * </p>
+ */
+class Reflinks {
+
+	private static final int O_RDONLY = 0;
+	private static final int O_WRONLY_CREAT_EXCL = 0x1 | 0x40 | 0x80;
+	private static final int FILE_MODE = 0644;
+	private static final long FICLONE = 0x40049409L;
+
+	private static final MethodHandle OPEN;
+	private static final MethodHandle IOCTL;
+	private static final MethodHandle CLOSE;
+	private static final MethodHandle CLONEFILE;
+
+	static {
+		MethodHandle open = null;
+		MethodHandle ioctl = null;
+		MethodHandle close = null;
+		MethodHandle clonefile = null;
+		try {
+			Linker linker = Linker.nativeLinker();
+			switch(OS.getOS()) {
+				case LINUX:
+					open = linker.downcallHandle(linker.defaultLookup().find("open").orElseThrow(), FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT), Linker.Option.firstVariadicArg(2));
+					ioctl = linker.downcallHandle(linker.defaultLookup().find("ioctl").orElseThrow(), FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG, JAVA_INT), Linker.Option.firstVariadicArg(2));
+					close = linker.downcallHandle(linker.defaultLookup().find("close").orElseThrow(), FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+					break;
+				case MAC:
+					clonefile = linker.downcallHandle(linker.defaultLookup().find("clonefile").orElseThrow(), FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT));
+					break;
+				default:
+					break;
+			}
+		}
+		catch(Throwable t) {
+			//native access is unavailable, reflinks are unsupported
+			open = ioctl = close = clonefile = null;
+		}
+		OPEN = open;
+		IOCTL = ioctl;
+		CLOSE = close;
+		CLONEFILE = clonefile;
+	}
+
+	/**
+	 * @return true if this platform might support reflinks, whether the filesystem does is only
+	 * known once a reflink is attempted
+	 */
+	static boolean isAvailable() {
+		return OPEN != null || CLONEFILE != null;
+	}
+
+	/**
+	 * Clones the source file to the target, which must not exist. On Linux the target is created
+	 * with the mode 0644, callers copy the permissions of the source.
+	 *
+	 * @return true if the reflink was created, false if the platform or the filesystem doesn't
+	 * support it, in which case no target file is left behind
+	 */
+	static boolean reflink(Path source, Path target) {
+		try(Arena arena = Arena.ofConfined()) {
+			MemorySegment sourcePath = toCString(arena, source);
+			MemorySegment targetPath = toCString(arena, target);
+			if(CLONEFILE != null) {
+				return (int) CLONEFILE.invokeExact(sourcePath, targetPath, 0) == 0;
+			}
+			if(OPEN == null) {
+				return false;
+			}
+			int in = (int) OPEN.invokeExact(sourcePath, O_RDONLY, 0);
+			if(in < 0) {
+				return false;
+			}
+			try {
+				int out = (int) OPEN.invokeExact(targetPath, O_WRONLY_CREAT_EXCL, FILE_MODE);
+				if(out < 0) {
+					return false;
+				}
+				int result = (int) IOCTL.invokeExact(out, FICLONE, in);
+				int closed = (int) CLOSE.invokeExact(out);
+				if(result == 0 && closed == 0) {
+					return true;
+				}
+				target.toFile().delete();
+				return false;
+			}
+			finally {
+				int ignored = (int) CLOSE.invokeExact(in);
+			}
+		}
+		catch(Throwable t) {
+			return false;
+		}
+	}
+
+	private static MemorySegment toCString(Arena arena, Path path) {
+		byte[] bytes = path.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+		MemorySegment string = arena.allocate(bytes.length + 1);
+		MemorySegment.copy(bytes, 0, string, JAVA_BYTE, 0, bytes.length);
+		return string;
+	}
+
+}
@@ -0,0 +1,512 @@
+package com.wildermods.workspace.copy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Copies a directory tree, such as a game installation, into the workspace.
+ * <p>
+ * The tree is walked on the calling thread, while the files are copied on virtual threads.
+ * Copying thousands of small files mostly waits on the latency of each open, write and close,
+ * so a bounded number of copies are kept in flight at once instead of copying one file after
+ * another.
+ * </p>
+ * <p>
+ * Depending on the {@link MaterializationMode}, files are cloned or hardlinked instead of copied.
+ * If the filesystem refuses a reflink or a hardlink, for example because the directories are on
+ * different filesystems, the remaining files are copied instead of trying again for each file.
+ * </p>
+ * <p>
+ * The files which were copied are recorded in a {@link WorkspaceManifest}. Each file is hashed
+ * while it is copied, so it is only read once. When syncing, only files whose size or
+ * modification time differ from the source are copied again, and files of a previous copy from
+ * the same source which no longer exist in it are deleted. Files which were not copied from the
+ * source, such as the decompiled sources or the files of another version exported into the same
+ * directory, are left alone. Files the game writes to are recorded apart from the other files,
+ * with the stamps of the source and of the copy rather than a hash. A sync replaces them when
+ * their source changed, unless the game changed the copy, and otherwise only copies them if
+ * they are missing, so changing them doesn't damage the workspace.
+ * </p>
+ */
+public class WorkspaceCopier {
+
+	public static final int DEFAULT_CONCURRENCY = 64;
+
+	private static final long TRANSFER_THRESHOLD = 1 << 20;
+	private static final int COPY_BUFFER_SIZE = 1 << 16;
+	private static final long PROGRESS_INTERVAL = 5_000_000_000L;
+
+	public static final String STATE_DIR = ".wilderworkspace";
+
+	private final Path sourceDir;
+	private final Path destDir;
+	private final Predicate<Path> skipDirectory;
+	private final boolean overwrite;
+	private final int concurrency;
+	private final Consumer<String> reporter;
+	private WorkspaceFilter filter = WorkspaceFilter.ALL;
+	private String source;
+	private MaterializationMode mode = MaterializationMode.copy;
+	private Predicate<Path> writtenFiles = file -> false;
+	private boolean sync = false;
+	private boolean checksum = false;
+	private boolean fingerprint = true;
+
+	private volatile boolean reflinks;
+	private volatile boolean hardlinks;
+	private WorkspaceManifest previous;
+	private final Map<String, WorkspaceManifest.Entry> entries = new ConcurrentHashMap<>();
+	private final Map<String, WorkspaceManifest.Written> written = new ConcurrentHashMap<>();
+
+	private final LongAdder cloned = new LongAdder();
+	private final LongAdder linked = new LongAdder();
+	private final LongAdder files = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder changed = new LongAdder();
+	private int deleted;
+
+	/**
+	 * @param sourceDir the directory to copy
+	 * @param destDir the directory to copy into
+	 * @param skipDirectory whether to skip a directory, given its path relative to the source directory
+	 * @param overwrite whether to replace files which already exist in the destination
+	 * @param concurrency the maximum number of files copied at once
+	 * @param reporter receives the progress and the summary
+	 */
+	public WorkspaceCopier(Path sourceDir, Path destDir, Predicate<Path> skipDirectory, boolean overwrite, int concurrency, Consumer<String> reporter) {
+		this.sourceDir = sourceDir;
+		this.destDir = destDir;
+		this.skipDirectory = skipDirectory;
+		this.overwrite = overwrite;
+		this.concurrency = Math.max(1, concurrency);
+		this.reporter = reporter;
+		this.source = sourceDir.toString();
+	}
+
+	public void copy() throws IOException {
+		long start = System.nanoTime();
+		reflinks = mode != MaterializationMode.copy && Reflinks.isAvailable();
+		hardlinks = mode == MaterializationMode.link;
+		Semaphore permits = new Semaphore(concurrency);
+		AtomicReference<IOException> failure = new AtomicReference<>();
+		long[] nextProgress = {start + PROGRESS_INTERVAL};
+		previous = WorkspaceManifest.read(destDir);
+		if(previous != null && !source.equals(previous.getSource())) {
+			previous = null; //the files of another source, such as another version exported into the same directory, are not this copy's to delete
+		}
+
+		try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			Files.walkFileTree(sourceDir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					Path relative = sourceDir.relativize(dir);
+					if(attrs.isSymbolicLink() || (!relative.toString().isEmpty() && (skipDirectory.test(relative) || filter.skipsDirectory(relative)))) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					Files.createDirectories(destDir.resolve(relative.toString()));
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if(failure.get() != null) {
+						return FileVisitResult.TERMINATE;
+					}
+					long now = System.nanoTime();
+					if(now >= nextProgress[0]) {
+						reporter.accept(summarize(now - start));
+						nextProgress[0] = now + PROGRESS_INTERVAL;
+					}
+					Path relative = sourceDir.relativize(file);
+					if(!filter.includesFile(relative)) {
+						return FileVisitResult.CONTINUE;
+					}
+					permits.acquireUninterruptibly();
+					executor.execute(() -> {
+						try {
+							copyFile(file, relative, attrs);
+						}
+						catch(IOException e) {
+							failure.compareAndSet(null, e);
+						}
+						finally {
+							permits.release();
+						}
+					});
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+
+		if(failure.get() != null) {
+			throw failure.get();
+		}
+		if(sync && previous != null) {
+			deleteRemoved(previous.getEntries().keySet(), entries.keySet());
+		}
+		new WorkspaceManifest(source, entries, written).write(destDir);
+		report(System.nanoTime() - start);
+	}
+
+	private void copyFile(Path source, Path relative, BasicFileAttributes attrs) throws IOException {
+		Path target = destDir.resolve(relative.toString());
+		String name = toEntry(relative);
+		BasicFileAttributes existing = readAttributes(target);
+		if(writtenFiles.test(relative)) {
+			copyWrittenFile(source, relative, target, attrs, existing);
+			return;
+		}
+		if(existing != null) {
+			if(sync ? isUnchanged(source, target, attrs, existing) : !overwrite) {
+				existing = readAttributes(target);
+				WorkspaceManifest.Entry known = previous == null ? null : previous.getEntries().get(name);
+				if(known == null || !known.equals(WorkspaceManifest.Entry.of(existing, known.hash()))) {
+					known = WorkspaceManifest.Entry.of(existing, null);
+				}
+				entries.put(name, known);
+				skipped.increment();
+				return;
+			}
+			changed.increment();
+		}
+		files.increment();
+		bytes.add(attrs.size());
+		byte[] hash = materialize(source, relative, target, attrs);
+		entries.put(name, WorkspaceManifest.Entry.of(readAttributes(target), hash));
+	}
+
+	/**
+	 * Copies a file the game writes to if it is missing, when overwriting, or when syncing and
+	 * its source changed while the copy did not. A copy the game changed is kept.
+	 */
+	private void copyWrittenFile(Path source, Path relative, Path target, BasicFileAttributes attrs, BasicFileAttributes existing) throws IOException {
+		String name = toEntry(relative);
+		WorkspaceManifest.Written known = previous == null ? null : previous.getWrittenFiles().get(name);
+		if(existing != null && !overwrite) {
+			if(known == null) {
+				//copied before the stamps were recorded, so the copy counts as the source's current version
+				written.put(name, new WorkspaceManifest.Written(WorkspaceManifest.Entry.of(attrs, null), WorkspaceManifest.Entry.of(existing, null)));
+				skipped.increment();
+				return;
+			}
+			if(!sync || !known.isSourceChanged(attrs) || known.isCopyChanged(existing)) {
+				written.put(name, known);
+				skipped.increment();
+				return;
+			}
+			changed.increment();
+		}
+		else if(existing != null) {
+			changed.increment();
+		}
+		files.increment();
+		bytes.add(attrs.size());
+		materialize(source, relative, target, attrs);
+		written.put(name, new WorkspaceManifest.Written(WorkspaceManifest.Entry.of(attrs, null), WorkspaceManifest.Entry.of(readAttributes(target), null)));
+	}
+
+	/**
+	 * @return the hash of the file, or null if it was cloned, linked or not fingerprinted
+	 */
+	private byte[] materialize(Path source, Path relative, Path target, BasicFileAttributes attrs) throws IOException {
+		Files.deleteIfExists(target); //the target may be a hardlink, which must not be written through
+		if(reflinks) {
+			if(Reflinks.reflink(source, target)) {
+				copyPermissions(source, target, attrs); //FICLONE targets are created with a fixed mode
+				Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+				cloned.increment();
+				return null;
+			}
+			reflinks = false;
+		}
+		if(hardlinks && !writtenFiles.test(relative)) {
+			try {
+				Files.createLink(target, source);
+				linked.increment();
+				return null;
+			}
+			catch(UnsupportedOperationException | FileSystemException e) {
+				hardlinks = false;
+			}
+		}
+		byte[] hash = null;
+		if(fingerprint) {
+			hash = copyAndHash(source, target);
+			copyPermissions(source, target, attrs);
+		}
+		else if(attrs.size() >= TRANSFER_THRESHOLD) {
+			transfer(source, target, attrs.size());
+			copyPermissions(source, target, attrs);
+		}
+		else {
+			Files.copy(source, target);
+		}
+		Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+		return hash;
+	}
+
+	/**
+	 * Copies a file through a buffer, hashing each chunk before it is written.
+	 */
+	private static byte[] copyAndHash(Path source, Path target) throws IOException {
+		MessageDigest digest = WorkspaceManifest.newDigest();
+		try(FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+			ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+			while(in.read(buffer) != -1) {
+				buffer.flip();
+				digest.update(buffer.array(), 0, buffer.limit());
+				while(buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+				buffer.clear();
+			}
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Gives the target the POSIX permissions of the source, such as the executable bit of the
+	 * bundled JRE, as files created through a channel only get the default permissions.
+	 */
+	private static void copyPermissions(Path source, Path target, BasicFileAttributes attrs) throws IOException {
+		if(attrs instanceof PosixFileAttributes posix) {
+			Files.setPosixFilePermissions(target, posix.permissions());
+			return;
+		}
+		PosixFileAttributeView view = Files.getFileAttributeView(source, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+		if(view != null) {
+			Files.setPosixFilePermissions(target, view.readAttributes().permissions());
+		}
+	}
+
+	private static void transfer(Path source, Path target, long size) throws IOException {
+		try(FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+			long position = 0;
+			while(position < size) {
+				long transferred = in.transferTo(position, size - position, out);
+				if(transferred <= 0) {
+					if(in.size() > position) {
+						copyRemaining(in, out, position); //the channel made no progress, copy the rest through a buffer
+					}
+					break; //otherwise the source shrank while it was copied
+				}
+				position += transferred;
+			}
+		}
+	}
+
+	private static void copyRemaining(FileChannel in, FileChannel out, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+		int read;
+		while((read = in.read(buffer, position)) != -1) {
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				out.write(buffer, position + buffer.position());
+			}
+			position += read;
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * A file is unchanged if it has the same size and modification time as its source, or, when
+	 * comparing checksums, the same contents. Modification times are compared in milliseconds,
+	 * as not every filesystem stores them more precisely.
+	 */
+	private boolean isUnchanged(Path source, Path target, BasicFileAttributes attrs, BasicFileAttributes existing) throws IOException {
+		if(attrs.fileKey() != null && attrs.fileKey().equals(existing.fileKey())) {
+			return true; //hardlinked to the source
+		}
+		if(attrs.size() != existing.size()) {
+			return false;
+		}
+		if(!checksum) {
+			return attrs.lastModifiedTime().toMillis() == existing.lastModifiedTime().toMillis();
+		}
+		if(Files.mismatch(source, target) != -1) {
+			return false;
+		}
+		Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+		return true;
+	}
+
+	private static BasicFileAttributes readAttributes(Path file) throws IOException {
+		try {
+			return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		}
+		catch(NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Deletes the files of the previous copy which are no longer in the source, along with the
+	 * directories this leaves empty. Files in skipped directories are kept, files the filter
+	 * leaves out are deleted.
+	 */
+	private void deleteRemoved(Set<String> previous, Set<String> current) throws IOException {
+		for(String entry : previous) {
+			if(current.contains(entry)) {
+				continue;
+			}
+			Path relative = Path.of(entry);
+			if(isInSkippedDirectory(relative)) {
+				continue;
+			}
+			Path file = destDir.resolve(entry);
+			if(Files.deleteIfExists(file)) {
+				deleted++;
+			}
+			for(Path dir = file.getParent(); dir != null && !dir.equals(destDir) && dir.startsWith(destDir); dir = dir.getParent()) {
+				try {
+					Files.deleteIfExists(dir);
+				}
+				catch(DirectoryNotEmptyException e) {
+					break;
+				}
+			}
+		}
+	}
+
+	private boolean isInSkippedDirectory(Path relative) {
+		for(int i = 1; i < relative.getNameCount(); i++) {
+			if(skipDirectory.test(relative.subpath(0, i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String toEntry(Path relative) {
+		return relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+	}
+
+	private void report(long nanos) {
+		if(sync) {
+			reporter.accept(String.format(Locale.ROOT, "Synced workspace in %.2fs: %d new, %d changed, %d deleted and %d unchanged files, %.1f MiB written", nanos / 1e9, files.sum() - changed.sum(), changed.sum(), deleted, skipped.sum(), bytes.sum() / (1024d * 1024d)));
+			return;
+		}
+		String summary = summarize(nanos);
+		if(cloned.sum() > 0 || linked.sum() > 0) {
+			summary += ", " + cloned.sum() + " cloned, " + linked.sum() + " hardlinked and " + (files.sum() - cloned.sum() - linked.sum()) + " copied";
+		}
+		if(skipped.sum() > 0) {
+			summary += ", " + skipped.sum() + " files already existed and were not copied";
+		}
+		reporter.accept(summary);
+	}
+
+	private String summarize(long nanos) {
+		double seconds = Math.max(nanos / 1e9, 1e-3);
+		double mebibytes = bytes.sum() / (1024d * 1024d);
+		return String.format(Locale.ROOT, "%s %d files (%.1f MiB) in %.2fs, %.0f files/s, %.1f MiB/s", mode == MaterializationMode.copy ? "Copied" : "Materialized", files.sum(), mebibytes, seconds, files.sum() / seconds, mebibytes / seconds);
+	}
+
+	public MaterializationMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @param mode whether files are copied, cloned or hardlinked
+	 */
+	public void setMode(MaterializationMode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * @param filter which files of the source are copied. Directories it leaves out are not walked.
+	 */
+	public void setFilter(WorkspaceFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * @param source what the files are, recorded in the manifest. Defaults to the source directory.
+	 */
+	public void setSource(String source) {
+		this.source = source;
+	}
+
+	/**
+	 * @param writtenFiles whether the game writes to a file, given its path relative to the source
+	 * directory. Such files are never hardlinked and not verified. They are replaced when
+	 * overwriting, or when syncing and their source changed while the game left the copy alone.
+	 */
+	public void setWrittenFiles(Predicate<Path> writtenFiles) {
+		this.writtenFiles = writtenFiles;
+	}
+
+	/**
+	 * @param sync whether to only copy new and changed files, and delete files which were removed
+	 * from the source. Files which already exist are otherwise only replaced when overwriting.
+	 */
+	public void setSync(boolean sync) {
+		this.sync = sync;
+	}
+
+	/**
+	 * @param fingerprint whether copied files are hashed for the manifest. Without fingerprints,
+	 * large files are copied with {@link FileChannel#transferTo} instead, which lets the kernel
+	 * move the data without passing it through the JVM.
+	 */
+	public void setFingerprint(boolean fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * @param checksum whether syncing compares the contents of files of the same size, rather
+	 * than their modification times
+	 */
+	public void setChecksum(boolean checksum) {
+		this.checksum = checksum;
+	}
+
+	public long getFilesCopied() {
+		return files.sum();
+	}
+
+	public long getBytesCopied() {
+		return bytes.sum();
+	}
+
+	public long getFilesSkipped() {
+		return skipped.sum();
+	}
+
+	public long getFilesChanged() {
+		return changed.sum();
+	}
+
+	public int getFilesDeleted() {
+		return deleted;
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.wildermods.workspace.copy;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which files of a game installation are put into the workspace, from include and
+ * exclude patterns such as {@code lib/**} or {@code **}{@code /logs/**}.
+ * <p>
+ * Patterns are relative to the installation and separated by {@code /}. A {@code **} segment
+ * matches any number of directories, {@code *} and {@code ?} match within a segment. A file is
+ * included if it matches an include pattern, or there are none, and matches no exclude pattern.
+ * </p>
+ * <p>
+ * The patterns are compiled once, segments without wildcards into plain string comparisons.
+ * Directories are pruned while walking: a directory is skipped if no include pattern can match
+ * anything below it, or an exclude pattern ending in {@code /**} matches it, so the files of
+ * skipped directories are never listed.
+ * </p>
+ */
+public class WorkspaceFilter {
+
+	public static final WorkspaceFilter ALL = new WorkspaceFilter(List.of(), List.of());
+
+	private final List<Glob> includes = new ArrayList<>();
+	private final List<Glob> excludes = new ArrayList<>();
+
+	public WorkspaceFilter(Collection<String> includes, Collection<String> excludes) {
+		for(String include : includes) {
+			this.includes.add(new Glob(include));
+		}
+		for(String exclude : excludes) {
+			this.excludes.add(new Glob(exclude));
+		}
+	}
+
+	/**
+	 * @param file a file, relative to the installation
+	 * @return whether the file is put into the workspace
+	 */
+	public boolean includesFile(Path file) {
+		String[] segments = segments(file);
+		if(!includes.isEmpty() && includes.stream().noneMatch(glob -> glob.matches(segments, false))) {
+			return false;
+		}
+		return excludes.stream().noneMatch(glob -> glob.matches(segments, false));
+	}
+
+	/**
+	 * @param dir a directory, relative to the installation
+	 * @return whether no file below the directory is put into the workspace
+	 */
+	public boolean skipsDirectory(Path dir) {
+		String[] segments = segments(dir);
+		if(!includes.isEmpty() && includes.stream().noneMatch(glob -> glob.matches(segments, true))) {
+			return true;
+		}
+		return excludes.stream().anyMatch(glob -> glob.excludesDirectory(segments));
+	}
+
+	/**
+	 * @return whether every file is put into the workspace
+	 */
+	public boolean isAll() {
+		return includes.isEmpty() && excludes.isEmpty();
+	}
+
+	private static String[] segments(Path relative) {
+		String[] segments = new String[relative.getNameCount()];
+		for(int i = 0; i < segments.length; i++) {
+			segments[i] = relative.getName(i).toString();
+		}
+		return segments;
+	}
+
+	private static class Glob {
+
+		private static final String ANY = "**";
+
+		private final String[] literals;
+		private final Pattern[] patterns;
+
+		private Glob(String glob) {
+			String[] segments = glob.replace('\\', '/').split("/");
+			literals = new String[segments.length];
+			patterns = new Pattern[segments.length];
+			for(int i = 0; i < segments.length; i++) {
+				String segment = segments[i];
+				if(segment.equals(ANY) || (segment.indexOf('*') == -1 && segment.indexOf('?') == -1)) {
+					literals[i] = segment;
+					continue;
+				}
+				StringBuilder regex = new StringBuilder();
+				for(String part : segment.split("(?=[*?])|(?<=[*?])")) {
+					switch(part) {
+						case "*" -> regex.append("[^/]*");
+						case "?" -> regex.append("[^/]");
+						default -> regex.append(Pattern.quote(part));
+					}
+				}
+				patterns[i] = Pattern.compile(regex.toString());
+			}
+		}
+
+		/**
+		 * @param prefix whether the path is a directory, which matches if the glob can match a file below it
+		 */
+		private boolean matches(String[] path, boolean prefix) {
+			return matches(0, path, 0, prefix);
+		}
+
+		private boolean matches(int g, String[] path, int p, boolean prefix) {
+			if(p == path.length) {
+				if(prefix) {
+					return g < literals.length;
+				}
+				for(; g < literals.length; g++) {
+					if(!ANY.equals(literals[g])) {
+						return false;
+					}
+				}
+				return true;
+			}
+			if(g == literals.length) {
+				return false;
+			}
+			if(ANY.equals(literals[g])) {
+				return matches(g + 1, path, p, prefix) || matches(g, path, p + 1, prefix);
+			}
+			if(!matchesSegment(g, path[p])) {
+				return false;
+			}
+			return matches(g + 1, path, p + 1, prefix);
+		}
+
+		private boolean matchesSegment(int g, String segment) {
+			if(literals[g] != null) {
+				return literals[g].equals(segment);
+			}
+			return patterns[g].matcher(segment).matches();
+		}
+
+		/**
+		 * @return whether the glob ends in {@code /**} and the rest of it matches the directory
+		 */
+		private boolean excludesDirectory(String[] dir) {
+			int last = literals.length - 1;
+			if(last < 1 || !ANY.equals(literals[last])) {
+				return false;
+			}
+			return matchesUpTo(0, last, dir, 0);
+		}
+
+		private boolean matchesUpTo(int g, int end, String[] path, int p) {
+			if(g == end) {
+				return p == path.length;
+			}
+			if(ANY.equals(literals[g])) {
+				return matchesUpTo(g + 1, end, path, p) || (p < path.length && matchesUpTo(g, end, path, p + 1));
+			}
+			return p < path.length && matchesSegment(g, path[p]) && matchesUpTo(g + 1, end, path, p + 1);
+		}
+
+	}
+
+}
@@ -0,0 +1,384 @@
+package com.wildermods.workspace.copy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * The files of a workspace, with the size, modification time, file key (the inode on Unix) and
+ * SHA-256 hash each file had when it was copied or verified. The manifest of the copied files is
+ * stored in {@code <destDir>/.wilderworkspace/manifest}, other manifests next to it.
+ * <p>
+ * The workspace is {@link #verify(Path) verified} against the manifest without reading the
+ * files: only files whose size, modification time or file key changed are hashed again. Files
+ * which were cloned or hardlinked rather than copied have no hash, as they are never read, and
+ * count as modified if their metadata changed.
+ * </p>
+ * <p>
+ * Files the game writes to are not verified, as the game changes them. For them, the manifest
+ * only records the size and modification time of the source and of the copy, so a sync can tell
+ * whether the source or the copy changed since the file was copied.
+ * </p>
+ * <p>
+ * The manifest is a binary file of a header with the source directory and the number of files,
+ * followed by the path, size, modification time, file key and hash of every file, and then the
+ * number of written files followed by the path and the two stamps of every written file.
+ * </p>
+ */
+public class WorkspaceManifest {
+
+	public static final String FILE_NAME = "manifest";
+
+	private static final int MAGIC = 0x57574D46; //WWMF
+	private static final int FORMAT_VERSION = 4;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final String source;
+	private final Map<String, Entry> entries;
+	private final Map<String, Written> written;
+
+	public WorkspaceManifest(String source, Map<String, Entry> entries) {
+		this(source, entries, Map.of());
+	}
+
+	public WorkspaceManifest(String source, Map<String, Entry> entries, Map<String, Written> written) {
+		this.source = source;
+		this.entries = new TreeMap<>(entries);
+		this.written = new TreeMap<>(written);
+	}
+
+	public static Path getFile(Path destDir, String name) {
+		return destDir.resolve(WorkspaceCopier.STATE_DIR).resolve(name);
+	}
+
+	/**
+	 * @return the manifest of the files copied into the workspace, or null if it has none or it can't be read
+	 */
+	public static WorkspaceManifest read(Path destDir) {
+		return read(destDir, FILE_NAME);
+	}
+
+	/**
+	 * @return the manifest of the workspace with the name, or null if it has none or it can't be read
+	 */
+	public static WorkspaceManifest read(Path destDir, String name) {
+		Path file = getFile(destDir, name);
+		if(!Files.isRegularFile(file)) {
+			return null;
+		}
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+			if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+				return null;
+			}
+			String source = in.readUTF();
+			int count = in.readInt();
+			Map<String, Entry> entries = new TreeMap<>();
+			for(int i = 0; i < count; i++) {
+				String path = in.readUTF();
+				long size = in.readLong();
+				long modified = in.readLong();
+				int key = in.readInt();
+				byte[] hash = new byte[in.readUnsignedByte()];
+				in.readFully(hash);
+				entries.put(path, new Entry(size, modified, key, hash.length == 0 ? null : hash));
+			}
+			int writtenCount = in.readInt();
+			Map<String, Written> written = new TreeMap<>();
+			for(int i = 0; i < writtenCount; i++) {
+				String path = in.readUTF();
+				written.put(path, new Written(readStamp(in), readStamp(in)));
+			}
+			return new WorkspaceManifest(source, entries, written);
+		}
+		catch(IOException e) {
+			return null;
+		}
+	}
+
+	public void write(Path destDir) throws IOException {
+		write(destDir, FILE_NAME);
+	}
+
+	public void write(Path destDir, String name) throws IOException {
+		Path file = getFile(destDir, name);
+		Files.createDirectories(file.getParent());
+		Path temp = Files.createTempFile(file.getParent(), name, ".tmp");
+		try {
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(source);
+				out.writeInt(entries.size());
+				for(Map.Entry<String, Entry> entry : entries.entrySet()) {
+					Entry value = entry.getValue();
+					out.writeUTF(entry.getKey());
+					out.writeLong(value.size());
+					out.writeLong(value.modified());
+					out.writeInt(value.key());
+					byte[] hash = value.hash() == null ? new byte[0] : value.hash();
+					out.writeByte(hash.length);
+					out.write(hash);
+				}
+				out.writeInt(written.size());
+				for(Map.Entry<String, Written> entry : written.entrySet()) {
+					out.writeUTF(entry.getKey());
+					writeStamp(out, entry.getValue().source());
+					writeStamp(out, entry.getValue().copy());
+				}
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static Entry readStamp(DataInputStream in) throws IOException {
+		return new Entry(in.readLong(), in.readLong(), in.readInt(), null);
+	}
+
+	private static void writeStamp(DataOutputStream out, Entry stamp) throws IOException {
+		out.writeLong(stamp.size());
+		out.writeLong(stamp.modified());
+		out.writeInt(stamp.key());
+	}
+
+	/**
+	 * Lists the files of a directory.
+	 *
+	 * @param skipDirectory whether to leave out a directory, given its path relative to the directory
+	 * @param skipFile whether to leave out a file, given its path relative to the directory
+	 * @return the paths of the files, relative to the directory and separated by {@code /}
+	 */
+	public static List<String> list(Path dir, Predicate<Path> skipDirectory, Predicate<Path> skipFile) throws IOException {
+		List<String> files = new ArrayList<>();
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attrs) {
+				Path relative = dir.relativize(directory);
+				if(attrs.isSymbolicLink() || (!relative.toString().isEmpty() && (relative.toString().equals(WorkspaceCopier.STATE_DIR) || skipDirectory.test(relative)))) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				Path relative = dir.relativize(file);
+				if(attrs.isRegularFile() && !skipFile.test(relative)) {
+					files.add(relative.toString().replace(dir.getFileSystem().getSeparator(), "/"));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return files;
+	}
+
+	/**
+	 * Records the metadata of files which were just verified by other means, without reading
+	 * them. A file only gets a hash if {@code known} has one for the same metadata, so the others
+	 * count as modified as soon as their metadata changes.
+	 *
+	 * @param dir the directory of the files
+	 * @param source what the files are
+	 * @param files the paths of the files, relative to the directory. Missing files are left out.
+	 * @param known a manifest to take the hashes from, or null
+	 */
+	public static WorkspaceManifest stamp(Path dir, String source, Collection<String> files, WorkspaceManifest known) throws IOException {
+		Map<String, Entry> entries = new TreeMap<>();
+		for(String name : files) {
+			BasicFileAttributes attrs;
+			try {
+				attrs = Files.readAttributes(dir.resolve(name), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			}
+			catch(NoSuchFileException e) {
+				continue;
+			}
+			Entry previous = known == null ? null : known.entries.get(name);
+			byte[] hash = previous != null && previous.equals(Entry.of(attrs, previous.hash())) ? previous.hash() : null;
+			entries.put(name, Entry.of(attrs, hash));
+		}
+		return new WorkspaceManifest(source, entries);
+	}
+
+	/**
+	 * Checks the files of the workspace against the manifest. Files whose contents turned out to
+	 * be unchanged although their metadata changed are updated in the manifest, so they are not
+	 * hashed again by the next verification.
+	 */
+	public Verification verify(Path destDir) throws IOException {
+		return verify(destDir, FILE_NAME);
+	}
+
+	/**
+	 * Checks the files of the workspace against the manifest with the name.
+	 */
+	public Verification verify(Path destDir, String name) throws IOException {
+		long start = System.nanoTime();
+		List<String> missing = new ArrayList<>();
+		List<String> modified = new ArrayList<>();
+		int rehashed = 0;
+		boolean updated = false;
+		for(Map.Entry<String, Entry> entry : entries.entrySet()) {
+			Entry expected = entry.getValue();
+			Path file = destDir.resolve(entry.getKey());
+			BasicFileAttributes attrs;
+			try {
+				attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			}
+			catch(NoSuchFileException e) {
+				missing.add(entry.getKey());
+				continue;
+			}
+			if(attrs.size() != expected.size()) {
+				modified.add(entry.getKey());
+			}
+			else if(attrs.lastModifiedTime().toMillis() != expected.modified() || Objects.hashCode(attrs.fileKey()) != expected.key()) {
+				if(expected.hash() == null) {
+					modified.add(entry.getKey());
+					continue;
+				}
+				rehashed++;
+				if(Arrays.equals(hash(file), expected.hash())) {
+					entry.setValue(Entry.of(attrs, expected.hash()));
+					updated = true;
+				}
+				else {
+					modified.add(entry.getKey());
+				}
+			}
+		}
+		if(updated) {
+			write(destDir, name);
+		}
+		return new Verification(entries.size(), Collections.unmodifiableList(missing), Collections.unmodifiableList(modified), rehashed, System.nanoTime() - start);
+	}
+
+	/**
+	 * @return the directory the files were copied from
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	public Map<String, Entry> getEntries() {
+		return Collections.unmodifiableMap(entries);
+	}
+
+	/**
+	 * @return the files the game writes to, which are not verified
+	 */
+	public Map<String, Written> getWrittenFiles() {
+		return Collections.unmodifiableMap(written);
+	}
+
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	static byte[] hash(Path file) throws IOException {
+		MessageDigest digest = newDigest();
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			while(channel.read(buffer) != -1) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * @param size the size of the file
+	 * @param modified the modification time of the file, in milliseconds
+	 * @param key the hash code of the file key of the file, which identifies its inode on Unix
+	 * @param hash the SHA-256 hash of the file, or null if it was not read when it was copied
+	 */
+	public static record Entry(long size, long modified, int key, byte[] hash) {
+
+		public static Entry of(BasicFileAttributes attrs, byte[] hash) {
+			return new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), Objects.hashCode(attrs.fileKey()), hash);
+		}
+
+	}
+
+	/**
+	 * The stamps of a file the game writes to, without hashes.
+	 *
+	 * @param source the stamp of the file it was copied from, when it was copied
+	 * @param copy the stamp of the copy, right after it was copied
+	 */
+	public static record Written(Entry source, Entry copy) {
+
+		/**
+		 * @return whether the file it was copied from changed since
+		 */
+		public boolean isSourceChanged(BasicFileAttributes attrs) {
+			return !source.equals(Entry.of(attrs, null));
+		}
+
+		/**
+		 * @return whether the copy changed since, for example because the game wrote to it
+		 */
+		public boolean isCopyChanged(BasicFileAttributes attrs) {
+			return !copy.equals(Entry.of(attrs, null));
+		}
+
+	}
+
+	/**
+	 * @param files the number of files in the manifest
+	 * @param missing the files which no longer exist
+	 * @param modified the files whose contents changed
+	 * @param rehashed the number of files which had to be hashed again
+	 * @param nanos how long the verification took
+	 */
+	public static record Verification(int files, List<String> missing, List<String> modified, int rehashed, long nanos) {
+
+		public boolean isIntact() {
+			return missing.isEmpty() && modified.isEmpty();
+		}
+
+		/**
+		 * @return a summary of the problems, naming the first few files
+		 */
+		public String describe() {
+			List<String> examples = new ArrayList<>();
+			missing.stream().limit(5).forEach(file -> examples.add(file + " (missing)"));
+			modified.stream().limit(5).forEach(file -> examples.add(file + " (modified)"));
+			return missing.size() + " missing and " + modified.size() + " modified of " + files + " files, such as " + String.join(", ", examples);
+		}
+
+	}
+
+}
@@ -0,0 +1,304 @@
+package com.wildermods.workspace.copy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+import org.apache.commons.io.file.PathUtils;
+
+/**
+ * Keeps the workspace of every game version a project used side by side, and switches between
+ * them by pointing a symbolic link, such as {@code bin}, at the slot of the active version.
+ * <p>
+ * Each slot at {@code <slotsDir>/<version>} has its own game files and decompiled sources in
+ * {@code game}, and its own Ivy repository in {@code ivy}. Switching to a version which was
+ * prepared before only replaces the link, which is atomic, so the workspace is never seen half
+ * switched, and takes milliseconds instead of copying and decompiling the game again.
+ * </p>
+ * <p>
+ * Activating a slot only touches the link and the state of the slot, so it is cheap enough to
+ * run while the build is configured. The size of a slot is recorded by {@link #record(Slot)}
+ * once files were put into it, and when the slots take more disk space than the budget,
+ * {@link #evict(Slot)} deletes the least recently used slots until they fit. The active slot is
+ * never deleted. A workspace directory which
+ * predates the slots is moved into a slot named after its {@code version.txt}, rather than
+ * deleted.
+ * </p>
+ */
+public class WorkspaceSlots {
+
+	public static final long DEFAULT_BUDGET = 16L << 30;
+
+	public static final String GAME_DIR = "game";
+	public static final String IVY_DIR = "ivy";
+
+	private static final String STATE_FILE = "slot.properties";
+	private static final String LAST_USED = "lastUsed";
+	private static final String SIZE = "size";
+
+	private final Path slotsDir;
+	private final Path link;
+	private final long budget;
+	private final Consumer<String> reporter;
+
+	/**
+	 * @param slotsDir the directory the slots are kept in
+	 * @param link the symbolic link to the game directory of the active slot
+	 * @param budget the disk space the slots may take, in bytes
+	 * @param reporter receives switches and evictions
+	 */
+	public WorkspaceSlots(Path slotsDir, Path link, long budget, Consumer<String> reporter) {
+		this.slotsDir = slotsDir.toAbsolutePath().normalize();
+		this.link = link.toAbsolutePath().normalize();
+		this.budget = budget;
+		this.reporter = reporter;
+	}
+
+	/**
+	 * Makes the slot of the version the active one, creating it if it doesn't exist yet.
+	 */
+	public Slot activate(String version) throws IOException {
+		long start = System.nanoTime();
+		Slot slot = getSlot(version);
+		Path previous = getActiveGameDir();
+		if(slot.gameDir().equals(previous)) {
+			Files.createDirectories(slot.gameDir()); //the slot may have been cleared
+			Files.createDirectories(slot.ivyDir());
+			writeState(slot.dir(), System.currentTimeMillis(), readState(slot.dir()).getProperty(SIZE));
+			return slot;
+		}
+
+		if(Files.exists(link, LinkOption.NOFOLLOW_LINKS) && !Files.isSymbolicLink(link)) {
+			adopt();
+		}
+		if(previous != null && Files.isDirectory(previous)) {
+			Path previousDir = previous.getParent();
+			writeState(previousDir, System.currentTimeMillis(), readState(previousDir).getProperty(SIZE));
+		}
+		Files.createDirectories(slot.gameDir());
+		Files.createDirectories(slot.ivyDir());
+		writeState(slot.dir(), System.currentTimeMillis(), readState(slot.dir()).getProperty(SIZE));
+		point(slot.gameDir());
+		reporter.accept(String.format(Locale.ROOT, "Switched the workspace to the slot of %s in %dms", version, (System.nanoTime() - start) / 1_000_000));
+		return slot;
+	}
+
+	/**
+	 * Records the size of the files of a slot, after files were put into it.
+	 */
+	public void record(Slot slot) throws IOException {
+		if(Files.isDirectory(slot.dir())) {
+			writeState(slot.dir(), System.currentTimeMillis(), Long.toString(measure(slot.dir())));
+		}
+	}
+
+	/**
+	 * @return the slot of the version, which might not exist yet
+	 */
+	public Slot getSlot(String version) {
+		String name = toSlotName(version);
+		Path dir = slotsDir.resolve(name);
+		return new Slot(name, dir.resolve(GAME_DIR), dir.resolve(IVY_DIR));
+	}
+
+	/**
+	 * @return the game directory the link points at, or null if it is not a symbolic link
+	 */
+	private Path getActiveGameDir() throws IOException {
+		if(!Files.isSymbolicLink(link)) {
+			return null;
+		}
+		return link.getParent().resolve(Files.readSymbolicLink(link)).toAbsolutePath().normalize();
+	}
+
+	/**
+	 * Replaces the link with one to the game directory. The new link is created next to the old
+	 * one and renamed over it.
+	 */
+	private void point(Path gameDir) throws IOException {
+		Path temp = link.resolveSibling("." + link.getFileName() + "-" + System.nanoTime() + ".tmp");
+		Files.createSymbolicLink(temp, link.getParent().relativize(gameDir));
+		try {
+			Files.move(temp, link, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(AtomicMoveNotSupportedException e) {
+			Files.deleteIfExists(link);
+			Files.move(temp, link);
+		}
+		catch(IOException e) {
+			//some platforms refuse to rename over a link to a directory
+			if(!Files.isSymbolicLink(link)) {
+				Files.deleteIfExists(temp);
+				throw e;
+			}
+			Files.delete(link);
+			Files.move(temp, link);
+		}
+	}
+
+	/**
+	 * Moves a workspace directory which predates the slots into the slot of its version.
+	 */
+	private void adopt() throws IOException {
+		String version = "unversioned";
+		Path versionFile = link.resolve("version.txt");
+		if(Files.isRegularFile(versionFile)) {
+			String[] contents = Files.readString(versionFile).trim().split("\\s+");
+			if(contents.length > 0 && !contents[0].isEmpty()) {
+				version = contents[0];
+			}
+		}
+		Path dir = getSlot(version).dir();
+		if(Files.exists(dir)) {
+			dir = slotsDir.resolve(toSlotName(version) + "-adopted-" + System.currentTimeMillis());
+		}
+		Files.createDirectories(dir);
+		Files.move(link, dir.resolve(GAME_DIR));
+		Files.createDirectories(dir.resolve(IVY_DIR));
+		writeState(dir, System.currentTimeMillis(), null);
+		reporter.accept("Moved the existing workspace at " + link + " into the slot " + dir.getFileName());
+	}
+
+	/**
+	 * Deletes the least recently used slots until the slots fit into the budget. Slots whose
+	 * size was not recorded are measured.
+	 */
+	public void evict(Slot active) throws IOException {
+		if(!Files.isDirectory(slotsDir)) {
+			return;
+		}
+		List<SlotState> slots = new ArrayList<>();
+		try(DirectoryStream<Path> dirs = Files.newDirectoryStream(slotsDir, Files::isDirectory)) {
+			for(Path dir : dirs) {
+				if(dir.getFileName().toString().startsWith(".")) {
+					continue;
+				}
+				Properties state = readState(dir);
+				try {
+					String size = state.getProperty(SIZE);
+					slots.add(new SlotState(dir, Long.parseLong(state.getProperty(LAST_USED, "0")), size != null ? Long.parseLong(size) : measure(dir)));
+				}
+				catch(NumberFormatException e) {
+					slots.add(new SlotState(dir, 0, measure(dir)));
+				}
+			}
+		}
+		slots.sort(Comparator.comparing((SlotState state) -> !state.dir().equals(active.dir())).thenComparing(SlotState::lastUsed, Comparator.reverseOrder()));
+
+		long total = 0;
+		for(SlotState slot : slots) {
+			total += slot.size();
+			if(total <= budget || slot.dir().equals(active.dir())) {
+				continue;
+			}
+			total -= slot.size();
+			Path evicted = slotsDir.resolve("." + slot.dir().getFileName() + "-evicted-" + System.nanoTime());
+			Files.move(slot.dir(), evicted, StandardCopyOption.ATOMIC_MOVE);
+			PathUtils.deleteDirectory(evicted);
+			reporter.accept(String.format(Locale.ROOT, "Evicted the workspace slot %s (%.1f MiB), which was least recently used, to stay within the budget of %.1f MiB", slot.dir().getFileName(), slot.size() / (1024d * 1024d), budget / (1024d * 1024d)));
+		}
+	}
+
+	/**
+	 * @return the size of the files of a slot
+	 */
+	private static long measure(Path dir) throws IOException {
+		long[] size = {0};
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if(attrs.isRegularFile()) {
+					size[0] += attrs.size();
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return size[0];
+	}
+
+	private static Properties readState(Path dir) {
+		Properties state = new Properties();
+		Path file = dir.resolve(STATE_FILE);
+		if(Files.isRegularFile(file)) {
+			try(InputStream in = Files.newInputStream(file)) {
+				state.load(in);
+			}
+			catch(IOException | IllegalArgumentException e) {
+				//a damaged state is measured again
+				state.clear();
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * @param size the size of the files of the slot, or null if it is not known
+	 */
+	private static void writeState(Path dir, long lastUsed, String size) throws IOException {
+		Properties state = new Properties();
+		state.setProperty(LAST_USED, Long.toString(lastUsed));
+		if(size != null) {
+			state.setProperty(SIZE, size);
+		}
+		Files.createDirectories(dir);
+		try(OutputStream out = Files.newOutputStream(dir.resolve(STATE_FILE))) {
+			state.store(out, null);
+		}
+	}
+
+	private static String toSlotName(String version) {
+		return version.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+
+	/**
+	 * Parses a size such as {@code 16g}, {@code 500m} or a number of bytes.
+	 */
+	public static long parseSize(String size) {
+		String trimmed = size.trim().toLowerCase(Locale.ROOT);
+		int shift = switch(trimmed.isEmpty() ? ' ' : trimmed.charAt(trimmed.length() - 1)) {
+			case 'k' -> 10;
+			case 'm' -> 20;
+			case 'g' -> 30;
+			case 't' -> 40;
+			default -> 0;
+		};
+		String number = shift == 0 ? trimmed : trimmed.substring(0, trimmed.length() - 1);
+		try {
+			return Long.parseLong(number) << shift;
+		}
+		catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid size '" + size + "', expected a number of bytes or a number followed by k, m, g or t", e);
+		}
+	}
+
+	/**
+	 * @param name the name of the slot, its directory name
+	 * @param gameDir the game files and decompiled sources of the slot
+	 * @param ivyDir the Ivy repository of the game jars of the slot
+	 */
+	public static record Slot(String name, Path gameDir, Path ivyDir) {
+
+		public Path dir() {
+			return gameDir.getParent();
+		}
+
+	}
+
+	private static record SlotState(Path dir, long lastUsed, long size) {}
+
+}
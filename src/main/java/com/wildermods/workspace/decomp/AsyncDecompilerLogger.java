@@ -0,0 +1,272 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jetbrains.java.decompiler.main.extern.IFernflowerLogger;
+
+import net.fabricmc.loom.util.IOStringConsumer;
+
+/**
+ * A decompiler logger which never blocks the decompiler threads.
+ * <p>
+ * Messages below the level of the delegate are dropped before anything is done with them.
+ * The rest are put into a bounded, lock-free ring buffer and passed on to the delegate by a
+ * single drain thread, so a slow delegate such as Gradle's logging never holds up
+ * decompilation. If the buffer is full, trace and info messages are dropped and counted
+ * instead of waiting, while warnings and errors go to an unbounded lock-free overflow queue
+ * so they are never lost. Every message, including trace messages below the level of the delegate, can
+ * additionally be spilled to a trace file.
+ * </p>
+ * <p>
+ * The number of messages of each severity is counted, and reported when the logger is closed.
+ * </p>
+ */
+public class AsyncDecompilerLogger extends IFernflowerLogger implements IOStringConsumer, AutoCloseable {
+
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	private static final Severity[] SEVERITIES = Severity.values();
+
+	private final IFernflowerLogger delegate;
+	private final Severity level;
+	private final PrintWriter traceWriter;
+	private final RingBuffer buffer;
+	private final Queue<Message> overflow = new ConcurrentLinkedQueue<>();
+	private final LongAdder[] counts = new LongAdder[SEVERITIES.length];
+	private final LongAdder dropped = new LongAdder();
+	private final Thread drainer;
+	private volatile boolean closed;
+
+	/**
+	 * @param delegate receives the messages at or above {@code level}, on the drain thread
+	 * @param level the lowest severity passed on to the delegate
+	 * @param traceFile the file every message is written to, or null to not write one
+	 * @param capacity the number of messages the buffer holds, rounded up to a power of two
+	 */
+	public AsyncDecompilerLogger(IFernflowerLogger delegate, Severity level, Path traceFile, int capacity) throws IOException {
+		this.delegate = delegate;
+		this.level = level;
+		if(traceFile != null) {
+			Files.createDirectories(traceFile.toAbsolutePath().getParent());
+			BufferedWriter writer = Files.newBufferedWriter(traceFile);
+			this.traceWriter = new PrintWriter(writer);
+		}
+		else {
+			this.traceWriter = null;
+		}
+		this.buffer = new RingBuffer(capacity);
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = new LongAdder();
+		}
+		super.setSeverity(getEffectiveLevel());
+		this.drainer = new Thread(this::drain, "WilderWorkspace decompiler log");
+		this.drainer.setDaemon(true);
+		this.drainer.start();
+	}
+
+	/**
+	 * @return the lowest severity this logger does anything with, which is the value to use
+	 * for the decompiler's {@code LOG_LEVEL} option
+	 */
+	public Severity getEffectiveLevel() {
+		return traceWriter != null ? Severity.TRACE : level;
+	}
+
+	@Override
+	public void setSeverity(Severity severity) {
+		//the decompiler sets the severity from its options, which are derived from this logger
+		super.setSeverity(severity.ordinal() < getEffectiveLevel().ordinal() ? getEffectiveLevel() : severity);
+	}
+
+	@Override
+	public boolean accepts(Severity severity) {
+		return severity.ordinal() >= getEffectiveLevel().ordinal();
+	}
+
+	@Override
+	public void writeMessage(String message, Severity severity) {
+		writeMessage(message, severity, null);
+	}
+
+	@Override
+	public void writeMessage(String message, Severity severity, Throwable t) {
+		if(!accepts(severity)) {
+			return;
+		}
+		counts[severity.ordinal()].increment();
+		Message m = new Message(message, severity, t);
+		if(closed || (!buffer.offer(m) && (severity.ordinal() < Severity.WARN.ordinal() || !overflow.offer(m)))) {
+			dropped.increment();
+		}
+	}
+
+	@Override
+	public void accept(String data) {
+		writeMessage(data, Severity.INFO);
+	}
+
+	/**
+	 * @return the number of messages of the given severity received so far
+	 */
+	public long getCount(Severity severity) {
+		return counts[severity.ordinal()].sum();
+	}
+
+	/**
+	 * @return the number of trace and info messages dropped because the buffer was full
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	private void drain() {
+		while(true) {
+			Message message = buffer.poll();
+			if(message == null) {
+				message = overflow.poll();
+			}
+			if(message != null) {
+				deliver(message);
+				continue;
+			}
+			if(closed) {
+				//messages offered just before closing are still delivered
+				while((message = buffer.poll()) != null || (message = overflow.poll()) != null) {
+					deliver(message);
+				}
+				return;
+			}
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+	}
+
+	private void deliver(Message message) {
+		try {
+			if(traceWriter != null) {
+				traceWriter.println(message.severity() + ": " + message.text());
+				if(message.throwable() != null) {
+					message.throwable().printStackTrace(traceWriter);
+				}
+			}
+			if(delegate != null && message.severity().ordinal() >= level.ordinal()) {
+				if(message.throwable() != null) {
+					delegate.writeMessage(message.text(), message.severity(), message.throwable());
+				}
+				else {
+					delegate.writeMessage(message.text(), message.severity());
+				}
+			}
+		}
+		catch(RuntimeException e) {
+			//a broken delegate must not stop the drain thread, or decompiler threads would fill the buffer
+			dropped.increment();
+		}
+	}
+
+	/**
+	 * Delivers the remaining messages, stops the drain thread and closes the trace file.
+	 */
+	@Override
+	public void close() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		LockSupport.unpark(drainer);
+		try {
+			drainer.join();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(traceWriter != null) {
+			traceWriter.close();
+		}
+		if(delegate != null) {
+			delegate.writeMessage(summary(), Severity.INFO);
+		}
+	}
+
+	public String summary() {
+		StringBuilder summary = new StringBuilder("Decompiler messages:");
+		for(int i = SEVERITIES.length - 1; i >= 0; i--) {
+			summary.append(' ').append(counts[i].sum()).append(' ').append(SEVERITIES[i].name().toLowerCase());
+		}
+		long droppedMessages = dropped.sum();
+		if(droppedMessages > 0) {
+			summary.append(", ").append(droppedMessages).append(" dropped");
+		}
+		return summary.toString();
+	}
+
+	private static record Message(String text, Severity severity, Throwable throwable) {}
+
+	/**
+	 * A bounded multi-producer, single-consumer queue. Each slot carries a sequence number
+	 * that tells producers whether the slot is free and the consumer whether it is filled,
+	 * so neither side ever takes a lock or waits for the other.
+	 */
+	private static class RingBuffer {
+
+		private final int mask;
+		private final AtomicReferenceArray<Message> slots;
+		private final AtomicLongArray sequences;
+		private final AtomicLong tail = new AtomicLong();
+		private long head = 0; //only accessed by the consumer
+
+		RingBuffer(int capacity) {
+			int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+			this.mask = size - 1;
+			this.slots = new AtomicReferenceArray<>(size);
+			this.sequences = new AtomicLongArray(size);
+			for(int i = 0; i < size; i++) {
+				sequences.set(i, i);
+			}
+		}
+
+		boolean offer(Message message) {
+			while(true) {
+				long position = tail.get();
+				int index = (int) (position & mask);
+				long difference = sequences.get(index) - position;
+				if(difference == 0) {
+					if(tail.compareAndSet(position, position + 1)) {
+						slots.lazySet(index, message);
+						sequences.set(index, position + 1);
+						return true;
+					}
+				}
+				else if(difference < 0) {
+					return false; //full
+				}
+				//another producer claimed the slot first, retry with the new tail
+			}
+		}
+
+		Message poll() {
+			int index = (int) (head & mask);
+			if(sequences.get(index) != head + 1) {
+				return null;
+			}
+			Message message = slots.get(index);
+			slots.lazySet(index, null);
+			sequences.set(index, head + mask + 1);
+			head++;
+			return message;
+		}
+
+	}
+
+}
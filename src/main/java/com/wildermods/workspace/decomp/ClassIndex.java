@@ -0,0 +1,197 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+/**
+ * Per-class hashes of a decompiled jar, used to work out which classes need to be
+ * decompiled again after the jar changes.
+ * <p>
+ * For every class the index records the root class it is decompiled into (inner and
+ * anonymous classes are written into the source file of their outermost class), a hash of
+ * its bytecode without line numbers, and a hash of its structure (the class without any
+ * method bodies). When the index is freshly {@link #scan(Path, String) scanned} it also
+ * holds the classes each class refers to.
+ * </p>
+ */
+public class ClassIndex {
+
+	private static final String HEADER = "context";
+
+	private final String contextKey;
+	private final Map<String, ClassRecord> classes;
+
+	private ClassIndex(String contextKey, Map<String, ClassRecord> classes) {
+		this.contextKey = contextKey;
+		this.classes = classes;
+	}
+
+	public String getContextKey() {
+		return contextKey;
+	}
+
+	public Map<String, ClassRecord> getClasses() {
+		return Collections.unmodifiableMap(classes);
+	}
+
+	public ClassRecord get(String className) {
+		return classes.get(className);
+	}
+
+	public static ClassIndex scan(Path jar, String contextKey) throws IOException {
+		Map<String, ClassRecord> classes = new TreeMap<>();
+		Map<String, String> outers = new HashMap<>();
+		try(JarFile jarFile = new JarFile(jar.toFile())) {
+			for(JarEntry entry : (Iterable<JarEntry>)jarFile.stream()::iterator) {
+				String name = entry.getName();
+				if(entry.isDirectory() || !name.endsWith(".class") || name.startsWith("META-INF/")) {
+					continue;
+				}
+				byte[] bytes;
+				try(InputStream i = jarFile.getInputStream(entry)) {
+					bytes = i.readAllBytes();
+				}
+				ClassReader reader = new ClassReader(bytes);
+				String className = reader.getClassName();
+
+				Set<String> references = new HashSet<>();
+				String[] outer = new String[1];
+				//the remapper only descends into members its delegate visits, so the delegate visits everything
+				reader.accept(new ClassRemapper(new ClassVisitor(Opcodes.ASM9) {
+					@Override
+					public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+						return new AnnotationVisitor(Opcodes.ASM9) {};
+					}
+
+					@Override
+					public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+						return new FieldVisitor(Opcodes.ASM9) {};
+					}
+
+					@Override
+					public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+						return new MethodVisitor(Opcodes.ASM9) {};
+					}
+
+					@Override
+					public void visitInnerClass(String name, String outerName, String innerName, int access) {
+						if(name.equals(className) && outerName != null) {
+							outer[0] = outerName;
+						}
+					}
+
+					@Override
+					public void visitOuterClass(String owner, String name, String descriptor) {
+						if(outer[0] == null) {
+							outer[0] = owner;
+						}
+					}
+				}, new Remapper(Opcodes.ASM9) {
+					@Override
+					public String map(String internalName) {
+						references.add(internalName);
+						return internalName;
+					}
+				}), ClassReader.SKIP_FRAMES);
+				references.remove(className);
+
+				ClassWriter structure = new ClassWriter(0);
+				reader.accept(structure, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+				outers.put(className, outer[0]);
+				classes.put(className, new ClassRecord(
+					className,
+					null,
+					hash(JarFingerprinter.stripLineNumbers(bytes)),
+					hash(structure.toByteArray()),
+					references
+				));
+			}
+		}
+
+		Map<String, ClassRecord> rooted = new TreeMap<>();
+		for(ClassRecord record : classes.values()) {
+			String root = record.name();
+			Set<String> seen = new HashSet<>();
+			while(outers.get(root) != null && classes.containsKey(outers.get(root)) && seen.add(root)) {
+				root = outers.get(root);
+			}
+			rooted.put(record.name(), new ClassRecord(record.name(), root, record.codeHash(), record.structureHash(), record.references()));
+		}
+		return new ClassIndex(contextKey, rooted);
+	}
+
+	public static ClassIndex read(Path indexFile) throws IOException {
+		try(BufferedReader reader = Files.newBufferedReader(indexFile)) {
+			String header = reader.readLine();
+			if(header == null || !header.startsWith(HEADER + "\t")) {
+				throw new IOException("Malformed class index " + indexFile);
+			}
+			Map<String, ClassRecord> classes = new TreeMap<>();
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(line.isBlank()) {
+					continue;
+				}
+				String[] parts = line.split("\t");
+				if(parts.length != 4) {
+					throw new IOException("Malformed class index entry in " + indexFile + ": " + line);
+				}
+				classes.put(parts[0], new ClassRecord(parts[0], parts[1], parts[2], parts[3], Set.of()));
+			}
+			return new ClassIndex(header.substring(HEADER.length() + 1), classes);
+		}
+	}
+
+	public void write(Path indexFile) throws IOException {
+		Files.createDirectories(indexFile.getParent());
+		Path temp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+		try(BufferedWriter writer = Files.newBufferedWriter(temp)) {
+			writer.write(HEADER + "\t" + contextKey + "\n");
+			for(ClassRecord record : classes.values()) {
+				writer.write(record.name() + "\t" + record.root() + "\t" + record.codeHash() + "\t" + record.structureHash() + "\n");
+			}
+		}
+		Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static String hash(byte[] bytes) {
+		MessageDigest digest = JarFingerprinter.sha256();
+		return HexFormat.of().formatHex(digest.digest(bytes));
+	}
+
+	/**
+	 * @param name the internal name of the class
+	 * @param root the internal name of the outermost class, which the class is decompiled into
+	 * @param codeHash a hash of the class without line numbers
+	 * @param structureHash a hash of the class without method bodies
+	 * @param references the classes referred to by this class. Empty when read from disk.
+	 */
+	public static record ClassRecord(String name, String root, String codeHash, String structureHash, Set<String> references) {}
+
+}
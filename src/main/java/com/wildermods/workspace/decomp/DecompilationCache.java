@@ -0,0 +1,112 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import org.apache.commons.io.file.PathUtils;
+
+/**
+ * A persistent, content addressed store of decompiled source jars and their linemaps.
+ * <p>
+ * Each entry is keyed by a hash of the jar being decompiled, every other jar in the
+ * decompilation context, the decompiler options and the Vineflower version. Entries are
+ * stored as {@code <key>/<archive>} and {@code <key>/<archive>.linemap}, mirroring the layout
+ * that {@link ParallelArchiveSaver} writes to {@code decomp/}.
+ * </p>
+ */
+public class DecompilationCache {
+
+	public static final Path DEFAULT_DIR = Path.of(System.getProperty("user.home"), ".wilderWorkspace", "decompCache");
+
+	private final Path cacheDir;
+	private final JarFingerprinter fingerprinter;
+
+	public DecompilationCache(Path cacheDir, JarFingerprinter fingerprinter) {
+		this.cacheDir = cacheDir;
+		this.fingerprinter = fingerprinter;
+	}
+
+	public Path getCacheDir() {
+		return cacheDir;
+	}
+
+	/**
+	 * Computes the cache key for decompiling {@code source}.
+	 *
+	 * @param source the jar being decompiled
+	 * @param contextKey the {@link JarFingerprinter#fingerprintContext context fingerprint} of the decompilation
+	 */
+	public String computeKey(Path source, String contextKey) throws IOException {
+		MessageDigest digest = JarFingerprinter.sha256();
+		JarFingerprinter.update(digest, "context", contextKey);
+		JarFingerprinter.update(digest, "source", fingerprinter.fingerprintClasses(source));
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	public boolean contains(String key, String archiveName) {
+		Path entry = cacheDir.resolve(key);
+		return Files.isRegularFile(entry.resolve(archiveName)) && Files.isRegularFile(entry.resolve(archiveName + ".linemap"));
+	}
+
+	/**
+	 * Copies a cached source jar and linemap into the decompilation output directories.
+	 *
+	 * @return true if the entry was present and restored, false otherwise
+	 */
+	public boolean restore(String key, String archiveName, Path decompDest, Path linemapDest) throws IOException {
+		Path entry = cacheDir.resolve(key);
+		Path cachedArchive = entry.resolve(archiveName);
+		Path cachedLinemap = entry.resolve(archiveName + ".linemap");
+		if(!Files.isRegularFile(cachedArchive) || !Files.isRegularFile(cachedLinemap)) {
+			return false;
+		}
+		Files.createDirectories(decompDest);
+		Files.createDirectories(linemapDest);
+		Files.copy(cachedArchive, decompDest.resolve(archiveName), StandardCopyOption.REPLACE_EXISTING);
+		Files.copy(cachedLinemap, linemapDest.resolve(archiveName + ".linemap"), StandardCopyOption.REPLACE_EXISTING);
+		Files.setLastModifiedTime(entry, Files.getLastModifiedTime(cachedArchive)); //touch for manual pruning
+		return true;
+	}
+
+	/**
+	 * Stores a freshly decompiled source jar and linemap. Does nothing if either file is missing.
+	 */
+	public void store(String key, String archiveName, Path decompDest, Path linemapDest) throws IOException {
+		Path archive = decompDest.resolve(archiveName);
+		Path linemap = linemapDest.resolve(archiveName + ".linemap");
+		if(!Files.isRegularFile(archive) || !Files.isRegularFile(linemap)) {
+			return;
+		}
+		Path entry = cacheDir.resolve(key);
+		if(Files.isDirectory(entry)) {
+			return;
+		}
+		Files.createDirectories(cacheDir);
+		Path temp = Files.createTempDirectory(cacheDir, key + ".tmp");
+		try {
+			Files.copy(archive, temp.resolve(archiveName));
+			Files.copy(linemap, temp.resolve(archiveName + ".linemap"));
+			try {
+				Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, entry);
+			}
+		}
+		catch(FileAlreadyExistsException e) {
+			//another build stored the same entry first
+		}
+		finally {
+			if(Files.exists(temp)) {
+				PathUtils.deleteDirectory(temp);
+			}
+		}
+	}
+
+}
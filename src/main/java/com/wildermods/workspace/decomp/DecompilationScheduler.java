@@ -0,0 +1,210 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Decompiles each source jar in its own decompiler context, running independent jars
+ * concurrently.
+ * <p>
+ * Every job sees the other source jars as libraries, so cross jar references resolve the
+ * same way they would in a single shared context. Jobs are started largest first. Each job
+ * reserves an estimate of the heap it needs from a shared budget before it starts, so the
+ * total retained by concurrent contexts stays below the heap ceiling. The thread budget is
+ * divided between the jobs in proportion to the size of their bytecode, and never more jobs
+ * run at once than there are threads, so the jobs never run more threads than the budget.
+ * </p>
+ */
+public class DecompilationScheduler {
+
+	/**
+	 * Rough heap needed per byte of uncompressed bytecode. The decompiler keeps the parsed
+	 * classes and the decompiled source of the whole context in memory until it is saved.
+	 */
+	static final long HEAP_PER_BYTECODE_BYTE = 24;
+
+	/**
+	 * Rough heap needed by each decompiler thread for the method currently being processed.
+	 */
+	static final long HEAP_PER_THREAD = 64L * 1024 * 1024;
+
+	private static final long MB = 1024 * 1024;
+
+	private final WilderWorkspaceDecompiler decompiler;
+	private final int threadBudget;
+	private final int maxConcurrentJobs;
+	private final long heapBudget;
+
+	/**
+	 * @param decompiler the decompiler whose sources are scheduled
+	 * @param threadBudget the total number of decompiler threads across all jobs
+	 * @param maxConcurrentJobs the maximum number of jobs that may run at once
+	 * @param heapBudget the heap in bytes that all concurrent jobs may use together
+	 */
+	public DecompilationScheduler(WilderWorkspaceDecompiler decompiler, int threadBudget, int maxConcurrentJobs, long heapBudget) {
+		this.decompiler = decompiler;
+		this.threadBudget = Math.max(1, threadBudget);
+		this.maxConcurrentJobs = Math.max(1, Math.min(maxConcurrentJobs, this.threadBudget));
+		this.heapBudget = Math.max(MB, heapBudget);
+	}
+
+	public List<Job> plan() throws IOException {
+		List<Job> jobs = new ArrayList<>();
+		long totalSize = 0;
+		for(Path source : decompiler.getSources()) {
+			long size = bytecodeSize(source);
+			totalSize += size;
+			jobs.add(new Job(source, size, 0, 0));
+		}
+		jobs.sort(Comparator.comparingLong(Job::bytecodeSize).reversed());
+
+		int concurrency = Math.min(jobs.size(), maxConcurrentJobs);
+		int[] shares = concurrency > 1 && totalSize > 0 ? divideThreads(jobs, totalSize) : null;
+		List<Job> planned = new ArrayList<>();
+		for(int i = 0; i < jobs.size(); i++) {
+			Job job = jobs.get(i);
+			int threads = shares == null ? threadBudget : shares[i];
+			long heap = Math.min(heapBudget, job.bytecodeSize() * HEAP_PER_BYTECODE_BYTE);
+			//don't run more threads than the heap left over for them can hold
+			threads = (int) Math.max(1, Math.min(threads, (heapBudget - heap) / HEAP_PER_THREAD));
+			heap = Math.min(heapBudget, heap + threads * HEAP_PER_THREAD);
+			planned.add(new Job(job.source(), job.bytecodeSize(), threads, heap));
+		}
+		return planned;
+	}
+
+	/**
+	 * Divides the thread budget between the jobs in proportion to the size of their bytecode.
+	 * Every job gets at least one thread. The threads left over after rounding down go to the
+	 * jobs with the largest remainders, so the shares add up to exactly the budget, or to one
+	 * thread per job if there are more jobs than threads.
+	 */
+	private int[] divideThreads(List<Job> jobs, long totalSize) {
+		int[] shares = new int[jobs.size()];
+		double[] remainders = new double[jobs.size()];
+		int spare = Math.max(0, threadBudget - jobs.size());
+		int handedOut = 0;
+		for(int i = 0; i < shares.length; i++) {
+			double share = (double) spare * jobs.get(i).bytecodeSize() / totalSize;
+			shares[i] = 1 + (int) share;
+			remainders[i] = share - (int) share;
+			handedOut += (int) share;
+		}
+		for(; handedOut < spare; handedOut++) {
+			int largest = 0;
+			for(int i = 1; i < remainders.length; i++) {
+				if(remainders[i] > remainders[largest]) {
+					largest = i;
+				}
+			}
+			shares[largest]++;
+			remainders[largest] = -1;
+		}
+		return shares;
+	}
+
+	/**
+	 * Runs every job, blocking until all of them have finished.
+	 */
+	public void run(List<Job> jobs) throws IOException {
+		if(jobs.isEmpty()) {
+			return;
+		}
+		if(jobs.size() == 1) {
+			runJob(jobs.get(0));
+			return;
+		}
+
+		Semaphore heap = new Semaphore((int) Math.min(Integer.MAX_VALUE, heapBudget / MB), true);
+		// Fernflower binds its context to the thread it was created on, so each job gets a dedicated thread
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(jobs.size(), maxConcurrentJobs), r -> {
+			Thread thread = new Thread(r, "WilderWorkspace decompiler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for(Job job : jobs) {
+				futures.add(executor.submit(() -> {
+					int permits = (int) Math.max(1, job.heapEstimate() / MB);
+					heap.acquireUninterruptibly(permits);
+					try {
+						runJob(job);
+					}
+					finally {
+						heap.release(permits);
+					}
+					return null;
+				}));
+			}
+			for(Future<?> future : futures) {
+				try {
+					future.get();
+				}
+				catch(ExecutionException e) {
+					if(e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					if(e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+					throw new IOException(e.getCause());
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while decompiling", e);
+				}
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void runJob(Job job) {
+		decompiler.decompile(decompiler.getDecompDest(), decompiler.getLinemapDest(), job.threads(), ff -> {
+			decompiler.addLibraries(ff);
+			for(Path source : decompiler.getSources()) {
+				if(!source.equals(job.source())) {
+					ff.addLibrary(source.toFile());
+				}
+			}
+			ff.addSource(job.source().toFile());
+		});
+	}
+
+	/**
+	 * @return the total uncompressed size of the class files in the jar
+	 */
+	static long bytecodeSize(Path jar) throws IOException {
+		try(ZipFile zip = new ZipFile(jar.toFile())) {
+			return zip.stream()
+				.filter(e -> e.getName().endsWith(".class"))
+				.mapToLong(e -> Math.max(e.getSize(), e.getCompressedSize()))
+				.sum();
+		}
+		catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * @param source the jar decompiled by this job
+	 * @param bytecodeSize the uncompressed size of the classes in the jar
+	 * @param threads the number of decompiler threads the job runs with
+	 * @param heapEstimate the heap in bytes the job is expected to need
+	 */
+	public static record Job(Path source, long bytecodeSize, int threads, long heapEstimate) {}
+
+}
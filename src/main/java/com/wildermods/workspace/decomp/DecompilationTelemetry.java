@@ -0,0 +1,455 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jetbrains.java.decompiler.main.extern.IFernflowerLogger;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Records how long the decompiler spends on each class.
+ * <p>
+ * The decompiler reports when it starts and finishes processing and writing each root
+ * class on the thread doing the work. {@link #logger(IFernflowerLogger, int)} wraps the
+ * logger of a decompiler run to time those phases per class and to attribute warnings and
+ * errors to the class being decompiled. A class failed if the decompiler reported an error
+ * or an exception while working on it, which usually means some of its methods could not
+ * be decompiled.
+ * </p>
+ * <p>
+ * Heap and GC figures cover the whole JVM from the moment the telemetry was created, which
+ * is accurate when the decompiler runs in its own worker process.
+ * </p>
+ */
+public class DecompilationTelemetry {
+
+	private final long startNanos = System.nanoTime();
+	private final Instant startTime = Instant.now();
+	private final long startGcCount;
+	private final long startGcMillis;
+	private final Map<String, ClassStats> classes = new ConcurrentHashMap<>();
+	private final List<RunStats> runs = new CopyOnWriteArrayList<>();
+	private long endNanos;
+
+	public DecompilationTelemetry() {
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+		long gcCount = 0;
+		long gcMillis = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += Math.max(0, gc.getCollectionCount());
+			gcMillis += Math.max(0, gc.getCollectionTime());
+		}
+		this.startGcCount = gcCount;
+		this.startGcMillis = gcMillis;
+	}
+
+	/**
+	 * Starts recording a decompiler run.
+	 *
+	 * @param delegate the logger of the run, which still receives every message
+	 * @param threads the number of decompiler threads of the run
+	 * @return the logger to pass to the decompiler
+	 */
+	public IFernflowerLogger logger(IFernflowerLogger delegate, int threads) {
+		RunStats run = new RunStats(runs.size() + 1, threads, System.nanoTime());
+		runs.add(run);
+		return new TelemetryLogger(delegate, run);
+	}
+
+	/**
+	 * @return true if any classes were decompiled while recording
+	 */
+	public boolean hasClasses() {
+		return !classes.isEmpty();
+	}
+
+	/**
+	 * Stops the clock. Called before reporting, later calls have no effect.
+	 */
+	public synchronized void finish() {
+		if(endNanos == 0) {
+			endNanos = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Writes the report as JSON.
+	 *
+	 * @param jars the decompiled jars, used to look up the bytecode size of each class
+	 */
+	public void writeReport(Path report, Collection<Path> jars) throws IOException {
+		finish();
+		Map<String, Long> sizes = new HashMap<>();
+		Map<String, String> owners = new HashMap<>();
+		for(Path jar : jars) {
+			readSizes(jar, sizes, owners);
+		}
+
+		JsonObject json = new JsonObject();
+		json.addProperty("vineflowerVersion", WilderWorkspaceDecompiler.getDecompilerVersion());
+		json.addProperty("startedAt", startTime.toString());
+		json.addProperty("durationMillis", getDurationMillis());
+		json.addProperty("classes", classes.size());
+		json.addProperty("failedClasses", classes.values().stream().filter(c -> !c.isSuccessful()).count());
+		json.addProperty("classesPerSecond", getClassesPerSecond());
+		json.addProperty("heapHighWaterBytes", getHeapHighWater());
+		json.addProperty("gcCount", getGcCount());
+		json.addProperty("gcTimeMillis", getGcMillis());
+
+		JsonArray runArray = new JsonArray();
+		for(RunStats run : runs) {
+			JsonObject o = new JsonObject();
+			o.addProperty("run", run.id);
+			o.addProperty("threads", run.threads);
+			o.addProperty("durationMillis", run.getDurationMillis());
+			o.addProperty("classes", run.classes.size());
+			runArray.add(o);
+		}
+		json.add("runs", runArray);
+
+		JsonArray classArray = new JsonArray();
+		for(ClassStats stats : getSlowest(classes.size())) {
+			JsonObject o = new JsonObject();
+			o.addProperty("name", stats.name);
+			o.addProperty("jar", owners.get(stats.name));
+			o.addProperty("bytecodeSize", sizes.getOrDefault(stats.name, 0L));
+			o.addProperty("timeMillis", stats.getTotalMillis());
+			o.addProperty("processingMillis", stats.processingNanos / 1_000_000.0);
+			o.addProperty("writingMillis", stats.writingNanos / 1_000_000.0);
+			o.addProperty("success", stats.isSuccessful());
+			o.addProperty("warnings", stats.warnings);
+			o.addProperty("errors", stats.errors);
+			o.addProperty("thread", stats.thread);
+			o.addProperty("run", stats.run);
+			classArray.add(o);
+		}
+		json.add("classList", classArray);
+
+		Files.createDirectories(report.toAbsolutePath().getParent());
+		try(Writer writer = Files.newBufferedWriter(report)) {
+			new GsonBuilder().setPrettyPrinting().create().toJson(json, writer);
+		}
+	}
+
+	/**
+	 * @return a human readable summary with the {@code slowest} slowest classes
+	 */
+	public String summary(int slowest) {
+		finish();
+		long failed = classes.values().stream().filter(c -> !c.isSuccessful()).count();
+		StringBuilder summary = new StringBuilder(String.format("Decompiled %d classes in %.1fs (%.1f classes/s), %d failed, heap high-water %d MiB, %d GCs taking %dms",
+			classes.size(), getDurationMillis() / 1000.0, getClassesPerSecond(), failed, getHeapHighWater() / (1024 * 1024), getGcCount(), getGcMillis()));
+		List<ClassStats> slowestClasses = getSlowest(slowest);
+		if(!slowestClasses.isEmpty()) {
+			summary.append("\nSlowest classes:");
+			for(ClassStats stats : slowestClasses) {
+				summary.append(String.format("%n\t%8.1fms  %s%s", stats.getTotalMillis(), stats.name, stats.isSuccessful() ? "" : " (failed)"));
+			}
+		}
+		return summary.toString();
+	}
+
+	private List<ClassStats> getSlowest(int count) {
+		List<ClassStats> sorted = new ArrayList<>(classes.values());
+		sorted.sort(Comparator.comparingLong(ClassStats::getTotalNanos).reversed());
+		return sorted.subList(0, Math.min(count, sorted.size()));
+	}
+
+	private long getDurationMillis() {
+		return ((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos) / 1_000_000;
+	}
+
+	private double getClassesPerSecond() {
+		long millis = getDurationMillis();
+		return millis == 0 ? 0 : classes.size() * 1000.0 / millis;
+	}
+
+	private static long getHeapHighWater() {
+		long peak = 0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private long getGcCount() {
+		long count = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count - startGcCount;
+	}
+
+	private long getGcMillis() {
+		long millis = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis - startGcMillis;
+	}
+
+	/**
+	 * Sums the size of every class into its root class, the unit the decompiler reports on.
+	 */
+	private static void readSizes(Path jar, Map<String, Long> sizes, Map<String, String> owners) throws IOException {
+		try(ZipFile zip = new ZipFile(jar.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while(entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				String name = entry.getName();
+				if(entry.isDirectory() || !name.endsWith(".class")) {
+					continue;
+				}
+				name = name.substring(0, name.length() - ".class".length());
+				int inner = name.indexOf('$');
+				String root = inner == -1 ? name : name.substring(0, inner);
+				sizes.merge(root, Math.max(0, entry.getSize()), Long::sum);
+				owners.putIfAbsent(root, jar.getFileName().toString());
+			}
+		}
+	}
+
+	private ClassStats stats(String className, RunStats run) {
+		return classes.computeIfAbsent(className, name -> {
+			run.classes.add(name);
+			return new ClassStats(name, run.id);
+		});
+	}
+
+	private static class RunStats {
+
+		private final int id;
+		private final int threads;
+		private final long startNanos;
+		private final List<String> classes = new CopyOnWriteArrayList<>();
+		private volatile long lastActivityNanos;
+
+		RunStats(int id, int threads, long startNanos) {
+			this.id = id;
+			this.threads = threads;
+			this.startNanos = startNanos;
+			this.lastActivityNanos = startNanos;
+		}
+
+		long getDurationMillis() {
+			return (lastActivityNanos - startNanos) / 1_000_000;
+		}
+
+	}
+
+	private static class ClassStats {
+
+		private final String name;
+		private final int run;
+		private long processingNanos;
+		private long writingNanos;
+		private int warnings;
+		private int errors;
+		private String thread;
+
+		ClassStats(String name, int run) {
+			this.name = name;
+			this.run = run;
+		}
+
+		synchronized long getTotalNanos() {
+			return processingNanos + writingNanos;
+		}
+
+		double getTotalMillis() {
+			return getTotalNanos() / 1_000_000.0;
+		}
+
+		synchronized boolean isSuccessful() {
+			return errors == 0;
+		}
+
+	}
+
+	/**
+	 * The phase of the class the current decompiler thread is working on.
+	 */
+	private static record Current(ClassStats stats, boolean writing, long startNanos) {}
+
+	private class TelemetryLogger extends IFernflowerLogger {
+
+		private final IFernflowerLogger delegate;
+		private final RunStats run;
+		private final ThreadLocal<Current> current = new ThreadLocal<>();
+
+		TelemetryLogger(IFernflowerLogger delegate, RunStats run) {
+			this.delegate = delegate;
+			this.run = run;
+		}
+
+		@Override
+		public void setSeverity(Severity severity) {
+			super.setSeverity(severity);
+			if(delegate != null) {
+				delegate.setSeverity(severity);
+			}
+		}
+
+		@Override
+		public void writeMessage(String message, Severity severity) {
+			record(severity, null);
+			if(delegate != null) {
+				delegate.writeMessage(message, severity);
+			}
+		}
+
+		@Override
+		public void writeMessage(String message, Severity severity, Throwable t) {
+			record(severity, t);
+			if(delegate != null) {
+				delegate.writeMessage(message, severity, t);
+			}
+		}
+
+		private void record(Severity severity, Throwable t) {
+			Current c = current.get();
+			if(c == null) {
+				return;
+			}
+			synchronized(c.stats()) {
+				if(severity == Severity.ERROR || (t != null && severity == Severity.WARN)) {
+					c.stats().errors++;
+				}
+				else if(severity == Severity.WARN) {
+					c.stats().warnings++;
+				}
+			}
+		}
+
+		private void start(String className, boolean writing) {
+			end();
+			ClassStats stats = stats(className, run);
+			synchronized(stats) {
+				stats.thread = Thread.currentThread().getName();
+			}
+			current.set(new Current(stats, writing, System.nanoTime()));
+		}
+
+		private void end() {
+			Current c = current.get();
+			if(c == null) {
+				return;
+			}
+			current.remove();
+			long now = System.nanoTime();
+			long elapsed = now - c.startNanos();
+			run.lastActivityNanos = Math.max(run.lastActivityNanos, now);
+			synchronized(c.stats()) {
+				if(c.writing()) {
+					c.stats().writingNanos += elapsed;
+				}
+				else {
+					c.stats().processingNanos += elapsed;
+				}
+			}
+		}
+
+		@Override
+		public void startProcessingClass(String className) {
+			start(className, false);
+			if(delegate != null) {
+				delegate.startProcessingClass(className);
+			}
+		}
+
+		@Override
+		public void endProcessingClass() {
+			end();
+			if(delegate != null) {
+				delegate.endProcessingClass();
+			}
+		}
+
+		@Override
+		public void startReadingClass(String className) {
+			start(className, true);
+			if(delegate != null) {
+				delegate.startReadingClass(className);
+			}
+		}
+
+		@Override
+		public void endReadingClass() {
+			end();
+			if(delegate != null) {
+				delegate.endReadingClass();
+			}
+		}
+
+		@Override
+		public void startClass(String className) {
+			if(delegate != null) {
+				delegate.startClass(className);
+			}
+		}
+
+		@Override
+		public void endClass() {
+			if(delegate != null) {
+				delegate.endClass();
+			}
+		}
+
+		@Override
+		public void startMethod(String methodName) {
+			if(delegate != null) {
+				delegate.startMethod(methodName);
+			}
+		}
+
+		@Override
+		public void endMethod() {
+			if(delegate != null) {
+				delegate.endMethod();
+			}
+		}
+
+		@Override
+		public void startWriteClass(String className) {
+			if(delegate != null) {
+				delegate.startWriteClass(className);
+			}
+		}
+
+		@Override
+		public void endWriteClass() {
+			if(delegate != null) {
+				delegate.endWriteClass();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,93 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import com.wildermods.workspace.capabilities.GradleLoggerProject;
+
+/**
+ * Decompiles the game, or the classes requested by {@code decompileClass}, in a Gradle
+ * worker, so the decompiler's heap usage stays out of the Gradle daemon. The source and
+ * library jars are resolved by the submitting task, the worker only receives their paths.
+ */
+public abstract class DecompileWorkAction implements WorkAction<DecompileWorkAction.Parameters> {
+
+	private static final Logger LOGGER = Logging.getLogger(DecompileWorkAction.class);
+
+	public static interface Parameters extends WorkParameters {
+		Property<String> getRootDir();
+		Property<String> getDecompDir();
+		Property<String> getDecompCacheDir();
+		Property<Boolean> getIncremental();
+		Property<Boolean> getCompressSources();
+		Property<Boolean> getLazy();
+		Property<Boolean> getLowMemory();
+		Property<Integer> getMaxWorkers();
+		Property<String> getTelemetryReport();
+		Property<Integer> getSlowestClasses();
+		Property<String> getTraceLog();
+		MapProperty<String, String> getOptions();
+		ListProperty<String> getPriorityClasses();
+		ListProperty<String> getLazyClasses();
+		ListProperty<String> getSources();
+		ListProperty<String> getLibraries();
+	}
+
+	@Override
+	public void execute() {
+		Parameters parameters = getParameters();
+		Path traceLog = parameters.getTraceLog().isPresent() ? Path.of(parameters.getTraceLog().get()) : null;
+		try (GradleDecompilerBuilder b = new GradleDecompilerBuilder(LOGGER, traceLog)) {
+			JarFingerprinter fingerprinter = new JarFingerprinter(JarFingerprinter.DEFAULT_DIR);
+			b.setFingerprinter(fingerprinter);
+			b.setLibraryCache(new LibraryClassCache(LibraryClassCache.DEFAULT_DIR, fingerprinter));
+			if (parameters.getDecompCacheDir().isPresent()) {
+				b.setCache(new DecompilationCache(Path.of(parameters.getDecompCacheDir().get()), fingerprinter));
+			}
+			b.setIncremental(parameters.getIncremental().get());
+			b.setCompressSources(parameters.getCompressSources().get());
+			b.setLazy(parameters.getLazy().get());
+			b.setLowMemory(parameters.getLowMemory().get());
+			b.setThreadCount(parameters.getMaxWorkers().get());
+			b.setMaxConcurrentJobs(parameters.getMaxWorkers().get());
+			parameters.getOptions().get().forEach(b::setOption);
+			b.setPriorityClasses(parameters.getPriorityClasses().getOrElse(List.of()));
+			b.addSources(parameters.getSources().get().stream().map(Path::of).toArray(Path[]::new));
+			b.addLibraries(parameters.getLibraries().get().stream().map(Path::of).toArray(Path[]::new));
+			DecompilationTelemetry telemetry = new DecompilationTelemetry();
+			b.setTelemetry(telemetry);
+
+			WildermythDecompilerSetup setup = new WildermythDecompilerSetup(b, new GradleLoggerProject(Path.of(parameters.getRootDir().get()), LOGGER), Map.of());
+			List<String> lazyClasses = parameters.getLazyClasses().getOrElse(List.of());
+			if (!lazyClasses.isEmpty()) {
+				setup.decompileLazily(Path.of(parameters.getDecompDir().get()), lazyClasses);
+				return;
+			}
+			setup.decompile(Path.of(parameters.getDecompDir().get()));
+
+			if (telemetry.hasClasses()) {
+				LOGGER.lifecycle(telemetry.summary(parameters.getSlowestClasses().getOrElse(10)));
+				if (parameters.getTelemetryReport().isPresent()) {
+					Path report = Path.of(parameters.getTelemetryReport().get());
+					telemetry.writeReport(report, b.getSources());
+					LOGGER.lifecycle("Decompilation report written to " + report);
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
@@ -15,13 +15,24 @@ import net.fabricmc.loom.util.IOStringConsumer;
 
 public class DecompilerBuilder {
 
-	private int numberOfThreads = 4;
+	private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+	private int maxConcurrentJobs = Runtime.getRuntime().availableProcessors();
+	private long maxHeap = Runtime.getRuntime().maxMemory() / 4 * 3;
 	private Path javadocs;
 	private Path decompDest;
 	private final Set<Path> libraries = new HashSet<>();
 	private final Set<Path> sources = new HashSet<>(); // internal
 	private IOStringConsumer logger;
 	private final Map<String, String> options = new HashMap<>();
+	private DecompilationCache cache;
+	private LibraryClassCache libraryCache;
+	private JarFingerprinter fingerprinter;
+	private boolean incremental = false;
+	private boolean compressSources = true;
+	private boolean lazy = false;
+	private boolean lowMemory = false;
+	private DecompilationTelemetry telemetry;
+	private final Set<String> priorityClasses = new HashSet<>();
 
 	// For module‑based configuration
 	private Map<String, ModuleInfo> modules;
@@ -30,13 +41,38 @@ public class DecompilerBuilder {
 	public DecompilerBuilder() {}
 
 	// Existing setters (threadCount, javadocs, setDecompDest, addLibraries, setLogger, setOption)
+	/**
+	 * Sets the total number of decompiler threads, shared between all concurrently decompiled jars.
+	 * Defaults to the number of available processors.
+	 */
 	public DecompilerBuilder setThreadCount(int threadCount) {
-		if (threadCount > 0 && threadCount <= Runtime.getRuntime().availableProcessors()) {
+		if (threadCount > 0) {
 			numberOfThreads = threadCount;
 		}
 		return this;
 	}
 
+	/**
+	 * Sets the maximum number of source jars decompiled at the same time, such as Gradle's {@code --max-workers}.
+	 */
+	public DecompilerBuilder setMaxConcurrentJobs(int maxConcurrentJobs) {
+		if (maxConcurrentJobs > 0) {
+			this.maxConcurrentJobs = maxConcurrentJobs;
+		}
+		return this;
+	}
+
+	/**
+	 * Sets the heap in bytes that concurrently decompiled jars may use together.
+	 * Defaults to three quarters of the maximum heap of the current JVM.
+	 */
+	public DecompilerBuilder setMaxHeap(long maxHeap) {
+		if (maxHeap > 0) {
+			this.maxHeap = maxHeap;
+		}
+		return this;
+	}
+
 	public DecompilerBuilder setJavadocs(Path javadocs) {
 		this.javadocs = javadocs;
 		return this;
@@ -54,6 +90,16 @@ public class DecompilerBuilder {
 		return this;
 	}
 
+	/**
+	 * Adds jars to decompile, in addition to the "decompile" modules passed to {@link #setModules(Map, Path)}.
+	 */
+	public DecompilerBuilder addSources(Path... jars) {
+		for (Path jar : jars) {
+			addSource(jar);
+		}
+		return this;
+	}
+
 	public DecompilerBuilder setLogger(IOStringConsumer logger) {
 		this.logger = logger;
 		return this;
@@ -64,6 +110,75 @@ public class DecompilerBuilder {
 		return this;
 	}
 
+	public DecompilerBuilder setCache(DecompilationCache cache) {
+		this.cache = cache;
+		return this;
+	}
+
+	public DecompilerBuilder setLibraryCache(LibraryClassCache libraryCache) {
+		this.libraryCache = libraryCache;
+		return this;
+	}
+
+	public DecompilerBuilder setFingerprinter(JarFingerprinter fingerprinter) {
+		this.fingerprinter = fingerprinter;
+		return this;
+	}
+
+	/**
+	 * When enabled, only the classes which changed since the previous decompilation into the
+	 * same destination are decompiled again. See {@link IncrementalDecompilation}.
+	 */
+	public DecompilerBuilder setIncremental(boolean incremental) {
+		this.incremental = incremental;
+		return this;
+	}
+
+	/**
+	 * Sets whether entries in the decompiled source jars are deflated. Storing them uncompressed
+	 * is faster and is fine for source jars that are only read by an IDE.
+	 */
+	public DecompilerBuilder setCompressSources(boolean compressSources) {
+		this.compressSources = compressSources;
+		return this;
+	}
+
+	/**
+	 * When enabled, classes are only decompiled when their source is requested. See {@link LazySourceProvider}.
+	 */
+	public DecompilerBuilder setLazy(boolean lazy) {
+		this.lazy = lazy;
+		return this;
+	}
+
+	/**
+	 * Decompiles the source jars one at a time in package shards sized to fit the max heap,
+	 * instead of decompiling whole jars concurrently. See {@link ShardedDecompilation}.
+	 */
+	public DecompilerBuilder setLowMemory(boolean lowMemory) {
+		this.lowMemory = lowMemory;
+		return this;
+	}
+
+	/**
+	 * Records per class timings of every decompiler run into {@code telemetry}.
+	 */
+	public DecompilerBuilder setTelemetry(DecompilationTelemetry telemetry) {
+		this.telemetry = telemetry;
+		return this;
+	}
+
+	/**
+	 * Sets the classes to decompile before all others, see {@link PriorityDecompilation}.
+	 *
+	 * @param classNames the internal names of the classes, such as the targets of a mod's mixins
+	 */
+	public DecompilerBuilder setPriorityClasses(Collection<String> classNames) {
+		priorityClasses.clear();
+		priorityClasses.addAll(classNames);
+		return this;
+	}
+
 	// New method: supply modules and project root
 	public DecompilerBuilder setModules(Map<String, ModuleInfo> modules, Path projectRoot) {
 		this.modules = modules;
@@ -80,6 +195,54 @@ public class DecompilerBuilder {
 		return sources;
 	}
 
+	public DecompilationCache getCache() {
+		return cache;
+	}
+
+	public LibraryClassCache getLibraryCache() {
+		return libraryCache;
+	}
+
+	public int getThreadCount() {
+		return numberOfThreads;
+	}
+
+	public int getMaxConcurrentJobs() {
+		return maxConcurrentJobs;
+	}
+
+	public long getMaxHeap() {
+		return maxHeap;
+	}
+
+	public JarFingerprinter getFingerprinter() {
+		return fingerprinter;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	public boolean isCompressSources() {
+		return compressSources;
+	}
+
+	public DecompilationTelemetry getTelemetry() {
+		return telemetry;
+	}
+
+	public boolean isLowMemory() {
+		return lowMemory;
+	}
+
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	public Set<String> getPriorityClasses() {
+		return priorityClasses;
+	}
+
 	public DecompilationMetadata getMetaData() {
 		return new DecompilationMetadata(numberOfThreads, javadocs, libraries, logger, options);
 	}
@@ -0,0 +1,113 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jetbrains.java.decompiler.main.extern.IContextSource;
+import org.jetbrains.java.decompiler.main.extern.IResultSaver;
+
+/**
+ * A jar backed {@link IContextSource} which only exposes the classes accepted by a filter.
+ * <p>
+ * Used to decompile a subset of a jar while the remaining classes of the same jar are
+ * supplied to the decompiler as a library. Non-class resources are never exposed. When
+ * saved, the output archive has the same file name as the backing jar.
+ * </p>
+ */
+class FilteredJarContextSource implements IContextSource, AutoCloseable {
+
+	private final Path jar;
+	private final ZipFile file;
+	private final Predicate<String> classFilter;
+
+	/**
+	 * @param jar the jar to read classes from
+	 * @param classFilter accepts internal class names (such as {@code com/example/Foo$Bar}) to expose
+	 */
+	FilteredJarContextSource(Path jar, Predicate<String> classFilter) throws IOException {
+		this.jar = jar;
+		this.file = new ZipFile(jar.toFile());
+		this.classFilter = classFilter;
+	}
+
+	@Override
+	public String getName() {
+		return "filtered archive " + jar.toAbsolutePath();
+	}
+
+	@Override
+	public Entries getEntries() {
+		List<Entry> classes = new ArrayList<>();
+		Enumeration<? extends ZipEntry> entries = file.entries();
+		while(entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			String name = entry.getName();
+			if(!entry.isDirectory() && name.endsWith(CLASS_SUFFIX)) {
+				Entry classEntry = Entry.parse(name.substring(0, name.length() - CLASS_SUFFIX.length()));
+				if(classFilter.test(classEntry.basePath())) {
+					classes.add(classEntry);
+				}
+			}
+		}
+		return new Entries(classes, List.of(), List.of());
+	}
+
+	@Override
+	public InputStream getInputStream(String resource) throws IOException {
+		if(resource.endsWith(CLASS_SUFFIX) && !classFilter.test(Entry.parse(resource.substring(0, resource.length() - CLASS_SUFFIX.length())).basePath())) {
+			return null;
+		}
+		ZipEntry entry = file.getEntry(resource);
+		if(entry == null) {
+			return null;
+		}
+		return file.getInputStream(entry);
+	}
+
+	@Override
+	public IOutputSink createOutputSink(IResultSaver saver) {
+		final String archiveName = jar.getFileName().toString();
+		return new IOutputSink() {
+
+			@Override
+			public void begin() {
+				saver.saveFolder("");
+				saver.createArchive("", archiveName, null);
+			}
+
+			@Override
+			public void acceptClass(String qualifiedName, String fileName, String content, int[] mapping) {
+				saver.saveClassEntry("", archiveName, qualifiedName, fileName, content, mapping);
+			}
+
+			@Override
+			public void acceptDirectory(String directory) {
+				saver.saveDirEntry("", archiveName, directory);
+			}
+
+			@Override
+			public void acceptOther(String path) {
+				//resources are never exposed
+			}
+
+			@Override
+			public void close() throws IOException {
+				saver.closeArchive("", archiveName);
+			}
+
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+}
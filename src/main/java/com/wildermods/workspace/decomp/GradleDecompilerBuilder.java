@@ -1,13 +1,56 @@
 package com.wildermods.workspace.decomp;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 import org.gradle.api.Task;
+import org.gradle.api.logging.Logger;
+import org.jetbrains.java.decompiler.main.extern.IFernflowerLogger.Severity;
+import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
 
 import com.wildermods.workspace.util.GradlePrintStreamLogger;
 
-public class GradleDecompilerBuilder extends DecompilerBuilder {
+/**
+ * A {@link DecompilerBuilder} which logs to Gradle through an {@link AsyncDecompilerLogger},
+ * at the log level Gradle is running with. Must be closed once decompilation is done.
+ */
+public class GradleDecompilerBuilder extends DecompilerBuilder implements AutoCloseable {
+
+	private final AsyncDecompilerLogger logger;
 
-	public GradleDecompilerBuilder(Task task) {
-		setLogger(new GradlePrintStreamLogger(task));
+	public GradleDecompilerBuilder(Task task) throws IOException {
+		this(task.getLogger(), null);
+	}
+	
+	public GradleDecompilerBuilder(Logger logger) throws IOException {
+		this(logger, null);
+	}
+	
+	/**
+	 * @param traceFile the file all decompiler messages, including trace messages, are written to, or null
+	 */
+	public GradleDecompilerBuilder(Logger logger, Path traceFile) throws IOException {
+		this.logger = new AsyncDecompilerLogger(new GradlePrintStreamLogger(logger), getLevel(logger), traceFile, AsyncDecompilerLogger.DEFAULT_CAPACITY);
+		setLogger(this.logger);
+		setOption(IFernflowerPreferences.LOG_LEVEL, this.logger.getEffectiveLevel().name());
+	}
+	
+	private static Severity getLevel(Logger logger) {
+		if (logger.isTraceEnabled()) {
+			return Severity.TRACE;
+		}
+		if (logger.isInfoEnabled()) {
+			return Severity.INFO;
+		}
+		if (logger.isWarnEnabled()) {
+			return Severity.WARN;
+		}
+		return Severity.ERROR;
+	}
+	
+	@Override
+	public void close() {
+		logger.close();
 	}
 	
 }
@@ -0,0 +1,323 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.file.PathUtils;
+
+import com.wildermods.workspace.decomp.ClassIndex.ClassRecord;
+
+/**
+ * Re-decompiles only the classes of the source jars which changed since the previous
+ * decompilation, and splices the results into the existing source jars and linemaps.
+ * <p>
+ * After every decompilation a {@link ClassIndex} of each source jar is written to
+ * {@code decomp/incremental/<jar>.index}. On the next run the index is compared against
+ * the current jar. A root class (a top level class together with its inner classes) is
+ * decompiled again if any of its classes were added or had their code changed, or if it
+ * refers to a class whose structure changed or which was removed. Root classes that no
+ * longer exist are removed from the source jar.
+ * </p>
+ * <p>
+ * The affected root classes are decompiled as sources, while the rest of the jar and all
+ * other jars are supplied to the decompiler as libraries, so the output is the same as it
+ * would be in a full decompilation.
+ * </p>
+ */
+class IncrementalDecompilation {
+
+	/**
+	 * If more than this fraction of a jar's classes need to be decompiled again, a full
+	 * decompilation is cheaper than splicing.
+	 */
+	private static final double MAX_AFFECTED_FRACTION = 0.5;
+
+	private final WilderWorkspaceDecompiler decompiler;
+	private final Path indexDir;
+	private final Path workDir;
+
+	IncrementalDecompilation(WilderWorkspaceDecompiler decompiler) {
+		this.decompiler = decompiler;
+		this.indexDir = decompiler.getDecompDest().resolve("incremental");
+		this.workDir = indexDir.resolve("work");
+	}
+
+	/**
+	 * @return the index written for {@code source} by the previous decompilation
+	 */
+	Path getIndexFile(Path source) {
+		return indexDir.resolve(source.getFileName() + ".index");
+	}
+
+	/**
+	 * Works out which root classes of each source jar must be decompiled again.
+	 *
+	 * @param current freshly scanned indexes of every source jar
+	 * @return a plan for every source jar, or null if any jar needs a full decompilation
+	 */
+	Map<Path, Plan> plan(Map<Path, ClassIndex> current) throws IOException {
+		Map<Path, ClassIndex> previous = new LinkedHashMap<>();
+		for(Map.Entry<Path, ClassIndex> entry : current.entrySet()) {
+			Path source = entry.getKey();
+			String archiveName = source.getFileName().toString();
+			Path indexFile = getIndexFile(source);
+			if(!Files.isRegularFile(indexFile)
+				|| !Files.isRegularFile(decompiler.getDecompDest().resolve(archiveName))
+				|| !Files.isRegularFile(decompiler.getLinemapDest().resolve(archiveName + ".linemap"))) {
+				return null;
+			}
+			ClassIndex old;
+			try {
+				old = ClassIndex.read(indexFile);
+			}
+			catch(IOException e) {
+				return null;
+			}
+			if(!old.getContextKey().equals(entry.getValue().getContextKey())) {
+				return null;
+			}
+			previous.put(source, old);
+		}
+
+		//structural changes can affect classes in any of the source jars
+		Set<String> structureChanged = new HashSet<>();
+		for(Map.Entry<Path, ClassIndex> entry : current.entrySet()) {
+			ClassIndex old = previous.get(entry.getKey());
+			for(ClassRecord record : entry.getValue().getClasses().values()) {
+				ClassRecord oldRecord = old.get(record.name());
+				if(oldRecord == null || !oldRecord.structureHash().equals(record.structureHash())) {
+					structureChanged.add(record.name());
+				}
+			}
+			for(String name : old.getClasses().keySet()) {
+				if(entry.getValue().get(name) == null) {
+					structureChanged.add(name);
+				}
+			}
+		}
+
+		Map<Path, Plan> plans = new LinkedHashMap<>();
+		for(Map.Entry<Path, ClassIndex> entry : current.entrySet()) {
+			ClassIndex index = entry.getValue();
+			ClassIndex old = previous.get(entry.getKey());
+
+			Set<String> affectedRoots = new HashSet<>();
+			for(ClassRecord record : index.getClasses().values()) {
+				ClassRecord oldRecord = old.get(record.name());
+				if(oldRecord == null || !oldRecord.codeHash().equals(record.codeHash()) || !oldRecord.root().equals(record.root())) {
+					affectedRoots.add(record.root());
+				}
+				else {
+					for(String reference : record.references()) {
+						if(structureChanged.contains(reference)) {
+							affectedRoots.add(record.root());
+							break;
+						}
+					}
+				}
+			}
+
+			Set<String> currentRoots = new HashSet<>();
+			int affectedClasses = 0;
+			for(ClassRecord record : index.getClasses().values()) {
+				currentRoots.add(record.root());
+				if(affectedRoots.contains(record.root())) {
+					affectedClasses++;
+				}
+			}
+			if(affectedClasses > index.getClasses().size() * MAX_AFFECTED_FRACTION) {
+				return null;
+			}
+
+			Set<String> removedRoots = new HashSet<>();
+			for(ClassRecord record : old.getClasses().values()) {
+				if(!currentRoots.contains(record.root())) {
+					removedRoots.add(record.root());
+				}
+			}
+
+			plans.put(entry.getKey(), new Plan(entry.getKey(), index, affectedRoots, removedRoots));
+		}
+		return plans;
+	}
+
+	/**
+	 * Decompiles the affected classes of every plan and splices them into the existing
+	 * source jars and linemaps.
+	 */
+	void run(Collection<Plan> plans) throws IOException {
+		if(Files.exists(workDir)) {
+			PathUtils.deleteDirectory(workDir);
+		}
+		Path partialDest = workDir.resolve("decomp");
+		Path partialLinemapDest = partialDest.resolve("linemaps");
+
+		List<FilteredJarContextSource> contextSources = new ArrayList<>();
+		try {
+			List<FilteredJarContextSource> sources = new ArrayList<>();
+			List<FilteredJarContextSource> libraries = new ArrayList<>();
+			List<Path> unchanged = new ArrayList<>();
+			for(Plan plan : plans) {
+				if(plan.affectedRoots().isEmpty()) {
+					unchanged.add(plan.source());
+					continue;
+				}
+				FilteredJarContextSource source = new FilteredJarContextSource(plan.source(), plan::isAffected);
+				contextSources.add(source);
+				sources.add(source);
+				FilteredJarContextSource library = new FilteredJarContextSource(plan.source(), name -> !plan.isAffected(name));
+				contextSources.add(library);
+				libraries.add(library);
+			}
+
+			if(!sources.isEmpty()) {
+				decompiler.decompile(partialDest, partialLinemapDest, ff -> {
+					decompiler.addLibraries(ff);
+					for(Path jar : unchanged) {
+						ff.addLibrary(jar.toFile());
+					}
+					for(FilteredJarContextSource library : libraries) {
+						ff.addLibrary(library);
+					}
+					for(FilteredJarContextSource source : sources) {
+						ff.addSource(source);
+					}
+				});
+			}
+		}
+		finally {
+			for(FilteredJarContextSource source : contextSources) {
+				source.close();
+			}
+		}
+
+		for(Plan plan : plans) {
+			if(plan.isUpToDate()) {
+				continue;
+			}
+			String archiveName = plan.source().getFileName().toString();
+			Path partialArchive = partialDest.resolve(archiveName);
+			Path partialLinemap = partialLinemapDest.resolve(archiveName + ".linemap");
+
+			Set<String> replaced = new HashSet<>(plan.affectedRoots());
+			replaced.addAll(plan.removedRoots());
+			spliceArchive(decompiler.getDecompDest().resolve(archiveName), Files.isRegularFile(partialArchive) ? partialArchive : null, replaced, decompiler.isCompressSources());
+			spliceLinemap(decompiler.getLinemapDest().resolve(archiveName + ".linemap"), Files.isRegularFile(partialLinemap) ? partialLinemap : null, replaced);
+		}
+	}
+
+	/**
+	 * Deletes the intermediate output of {@link #run(Collection)}.
+	 */
+	void cleanup() throws IOException {
+		if(Files.exists(workDir)) {
+			PathUtils.deleteDirectory(workDir);
+		}
+	}
+
+	void writeIndexes(Map<Path, ClassIndex> indexes) throws IOException {
+		for(Map.Entry<Path, ClassIndex> entry : indexes.entrySet()) {
+			entry.getValue().write(getIndexFile(entry.getKey()));
+		}
+	}
+
+	private static void spliceArchive(Path archive, Path partialArchive, Set<String> replacedRoots, boolean compress) throws IOException {
+		Set<String> partialEntries = new HashSet<>();
+		if(partialArchive != null) {
+			try(ZipFile zip = new ZipFile(partialArchive.toFile())) {
+				zip.stream().forEach(entry -> partialEntries.add(entry.getName()));
+			}
+		}
+		Path temp = Files.createTempFile(archive.getParent(), archive.getFileName().toString(), ".tmp");
+		try(OrderedZipWriter out = new OrderedZipWriter(temp)) {
+			copyEntries(archive, out, name -> !partialEntries.contains(name) && !(name.endsWith(".java") && replacedRoots.contains(name.substring(0, name.length() - ".java".length()))), compress);
+			if(partialArchive != null) {
+				copyEntries(partialArchive, out, name -> true, compress);
+			}
+		}
+		Files.move(temp, archive, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void copyEntries(Path archive, OrderedZipWriter out, Predicate<String> filter, boolean compress) throws IOException {
+		try(ZipFile zip = new ZipFile(archive.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while(entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if(!filter.test(entry.getName())) {
+					continue;
+				}
+				if(entry.isDirectory()) {
+					out.write(OrderedZipWriter.directory(entry.getName()));
+					continue;
+				}
+				try(InputStream i = zip.getInputStream(entry)) {
+					out.write(OrderedZipWriter.compress(entry.getName(), i.readAllBytes(), compress));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Linemaps consist of one block per root class: a header line starting with the class
+	 * name, followed by tab indented line mappings and a blank line.
+	 */
+	private static void spliceLinemap(Path linemap, Path partialLinemap, Set<String> replacedRoots) throws IOException {
+		Path temp = Files.createTempFile(linemap.getParent(), linemap.getFileName().toString(), ".tmp");
+		try(BufferedWriter writer = Files.newBufferedWriter(temp); BufferedReader reader = Files.newBufferedReader(linemap)) {
+			boolean skipping = false;
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(!line.isEmpty() && !line.startsWith("\t")) {
+					skipping = replacedRoots.contains(line.split("\t", 2)[0]);
+				}
+				if(!skipping) {
+					writer.write(line);
+					writer.newLine();
+				}
+			}
+			if(partialLinemap != null) {
+				for(String partialLine : Files.readAllLines(partialLinemap)) {
+					writer.write(partialLine);
+					writer.newLine();
+				}
+			}
+		}
+		Files.move(temp, linemap, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @param source the source jar
+	 * @param index the current index of the source jar
+	 * @param affectedRoots the root classes which must be decompiled again
+	 * @param removedRoots the root classes which no longer exist
+	 */
+	static record Plan(Path source, ClassIndex index, Set<String> affectedRoots, Set<String> removedRoots) {
+
+		boolean isUpToDate() {
+			return affectedRoots.isEmpty() && removedRoots.isEmpty();
+		}
+
+		boolean isAffected(String className) {
+			ClassRecord record = index.get(className);
+			return record != null && affectedRoots.contains(record.root());
+		}
+
+	}
+
+}
@@ -0,0 +1,218 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Computes stable content hashes of jars used as decompiler inputs.
+ * <p>
+ * Workspaces set up by older versions had the line number tables of decompiled jars
+ * rewritten in place, so their raw bytes differ even though their code does not.
+ * {@link #fingerprintClasses(Path)} therefore hashes every class with its
+ * {@code LineNumberTable} removed. Library jars were never rewritten and are hashed as-is
+ * with {@link #fingerprintFile(Path)}.
+ * </p>
+ * <p>
+ * Results are memoized by path, size and modification time in a small index file so that
+ * unchanged jars are not re-read on every run.
+ * </p>
+ */
+public class JarFingerprinter {
+
+	public static final Path DEFAULT_DIR = Path.of(System.getProperty("user.home"), ".wilderWorkspace");
+
+	/**
+	 * Options which do not affect the decompiled output and are excluded from context fingerprints.
+	 */
+	private static final List<String> IGNORED_OPTIONS = List.of(
+		IFernflowerPreferences.THREADS,
+		IFernflowerPreferences.LOG_LEVEL
+	);
+
+	private static final String INDEX_FILE = "fingerprints.properties";
+	private static final String CLASSES = "classes";
+	private static final String FILE = "file";
+
+	private final Path indexFile;
+	private final Map<String, String> index = new ConcurrentHashMap<>();
+	private volatile boolean dirty = false;
+
+	public JarFingerprinter(Path cacheDir) throws IOException {
+		this.indexFile = cacheDir.resolve(INDEX_FILE);
+		if(Files.exists(indexFile)) {
+			Properties props = new Properties();
+			try(InputStream i = Files.newInputStream(indexFile)) {
+				props.load(i);
+			}
+			props.forEach((k, v) -> index.put(k.toString(), v.toString()));
+		}
+	}
+
+	/**
+	 * @return a hash of the class files in the jar, ignoring line number tables
+	 */
+	public String fingerprintClasses(Path jar) throws IOException {
+		return memoized(jar, CLASSES);
+	}
+
+	/**
+	 * @return a hash of the raw bytes of the file
+	 */
+	public String fingerprintFile(Path file) throws IOException {
+		return memoized(file, FILE);
+	}
+
+	/**
+	 * Computes a hash of everything other than the jar itself that affects how {@code source}
+	 * is decompiled.
+	 *
+	 * @param source the jar being decompiled
+	 * @param classpath every jar in the decompilation context
+	 * @param decompiledClasspath the subset of {@code classpath} which is also decompiled (and therefore line remapped)
+	 * @param options the options passed to the decompiler
+	 */
+	public String fingerprintContext(Path source, Collection<Path> classpath, Collection<Path> decompiledClasspath, Map<String, Object> options) throws IOException {
+		MessageDigest digest = sha256();
+		update(digest, "vineflower", WilderWorkspaceDecompiler.getDecompilerVersion());
+
+		TreeSet<String> sortedClasspath = new TreeSet<>();
+		for(Path jar : classpath) {
+			if(jar.equals(source)) {
+				continue;
+			}
+			String hash = decompiledClasspath.contains(jar) ? fingerprintClasses(jar) : fingerprintFile(jar);
+			sortedClasspath.add(jar.getFileName().toString() + "@" + hash);
+		}
+		for(String library : sortedClasspath) {
+			update(digest, "library", library);
+		}
+
+		TreeMap<String, String> sortedOptions = new TreeMap<>();
+		options.forEach((k, v) -> {
+			if(!IGNORED_OPTIONS.contains(k)) {
+				sortedOptions.put(k, String.valueOf(v));
+			}
+		});
+		sortedOptions.forEach((k, v) -> update(digest, k, v));
+
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	public void save() throws IOException {
+		if(!dirty) {
+			return;
+		}
+		Properties props = new Properties();
+		props.putAll(index);
+		Files.createDirectories(indexFile.getParent());
+		Path temp = Files.createTempFile(indexFile.getParent(), INDEX_FILE, ".tmp");
+		try(OutputStream o = Files.newOutputStream(temp)) {
+			props.store(o, "WilderWorkspace jar fingerprints");
+		}
+		Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+		dirty = false;
+	}
+
+	private String memoized(Path file, String mode) throws IOException {
+		file = file.toAbsolutePath().normalize();
+		BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+		String key = mode + ":" + file;
+		String stamp = attrs.size() + ":" + attrs.lastModifiedTime().toMillis() + ":";
+		String existing = index.get(key);
+		if(existing != null && existing.startsWith(stamp)) {
+			return existing.substring(stamp.length());
+		}
+		String hash = CLASSES.equals(mode) ? hashClasses(file) : hashFile(file);
+		index.put(key, stamp + hash);
+		dirty = true;
+		return hash;
+	}
+
+	static String hashFile(Path file) throws IOException {
+		MessageDigest digest = sha256();
+		try(DigestInputStream i = new DigestInputStream(Files.newInputStream(file), digest)) {
+			i.transferTo(OutputStream.nullOutputStream());
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	static String hashClasses(Path jar) throws IOException {
+		MessageDigest digest = sha256();
+		try(JarFile jarFile = new JarFile(jar.toFile())) {
+			List<JarEntry> entries = new ArrayList<>();
+			jarFile.stream().filter(e -> e.getName().endsWith(".class")).forEach(entries::add);
+			entries.sort((a, b) -> a.getName().compareTo(b.getName()));
+			for(JarEntry entry : entries) {
+				digest.update(entry.getName().getBytes(StandardCharsets.UTF_8));
+				try(InputStream i = jarFile.getInputStream(entry)) {
+					digest.update(stripLineNumbers(i.readAllBytes()));
+				}
+			}
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * @return the class with all line number entries removed
+	 */
+	static byte[] stripLineNumbers(byte[] classBytes) {
+		ClassReader reader = new ClassReader(classBytes);
+		ClassWriter writer = new ClassWriter(0);
+		reader.accept(new ClassVisitor(Opcodes.ASM9, writer) {
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				return new MethodVisitor(Opcodes.ASM9, super.visitMethod(access, name, descriptor, signature, exceptions)) {
+					@Override
+					public void visitLineNumber(int line, Label start) {
+						//ignored
+					}
+				};
+			}
+		}, 0);
+		return writer.toByteArray();
+	}
+
+	static void update(MessageDigest digest, String key, String value) {
+		digest.update(key.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(value.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) '\n');
+	}
+
+	static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+}
@@ -0,0 +1,383 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only, memory-mapped index of the class, field and method comments of a tiny v2
+ * mappings file.
+ * <p>
+ * The index is built once per mappings file and namespace into
+ * {@code <cacheDir>/<key>.idx} and mapped into memory, so the mappings are never held in
+ * the heap. Lookups allocate nothing unless a comment is found.
+ * </p>
+ * <p>
+ * The file is a {@link MappedTable} of {@code hash, keyOffset, docOffset} slots followed by
+ * the keys, the kind, owner, name and descriptor separated by {@code \0}, and the comments,
+ * stored as UTF-8. Method comments already include the {@code @param} lines of their
+ * documented parameters.
+ * </p>
+ */
+public class JavadocIndex {
+
+	public static final Path DEFAULT_DIR = JarFingerprinter.DEFAULT_DIR.resolve("javadocIndex");
+
+	private static final int MAGIC = 0x57574A44; //WWJD
+	private static final int FORMAT_VERSION = 2;
+	private static final int SLOT_SIZE = 12;
+
+	private static final char CLASS = 'c';
+	private static final char FIELD = 'f';
+	private static final char METHOD = 'm';
+
+	private final MappedTable table;
+	private final ByteBuffer buffer;
+	private final String key;
+
+	private JavadocIndex(MappedTable table, String key) {
+		this.table = table;
+		this.buffer = table.buffer();
+		this.key = key;
+	}
+
+	/**
+	 * Opens the index of a mappings file, building it first if it does not exist yet.
+	 *
+	 * @param tinyFile a tiny v2 mappings file
+	 * @param namespace the namespace of the names the decompiler sees, such as {@code named}
+	 * @param cacheDir the directory indexes are kept in
+	 */
+	public static JavadocIndex open(Path tinyFile, String namespace, Path cacheDir) throws IOException {
+		MessageDigest digest = JarFingerprinter.sha256();
+		JarFingerprinter.update(digest, "format", String.valueOf(FORMAT_VERSION));
+		JarFingerprinter.update(digest, "namespace", namespace);
+		JarFingerprinter.update(digest, "mappings", JarFingerprinter.hashFile(tinyFile));
+		String key = HexFormat.of().formatHex(digest.digest());
+		Path indexFile = cacheDir.resolve(key + ".idx");
+		return new JavadocIndex(MappedTable.open(indexFile, MAGIC, FORMAT_VERSION, SLOT_SIZE, file -> build(tinyFile, namespace, file)), key);
+	}
+
+	/**
+	 * @return a hash of the mappings and namespace the index was built from
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @param className the internal name of the class
+	 * @return the comment of the class, or null if it has none
+	 */
+	public String getClassDoc(String className) {
+		return find(CLASS, className, null, null);
+	}
+
+	public String getFieldDoc(String className, String name, String descriptor) {
+		return find(FIELD, className, name, descriptor);
+	}
+
+	/**
+	 * @return the comment of the method followed by the comments of its parameters, or null if there are none
+	 */
+	public String getMethodDoc(String className, String name, String descriptor) {
+		return find(METHOD, className, name, descriptor);
+	}
+
+	private String find(char kind, String owner, String name, String descriptor) {
+		int position = table.find(hash(kind, owner, name, descriptor), keyOffset -> matches(keyOffset, kind, owner, name, descriptor));
+		if(position == -1) {
+			return null;
+		}
+		int docOffset = buffer.getInt(position + 8);
+		byte[] doc = new byte[buffer.getInt(docOffset)];
+		buffer.get(docOffset + 4, doc);
+		return new String(doc, StandardCharsets.UTF_8);
+	}
+
+	private boolean matches(int keyOffset, char kind, String owner, String name, String descriptor) {
+		int length = buffer.getInt(keyOffset);
+		if(length != keyLength(owner, name, descriptor)) {
+			return false;
+		}
+		int position = keyOffset + 4;
+		if(buffer.getChar(position) != kind) {
+			return false;
+		}
+		position = table.matches(position + 2, owner);
+		if(position < 0 || name == null) {
+			return position >= 0;
+		}
+		if(buffer.getChar(position) != 0) {
+			return false;
+		}
+		position = table.matches(position + 2, name);
+		if(position < 0 || buffer.getChar(position) != 0) {
+			return false;
+		}
+		return table.matches(position + 2, descriptor) >= 0;
+	}
+
+	private static int keyLength(String owner, String name, String descriptor) {
+		return name == null ? 1 + owner.length() : 1 + owner.length() + 1 + name.length() + 1 + descriptor.length();
+	}
+
+	/**
+	 * Computed part by part, so lookups need not build the key.
+	 */
+	private static int hash(char kind, String owner, String name, String descriptor) {
+		int hash = MappedTable.hash(MappedTable.FNV_OFFSET_BASIS, kind);
+		hash = MappedTable.hash(hash, owner);
+		if(name != null) {
+			hash = MappedTable.hash(hash, (char) 0);
+			hash = MappedTable.hash(hash, name);
+			hash = MappedTable.hash(hash, (char) 0);
+			hash = MappedTable.hash(hash, descriptor);
+		}
+		return hash;
+	}
+
+	/**
+	 * Builds the index of a tiny v2 file.
+	 */
+	static void build(Path tinyFile, String namespace, Path indexFile) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		for(Map.Entry<Key, String> doc : TinyComments.read(tinyFile, namespace).entrySet()) {
+			entries.add(new Entry(doc.getKey(), hash(doc.getKey().kind(), doc.getKey().owner(), doc.getKey().name(), doc.getKey().descriptor()), doc.getValue()));
+		}
+
+		MappedTable.Slots slots = new MappedTable.Slots(entries.size());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		int dataStart = MappedTable.HEADER_SIZE + slots.count() * SLOT_SIZE;
+		for(Entry entry : entries) {
+			int keyOffset = dataStart + data.size();
+			Key key = entry.key();
+			data.writeInt(keyLength(key.owner(), key.name(), key.descriptor()));
+			data.writeChar(key.kind());
+			data.writeChars(key.owner());
+			if(key.name() != null) {
+				data.writeChar(0);
+				data.writeChars(key.name());
+				data.writeChar(0);
+				data.writeChars(key.descriptor());
+			}
+			int docOffset = dataStart + data.size();
+			byte[] doc = entry.doc().getBytes(StandardCharsets.UTF_8);
+			data.writeInt(doc.length);
+			data.write(doc);
+			if(dataStart + (long) data.size() > Integer.MAX_VALUE) {
+				throw new IOException("Too many comments in " + tinyFile + " to index");
+			}
+
+			slots.put(entry.hash(), keyOffset, docOffset);
+		}
+
+		Files.createDirectories(indexFile.getParent());
+		Path temp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+		try {
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+				out.write(MappedTable.header(MAGIC, FORMAT_VERSION, slots.count(), MappedTable.HEADER_SIZE).array());
+				slots.write(out, SLOT_SIZE);
+				bytes.writeTo(out);
+			}
+			MappedTable.publish(temp, indexFile);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	static record Key(char kind, String owner, String name, String descriptor) {}
+
+	private static record Entry(Key key, int hash, String doc) {}
+
+	/**
+	 * Reads the comments of a tiny v2 file, with every name and descriptor in one namespace.
+	 */
+	static class TinyComments {
+
+		static Map<Key, String> read(Path tinyFile, String namespace) throws IOException {
+			List<String[]> lines = new ArrayList<>();
+			int namespaceIndex;
+			boolean escapedNames = false;
+			try(BufferedReader reader = Files.newBufferedReader(tinyFile)) {
+				String header = reader.readLine();
+				String[] headerParts = header == null ? new String[0] : header.split("\t");
+				if(headerParts.length < 4 || !headerParts[0].equals("tiny") || !headerParts[1].equals("2")) {
+					throw new IOException(tinyFile + " is not a tiny v2 file");
+				}
+				namespaceIndex = -1;
+				for(int i = 3; i < headerParts.length; i++) {
+					if(headerParts[i].equals(namespace)) {
+						namespaceIndex = i - 3;
+					}
+				}
+				if(namespaceIndex == -1) {
+					throw new IOException(tinyFile + " has no namespace " + namespace);
+				}
+				String line;
+				boolean properties = true;
+				while((line = reader.readLine()) != null) {
+					if(line.isEmpty()) {
+						continue;
+					}
+					if(properties && line.startsWith("\t")) {
+						escapedNames |= line.trim().equals("escaped-names");
+						continue;
+					}
+					properties = false;
+					lines.add(line.split("\t", -1));
+				}
+			}
+
+			//descriptors are in the first namespace, so all class names are needed before remapping them
+			Map<String, String> classNames = new HashMap<>();
+			for(String[] parts : lines) {
+				if(parts.length > 1 && parts[0].equals("c")) {
+					classNames.put(name(parts, 1, 0, escapedNames), name(parts, 1, namespaceIndex, escapedNames));
+				}
+			}
+
+			Map<Key, String> comments = new LinkedHashMap<>();
+			String owner = null;
+			Key member = null;
+			String memberComment = null;
+			List<String> params = new ArrayList<>();
+			String paramName = null;
+			for(String[] parts : lines) {
+				int depth = 0;
+				while(depth < parts.length && parts[depth].isEmpty()) {
+					depth++;
+				}
+				if(depth == parts.length) {
+					continue;
+				}
+				String kind = parts[depth];
+				if(depth <= 1 && member != null) {
+					putMethodDoc(comments, member, memberComment, params);
+					member = null;
+				}
+				if(depth == 0 && kind.equals("c")) {
+					owner = name(parts, 1, namespaceIndex, escapedNames);
+				}
+				else if(depth == 1 && kind.equals("c") && owner != null) {
+					comments.put(new Key(CLASS, owner, null, null), unescape(parts[2]));
+				}
+				else if(depth == 1 && (kind.equals("f") || kind.equals("m")) && owner != null) {
+					String descriptor = remapDescriptor(parts[2], classNames);
+					member = new Key(kind.equals("f") ? FIELD : METHOD, owner, name(parts, 3, namespaceIndex, escapedNames), descriptor);
+					memberComment = null;
+					params.clear();
+				}
+				else if(depth == 2 && kind.equals("c") && member != null) {
+					memberComment = unescape(parts[3]);
+				}
+				else if(depth == 2 && kind.equals("p") && member != null) {
+					paramName = name(parts, 4, namespaceIndex, escapedNames);
+				}
+				else if(depth == 3 && kind.equals("c") && paramName != null) {
+					params.add("@param " + paramName + " " + unescape(parts[4]));
+				}
+				if(depth < 3 && !kind.equals("c")) {
+					if(!(depth == 2 && kind.equals("p"))) {
+						paramName = null;
+					}
+				}
+			}
+			if(member != null) {
+				putMethodDoc(comments, member, memberComment, params);
+			}
+			return comments;
+		}
+
+		/**
+		 * Fields only get their own comment, methods their comment followed by those of their parameters.
+		 */
+		private static void putMethodDoc(Map<Key, String> comments, Key member, String comment, List<String> params) {
+			List<String> parts = new ArrayList<>();
+			if(comment != null) {
+				parts.add(comment);
+			}
+			if(member.kind() == METHOD && !params.isEmpty()) {
+				if(comment != null) {
+					parts.add("");
+				}
+				parts.addAll(params);
+			}
+			if(!parts.isEmpty()) {
+				comments.put(member, String.join("\n", parts));
+			}
+		}
+
+		/**
+		 * @return the name in the given namespace, falling back to the name in the first namespace
+		 */
+		private static String name(String[] parts, int firstColumn, int namespaceIndex, boolean escaped) {
+			String name = firstColumn + namespaceIndex < parts.length ? parts[firstColumn + namespaceIndex] : "";
+			if(name.isEmpty()) {
+				name = parts[firstColumn];
+			}
+			return escaped ? unescape(name) : name;
+		}
+
+		private static String remapDescriptor(String descriptor, Map<String, String> classNames) {
+			StringBuilder remapped = new StringBuilder(descriptor.length());
+			int i = 0;
+			while(i < descriptor.length()) {
+				char c = descriptor.charAt(i);
+				remapped.append(c);
+				i++;
+				if(c == 'L') {
+					int end = descriptor.indexOf(';', i);
+					if(end == -1) {
+						remapped.append(descriptor, i, descriptor.length());
+						break;
+					}
+					String className = descriptor.substring(i, end);
+					remapped.append(classNames.getOrDefault(className, className)).append(';');
+					i = end + 1;
+				}
+			}
+			return remapped.toString();
+		}
+
+		private static String unescape(String s) {
+			if(s.indexOf('\\') == -1) {
+				return s;
+			}
+			StringBuilder unescaped = new StringBuilder(s.length());
+			for(int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if(c != '\\' || i + 1 == s.length()) {
+					unescaped.append(c);
+					continue;
+				}
+				char next = s.charAt(++i);
+				switch(next) {
+					case 'n': unescaped.append('\n'); break;
+					case 'r': unescaped.append('\r'); break;
+					case 't': unescaped.append('\t'); break;
+					case '0': unescaped.append('\0'); break;
+					default: unescaped.append(next); break;
+				}
+			}
+			return unescaped.toString();
+		}
+
+	}
+
+}
@@ -0,0 +1,231 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.file.PathUtils;
+
+import com.wildermods.workspace.decomp.ClassIndex.ClassRecord;
+
+/**
+ * Decompiles classes of the source jars on demand instead of all at once.
+ * <p>
+ * Each source jar gets a source directory, {@code <outputDir>/<jar>/}, which is attached to
+ * the IDE instead of a decompiled source jar. When a class is {@link #provide(String) provided}
+ * its root class is decompiled into that directory together with up to
+ * {@value #PREFETCH_LIMIT} other root classes of the same package that were not decompiled
+ * yet, since classes are usually browsed a package at a time. Decompiled sources are kept
+ * until the jar, its libraries or the decompiler options change.
+ * </p>
+ * <p>
+ * Lazily decompiled classes are not line remapped, so the line numbers seen by a debugger
+ * only match the sources after a full decompilation.
+ * </p>
+ */
+public class LazySourceProvider {
+
+	public static final int PREFETCH_LIMIT = 64;
+
+	private static final String KEY_FILE = ".wilderworkspace-key";
+
+	private final WilderWorkspaceDecompiler decompiler;
+	private final JarFingerprinter fingerprinter;
+	private final Path outputDir;
+	private final Map<Path, ClassIndex> indexes = new LinkedHashMap<>();
+
+	public LazySourceProvider(WilderWorkspaceDecompiler decompiler, JarFingerprinter fingerprinter, Path outputDir) {
+		this.decompiler = decompiler;
+		this.fingerprinter = fingerprinter;
+		this.outputDir = outputDir;
+	}
+
+	/**
+	 * @return the directory lazily decompiled sources are kept in for a decompilation directory
+	 */
+	public static Path getOutputDir(Path decompDir) {
+		return decompDir.resolve("decomp").resolve("lazy");
+	}
+
+	/**
+	 * @return the directory the sources of {@code jar} are decompiled into
+	 */
+	public Path getSourceDir(Path jar) {
+		return outputDir.resolve(jar.getFileName().toString());
+	}
+
+	/**
+	 * Creates the source directories, discarding previously decompiled sources that are out
+	 * of date. Does not decompile anything.
+	 */
+	public void prepare() throws IOException {
+		try {
+			for(Path source : decompiler.getSources()) {
+				index(source);
+			}
+		}
+		finally {
+			fingerprinter.save();
+		}
+	}
+
+	/**
+	 * Makes sure the source of a class is decompiled.
+	 *
+	 * @param className the binary or internal name of the class, such as {@code com.example.Foo$Bar}
+	 * @return the source file the class is decompiled into, or null if no source jar contains the class
+	 */
+	public Path provide(String className) throws IOException {
+		String internalName = className.replace('.', '/');
+		try {
+			for(Path source : decompiler.getSources()) {
+				ClassIndex index = index(source);
+				ClassRecord record = index.get(internalName);
+				if(record == null) {
+					continue;
+				}
+				Path sourceFile = getSourceDir(source).resolve(record.root() + ".java");
+				if(!Files.isRegularFile(sourceFile)) {
+					decompile(source, index, batch(source, index, record.root()));
+				}
+				return Files.isRegularFile(sourceFile) ? sourceFile : null;
+			}
+			return null;
+		}
+		finally {
+			fingerprinter.save();
+		}
+	}
+
+	/**
+	 * @return the requested root class and the undecompiled root classes of its package
+	 */
+	private Set<String> batch(Path source, ClassIndex index, String root) {
+		String packagePrefix = root.substring(0, root.lastIndexOf('/') + 1);
+		Set<String> batch = new LinkedHashSet<>();
+		batch.add(root);
+		Set<String> siblings = new TreeSet<>();
+		for(ClassRecord record : index.getClasses().values()) {
+			String sibling = record.root();
+			if(sibling.startsWith(packagePrefix) && sibling.indexOf('/', packagePrefix.length()) == -1) {
+				siblings.add(sibling);
+			}
+		}
+		for(String sibling : siblings) {
+			if(batch.size() > PREFETCH_LIMIT) {
+				break;
+			}
+			if(!Files.isRegularFile(getSourceDir(source).resolve(sibling + ".java"))) {
+				batch.add(sibling);
+			}
+		}
+		return batch;
+	}
+
+	private void decompile(Path source, ClassIndex index, Set<String> roots) throws IOException {
+		Path work = Files.createTempDirectory(outputDir, "work");
+		List<FilteredJarContextSource> contextSources = new ArrayList<>();
+		try {
+			FilteredJarContextSource classes = new FilteredJarContextSource(source, name -> {
+				ClassRecord record = index.get(name);
+				return record != null && roots.contains(record.root());
+			});
+			contextSources.add(classes);
+			FilteredJarContextSource rest = new FilteredJarContextSource(source, name -> {
+				ClassRecord record = index.get(name);
+				return record == null || !roots.contains(record.root());
+			});
+			contextSources.add(rest);
+
+			decompiler.decompile(work, null, ff -> {
+				decompiler.addLibraries(ff);
+				for(Path other : decompiler.getSources()) {
+					if(!other.equals(source)) {
+						ff.addLibrary(other.toFile());
+					}
+				}
+				ff.addLibrary(rest);
+				ff.addSource(classes);
+			});
+
+			Path archive = work.resolve(source.getFileName().toString());
+			Path sourceDir = getSourceDir(source);
+			try(ZipFile zip = new ZipFile(archive.toFile())) {
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+				while(entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					if(entry.isDirectory() || !entry.getName().endsWith(".java")) {
+						continue;
+					}
+					Path target = sourceDir.resolve(entry.getName()).normalize();
+					if(!target.startsWith(sourceDir)) {
+						throw new IOException("Illegal entry " + entry.getName() + " in " + archive);
+					}
+					Files.createDirectories(target.getParent());
+					Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+					try(InputStream i = zip.getInputStream(entry)) {
+						Files.copy(i, temp, StandardCopyOption.REPLACE_EXISTING);
+					}
+					Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		}
+		finally {
+			for(FilteredJarContextSource contextSource : contextSources) {
+				contextSource.close();
+			}
+			PathUtils.deleteDirectory(work);
+		}
+	}
+
+	/**
+	 * Loads the class index of a source jar, rebuilding it and clearing the source directory
+	 * if the jar or its decompilation context changed.
+	 */
+	private ClassIndex index(Path source) throws IOException {
+		ClassIndex index = indexes.get(source);
+		if(index != null) {
+			return index;
+		}
+		Set<Path> classpath = new HashSet<>(decompiler.getLibraries());
+		classpath.addAll(decompiler.getSources());
+		String key = fingerprinter.fingerprintContext(source, classpath, decompiler.getSources(), decompiler.getOptions()) + "@" + fingerprinter.fingerprintClasses(source);
+
+		Path sourceDir = getSourceDir(source);
+		Path keyFile = sourceDir.resolve(KEY_FILE);
+		Path indexFile = outputDir.resolve(source.getFileName() + ".index");
+		if(Files.isRegularFile(keyFile) && Files.readString(keyFile).equals(key) && Files.isRegularFile(indexFile)) {
+			try {
+				index = ClassIndex.read(indexFile);
+			}
+			catch(IOException e) {
+				index = null;
+			}
+		}
+		if(index == null || !index.getContextKey().equals(key)) {
+			if(Files.exists(sourceDir)) {
+				PathUtils.deleteDirectory(sourceDir);
+			}
+			Files.createDirectories(sourceDir);
+			index = ClassIndex.scan(source, key);
+			index.write(indexFile);
+			Files.writeString(keyFile, key);
+		}
+		indexes.put(source, index);
+		return index;
+	}
+
+}
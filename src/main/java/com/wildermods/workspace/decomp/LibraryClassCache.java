@@ -0,0 +1,245 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jetbrains.java.decompiler.main.extern.IContextSource;
+
+/**
+ * A shared cache of the class files of library jars, so decompiler runs don't open, scan and
+ * inflate every library again.
+ * <p>
+ * The class files of each library are extracted once into {@code <cacheDir>/<hash>.classes},
+ * keyed by the hash of the jar, and mapped into memory. The libraries are handed to the
+ * decompiler as a single lazy context source, so the decompiler doesn't list their entries up
+ * front and only reads the classes it actually needs, straight from the mapped file without
+ * inflating them.
+ * </p>
+ * <p>
+ * The file is a {@link MappedTable} of each class as its name and its bytes, followed by
+ * the table of {@code hash, nameOffset, dataOffset, length} slots. Multi-release versions of
+ * classes are left out, as the decompiler only reads the base versions.
+ * </p>
+ */
+public class LibraryClassCache {
+
+	public static final Path DEFAULT_DIR = JarFingerprinter.DEFAULT_DIR.resolve("libraryCache");
+
+	private static final int MAGIC = 0x57574C43; //WWLC
+	private static final int FORMAT_VERSION = 1;
+	private static final int SLOT_SIZE = 16;
+
+	private static final String CLASS_SUFFIX = ".class";
+	private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+	private final Path cacheDir;
+	private final JarFingerprinter fingerprinter;
+
+	public LibraryClassCache(Path cacheDir, JarFingerprinter fingerprinter) {
+		this.cacheDir = cacheDir;
+		this.fingerprinter = fingerprinter;
+	}
+
+	/**
+	 * Opens the cached classes of the libraries, extracting the libraries which are not cached yet.
+	 *
+	 * @param libraries the library jars, in the order classes are looked up in
+	 * @return a context source for {@code Fernflower.addLibrary} containing the classes of every library
+	 */
+	public IContextSource open(Collection<Path> libraries) throws IOException {
+		List<Library> opened = new ArrayList<>();
+		try {
+			for(Path jar : libraries) {
+				opened.add(open(jar));
+			}
+		}
+		finally {
+			fingerprinter.save();
+		}
+		return new LibraryContextSource(opened);
+	}
+
+	private Library open(Path jar) throws IOException {
+		Path file = cacheDir.resolve(fingerprinter.fingerprintFile(jar) + ".classes");
+		return new Library(jar.getFileName().toString(), MappedTable.open(file, MAGIC, FORMAT_VERSION, SLOT_SIZE, f -> build(jar, f)));
+	}
+
+	/**
+	 * Extracts the class files of a jar. The classes are streamed into the file as they are
+	 * read, only the names and offsets are kept until the hash table is written.
+	 */
+	static void build(Path jar, Path file) throws IOException {
+		List<Integer> hashes = new ArrayList<>();
+		List<int[]> locations = new ArrayList<>();
+
+		Files.createDirectories(file.getParent());
+		Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		try {
+			try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+				out.write(new byte[MappedTable.HEADER_SIZE]);
+				try(ZipFile zip = new ZipFile(jar.toFile())) {
+					Enumeration<? extends ZipEntry> entries = zip.entries();
+					while(entries.hasMoreElements()) {
+						ZipEntry entry = entries.nextElement();
+						String entryName = entry.getName();
+						if(entry.isDirectory() || !entryName.endsWith(CLASS_SUFFIX) || entryName.startsWith(VERSIONS_PREFIX)) {
+							continue;
+						}
+						String name = entryName.substring(0, entryName.length() - CLASS_SUFFIX.length());
+						byte[] bytes;
+						try(InputStream i = zip.getInputStream(entry)) {
+							bytes = i.readAllBytes();
+						}
+						int nameOffset = out.size();
+						out.writeInt(name.length());
+						out.writeChars(name);
+						int dataOffset = out.size();
+						out.write(bytes);
+						if(out.size() == Integer.MAX_VALUE) { //the count sticks at the maximum once it overflows
+							throw new IOException(jar + " is too large to cache");
+						}
+						hashes.add(hash(name));
+						locations.add(new int[] {nameOffset, dataOffset, bytes.length});
+					}
+				}
+
+				MappedTable.Slots slots = new MappedTable.Slots(hashes.size());
+				int tableOffset = out.size();
+				if(tableOffset + (long) slots.count() * SLOT_SIZE > Integer.MAX_VALUE) {
+					throw new IOException(jar + " is too large to cache");
+				}
+				for(int i = 0; i < hashes.size(); i++) {
+					int[] location = locations.get(i);
+					slots.put(hashes.get(i), location[0], location[1], location[2]);
+				}
+				slots.write(out, SLOT_SIZE);
+				out.flush();
+
+				//the header is written last, so a file which was not completely written is never valid
+				channel.write(MappedTable.header(MAGIC, FORMAT_VERSION, slots.count(), tableOffset), 0);
+			}
+			MappedTable.publish(temp, file);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static int hash(String name) {
+		return MappedTable.hash(MappedTable.FNV_OFFSET_BASIS, name);
+	}
+
+	/**
+	 * The mapped classes of one library.
+	 */
+	private static class Library {
+
+		private final String name;
+		private final MappedTable table;
+
+		Library(String name, MappedTable table) {
+			this.name = name;
+			this.table = table;
+		}
+
+		/**
+		 * @return the position of the slot of the class, or -1 if the library doesn't contain it
+		 */
+		int find(String className) {
+			return table.find(hash(className), nameOffset -> table.buffer().getInt(nameOffset) == className.length() && table.matches(nameOffset + 4, className) >= 0);
+		}
+
+		byte[] read(int slotPosition) {
+			ByteBuffer buffer = table.buffer();
+			byte[] bytes = new byte[buffer.getInt(slotPosition + 12)];
+			buffer.get(buffer.getInt(slotPosition + 8), bytes);
+			return bytes;
+		}
+
+	}
+
+	/**
+	 * A lazy context source over the cached libraries. Like the decompiler does for library
+	 * jars, the first library containing a class wins.
+	 */
+	private static class LibraryContextSource implements IContextSource {
+
+		private final List<Library> libraries;
+
+		LibraryContextSource(List<Library> libraries) {
+			this.libraries = libraries;
+		}
+
+		@Override
+		public String getName() {
+			return "cached libraries (" + libraries.size() + " jars)";
+		}
+
+		@Override
+		public Entries getEntries() {
+			return Entries.EMPTY;
+		}
+
+		@Override
+		public boolean isLazy() {
+			return true;
+		}
+
+		@Override
+		public boolean hasClass(String className) {
+			for(Library library : libraries) {
+				if(library.find(className) != -1) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public byte[] getClassBytes(String className) {
+			for(Library library : libraries) {
+				int slot = library.find(className);
+				if(slot != -1) {
+					return library.read(slot);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public InputStream getInputStream(String resource) {
+			if(!resource.endsWith(CLASS_SUFFIX)) {
+				return null;
+			}
+			byte[] bytes = getClassBytes(resource.substring(0, resource.length() - CLASS_SUFFIX.length()));
+			return bytes == null ? null : new ByteArrayInputStream(bytes);
+		}
+
+		@Override
+		public String toString() {
+			List<String> names = new ArrayList<>();
+			for(Library library : libraries) {
+				names.add(library.name);
+			}
+			return getName() + " " + names;
+		}
+
+	}
+
+}
@@ -0,0 +1,103 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The line mappings of a source jar, as written by {@link ParallelArchiveSaver}.
+ * <p>
+ * Lines are mapped the same way loom maps them: lines past the last mapped line go to the
+ * last line of the source, and lines without a mapping go to the next mapped line after them.
+ * </p>
+ */
+public class LineMap {
+
+	private final Map<String, ClassLines> classes;
+
+	private LineMap(Map<String, ClassLines> classes) {
+		this.classes = classes;
+	}
+
+	public static LineMap read(Path linemap) throws IOException {
+		Map<String, ClassLines> classes = new HashMap<>();
+		try(BufferedReader reader = Files.newBufferedReader(linemap)) {
+			String className = null;
+			int maxLine = 0;
+			int maxLineDest = 0;
+			Map<Integer, Integer> lines = null;
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(line.isBlank()) {
+					continue;
+				}
+				String[] parts = line.trim().split("\t");
+				if(parts.length != (line.startsWith("\t") ? 2 : 3)) {
+					throw new IOException("Malformed line in " + linemap + ": " + line);
+				}
+				try {
+					if(!line.startsWith("\t")) {
+						if(className != null) {
+							classes.put(className, new ClassLines(maxLine, maxLineDest, lines));
+						}
+						className = parts[0];
+						maxLine = Integer.parseInt(parts[1]);
+						maxLineDest = Integer.parseInt(parts[2]);
+						lines = new HashMap<>();
+					}
+					else if(lines == null) {
+						throw new IOException("Line mapping outside of a class in " + linemap + ": " + line);
+					}
+					else {
+						lines.put(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+					}
+				}
+				catch(NumberFormatException e) {
+					throw new IOException("Malformed line in " + linemap + ": " + line, e);
+				}
+			}
+			if(className != null) {
+				classes.put(className, new ClassLines(maxLine, maxLineDest, lines));
+			}
+		}
+		return new LineMap(Collections.unmodifiableMap(classes));
+	}
+
+	/**
+	 * @param className the internal name of a class, inner classes use the mappings of their top level class
+	 * @return the mappings of the class, or null if it has none
+	 */
+	public ClassLines get(String className) {
+		int inner = className.indexOf('$');
+		return classes.get(inner == -1 ? className : className.substring(0, inner));
+	}
+
+	public int size() {
+		return classes.size();
+	}
+
+	public static record ClassLines(int maxLine, int maxLineDest, Map<Integer, Integer> lines) {
+
+		public int map(int line) {
+			if(line <= 0) {
+				return line;
+			}
+			if(line >= maxLine) {
+				return maxLineDest;
+			}
+			for(int l = line; l <= maxLine; l++) {
+				Integer mapped = lines.get(l);
+				if(mapped != null) {
+					return mapped;
+				}
+			}
+			return maxLineDest;
+		}
+
+	}
+
+}
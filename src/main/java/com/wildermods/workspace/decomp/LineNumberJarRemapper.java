@@ -0,0 +1,148 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import com.wildermods.workspace.decomp.LineMap.ClassLines;
+
+/**
+ * Rewrites the line number tables of a jar's classes so they point at the lines of the
+ * decompiled sources.
+ * <p>
+ * The original jar is never modified. Classes are remapped on the given executor, and only
+ * classes whose line numbers actually change are rewritten; every other entry is copied
+ * unchanged. Entries keep their order.
+ * </p>
+ */
+public class LineNumberJarRemapper {
+
+	private final LineMap lineMap;
+	private final ExecutorService executor;
+
+	public LineNumberJarRemapper(LineMap lineMap, ExecutorService executor) {
+		this.lineMap = lineMap;
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the number of classes which were rewritten
+	 */
+	public int remap(Path jar, Path dest) throws IOException {
+		List<Future<OrderedZipWriter.Entry>> entries = new ArrayList<>();
+		AtomicInteger rewritten = new AtomicInteger();
+		try(ZipFile zip = new ZipFile(jar.toFile())) {
+			Enumeration<? extends ZipEntry> e = zip.entries();
+			while(e.hasMoreElements()) {
+				ZipEntry entry = e.nextElement();
+				if(entry.isDirectory()) {
+					entries.add(executor.submit(() -> OrderedZipWriter.directory(entry.getName())));
+					continue;
+				}
+				byte[] bytes;
+				try(InputStream i = zip.getInputStream(entry)) {
+					bytes = i.readAllBytes();
+				}
+				if(!entry.getName().endsWith(".class")) {
+					entries.add(executor.submit(() -> OrderedZipWriter.compress(entry.getName(), bytes, true)));
+					continue;
+				}
+				entries.add(executor.submit(() -> {
+					byte[] remapped = remapClass(bytes);
+					if(remapped != bytes) {
+						rewritten.incrementAndGet();
+					}
+					return OrderedZipWriter.compress(entry.getName(), remapped, true);
+				}));
+			}
+		}
+
+		try(OrderedZipWriter out = new OrderedZipWriter(dest)) {
+			for(Future<OrderedZipWriter.Entry> entry : entries) {
+				out.write(get(entry));
+			}
+		}
+		return rewritten.get();
+	}
+
+	/**
+	 * @return the remapped class, or {@code bytes} itself if none of its line numbers change
+	 */
+	byte[] remapClass(byte[] bytes) {
+		ClassReader reader = new ClassReader(bytes);
+		ClassLines lines = lineMap.get(reader.getClassName());
+		if(lines == null || !changesLines(reader, lines)) {
+			return bytes;
+		}
+		ClassWriter writer = new ClassWriter(reader, 0);
+		reader.accept(new ClassVisitor(Opcodes.ASM9, writer) {
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				return new MethodVisitor(Opcodes.ASM9, super.visitMethod(access, name, descriptor, signature, exceptions)) {
+					@Override
+					public void visitLineNumber(int line, Label start) {
+						super.visitLineNumber(lines.map(line), start);
+					}
+				};
+			}
+		}, 0);
+		return writer.toByteArray();
+	}
+
+	private static boolean changesLines(ClassReader reader, ClassLines lines) {
+		boolean[] changes = new boolean[1];
+		reader.accept(new ClassVisitor(Opcodes.ASM9) {
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				return changes[0] ? null : new MethodVisitor(Opcodes.ASM9) {
+					@Override
+					public void visitLineNumber(int line, Label start) {
+						if(lines.map(line) != line) {
+							changes[0] = true;
+						}
+					}
+				};
+			}
+		}, ClassReader.SKIP_FRAMES);
+		return changes[0];
+	}
+
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		}
+		catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			}
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while remapping", e);
+		}
+	}
+
+}
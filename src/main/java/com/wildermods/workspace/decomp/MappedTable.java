@@ -0,0 +1,213 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+
+/**
+ * A memory-mapped file with an open addressing hash table, the format of {@link LibraryClassCache}
+ * and {@link JavadocIndex}.
+ * <p>
+ * The file starts with a header of {@code magic, version, slots, tableOffset}. Each slot of the
+ * table is a hash, the offset of its key, which is 0 for empty slots, and the ints the format
+ * stores along with the key. Keys are written as UTF-16, so lookups compare them against strings
+ * without decoding them. Keys are hashed with FNV-1a over their chars.
+ * </p>
+ * <p>
+ * Opened files are shared by every decompiler run in the same JVM. Lookups only use absolute
+ * reads, so any number of threads can read a table at once without locking.
+ * </p>
+ */
+final class MappedTable {
+
+	static final int HEADER_SIZE = 16;
+
+	static final int FNV_OFFSET_BASIS = 0x811C9DC5;
+	private static final int FNV_PRIME = 0x01000193;
+
+	private static final Map<Path, MappedTable> OPEN = new ConcurrentHashMap<>();
+
+	private final ByteBuffer buffer;
+	private final int slotSize;
+	private final int mask;
+	private final int tableOffset;
+
+	private MappedTable(ByteBuffer buffer, int slotSize) {
+		this.buffer = buffer;
+		this.slotSize = slotSize;
+		this.mask = buffer.getInt(8) - 1;
+		this.tableOffset = buffer.getInt(12);
+	}
+
+	/**
+	 * Opens a table, building it first if it doesn't exist or is not valid.
+	 *
+	 * @param slotSize the size of a slot in bytes
+	 * @param builder writes the file, see {@link #publish(Path, Path)}
+	 */
+	static MappedTable open(Path file, int magic, int version, int slotSize, Builder builder) throws IOException {
+		try {
+			return OPEN.computeIfAbsent(file, f -> {
+				try {
+					if(!isValid(f, magic, version, slotSize)) {
+						builder.build(f);
+					}
+					try(FileChannel channel = FileChannel.open(f, StandardOpenOption.READ)) {
+						return new MappedTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), slotSize);
+					}
+				}
+				catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+		catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static boolean isValid(Path file, int magic, int version, int slotSize) {
+		if(!Files.isRegularFile(file)) {
+			return false;
+		}
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			return channel.read(header, 0) == HEADER_SIZE && header.getInt(0) == magic && header.getInt(4) == version
+				&& header.getInt(12) + (long) header.getInt(8) * slotSize <= channel.size();
+		}
+		catch(IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param keyMatches whether the key at an offset is the one looked up
+	 * @return the position of the slot of the key, or -1 if the table doesn't contain it
+	 */
+	int find(int hash, IntPredicate keyMatches) {
+		int slot = hash & mask;
+		while(true) {
+			int position = tableOffset + slot * slotSize;
+			int keyOffset = buffer.getInt(position + 4);
+			if(keyOffset == 0) {
+				return -1;
+			}
+			if(buffer.getInt(position) == hash && keyMatches.test(keyOffset)) {
+				return position;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * @return the position after {@code chars} if the UTF-16 chars at {@code position} match it, -1 otherwise
+	 */
+	int matches(int position, String chars) {
+		for(int i = 0; i < chars.length(); i++) {
+			if(buffer.getChar(position) != chars.charAt(i)) {
+				return -1;
+			}
+			position += 2;
+		}
+		return position;
+	}
+
+	ByteBuffer buffer() {
+		return buffer;
+	}
+
+	static int hash(int hash, char c) {
+		return (hash ^ c) * FNV_PRIME;
+	}
+
+	static int hash(int hash, String chars) {
+		for(int i = 0; i < chars.length(); i++) {
+			hash = hash(hash, chars.charAt(i));
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the header of a table
+	 */
+	static ByteBuffer header(int magic, int version, int slots, int tableOffset) {
+		return ByteBuffer.allocate(HEADER_SIZE).putInt(magic).putInt(version).putInt(slots).putInt(tableOffset).flip();
+	}
+
+	/**
+	 * Moves a completely written table into place, so a table is never seen half written.
+	 */
+	static void publish(Path temp, Path file) throws IOException {
+		try {
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch(AtomicMoveNotSupportedException e) {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	static interface Builder {
+
+		void build(Path file) throws IOException;
+
+	}
+
+	/**
+	 * The slots of a table while it is built.
+	 */
+	static class Slots {
+
+		private final int[][] slots;
+
+		/**
+		 * @param entries the number of entries, the table gets at least twice as many slots
+		 */
+		Slots(int entries) {
+			slots = new int[Integer.highestOneBit(Math.max(2, entries * 2) - 1) << 1][];
+		}
+
+		int count() {
+			return slots.length;
+		}
+
+		/**
+		 * @param keyOffset the offset of the key, not 0
+		 * @param values the other ints of the slot
+		 */
+		void put(int hash, int keyOffset, int... values) {
+			int slot = hash & (slots.length - 1);
+			while(slots[slot] != null) {
+				slot = (slot + 1) & (slots.length - 1);
+			}
+			int[] contents = new int[values.length + 2];
+			contents[0] = hash;
+			contents[1] = keyOffset;
+			System.arraycopy(values, 0, contents, 2, values.length);
+			slots[slot] = contents;
+		}
+
+		void write(DataOutput out, int slotSize) throws IOException {
+			for(int[] slot : slots) {
+				if(slot == null) {
+					out.write(new byte[slotSize]);
+					continue;
+				}
+				for(int value : slot) {
+					out.writeInt(value);
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,166 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Finds the game classes a mod targets with its Mixins and access wideners.
+ * <p>
+ * Mixin configs ({@code *mixins*.json}) list the mixin classes of a mod, whose compiled
+ * classes name their targets in their {@code @Mixin} annotation. Mixins which were not
+ * compiled yet are skipped. Access wideners ({@code *.accesswidener}) name their targets
+ * directly.
+ * </p>
+ */
+public class MixinTargets {
+
+	private static final String MIXIN = "Lorg/spongepowered/asm/mixin/Mixin;";
+
+	/**
+	 * @param roots the resource and class output directories of the mod, directories that don't exist are ignored
+	 * @return the internal names of the targeted classes
+	 */
+	public static Set<String> scan(Collection<Path> roots) throws IOException {
+		List<Path> configs = new ArrayList<>();
+		List<Path> accessWideners = new ArrayList<>();
+		for(Path root : roots) {
+			if(!Files.isDirectory(root)) {
+				continue;
+			}
+			try(Stream<Path> files = Files.walk(root)) {
+				files.filter(Files::isRegularFile).forEach(file -> {
+					String name = file.getFileName().toString();
+					if(name.endsWith(".json") && name.contains("mixins")) {
+						configs.add(file);
+					}
+					else if(name.endsWith(".accesswidener")) {
+						accessWideners.add(file);
+					}
+				});
+			}
+		}
+
+		Set<String> targets = new TreeSet<>();
+		for(Path config : configs) {
+			for(String mixin : readMixins(config)) {
+				Path classFile = findClass(roots, mixin);
+				if(classFile != null) {
+					readTargets(classFile, targets);
+				}
+			}
+		}
+		for(Path accessWidener : accessWideners) {
+			readAccessWidener(accessWidener, targets);
+		}
+		return targets;
+	}
+
+	/**
+	 * @return the internal names of the mixin classes of a mixin config, or nothing if it isn't one
+	 */
+	static List<String> readMixins(Path config) throws IOException {
+		List<String> mixins = new ArrayList<>();
+		try(Reader reader = Files.newBufferedReader(config)) {
+			JsonElement json = JsonParser.parseReader(reader);
+			if(!json.isJsonObject() || !json.getAsJsonObject().has("package")) {
+				return mixins;
+			}
+			JsonObject object = json.getAsJsonObject();
+			String mixinPackage = object.get("package").getAsString();
+			for(String side : List.of("mixins", "client", "server")) {
+				if(object.has(side) && object.get(side).isJsonArray()) {
+					JsonArray classes = object.getAsJsonArray(side);
+					for(JsonElement mixin : classes) {
+						mixins.add((mixinPackage + "." + mixin.getAsString()).replace('.', '/'));
+					}
+				}
+			}
+		}
+		catch(JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+			//not a mixin config
+		}
+		return mixins;
+	}
+
+	private static Path findClass(Collection<Path> roots, String internalName) {
+		for(Path root : roots) {
+			Path classFile = root.resolve(internalName + ".class");
+			if(Files.isRegularFile(classFile)) {
+				return classFile;
+			}
+		}
+		return null;
+	}
+
+	static void readTargets(Path classFile, Set<String> targets) throws IOException {
+		try(InputStream i = Files.newInputStream(classFile)) {
+			new ClassReader(i).accept(new ClassVisitor(Opcodes.ASM9) {
+				@Override
+				public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+					if(!MIXIN.equals(descriptor)) {
+						return null;
+					}
+					return new AnnotationVisitor(Opcodes.ASM9) {
+						@Override
+						public AnnotationVisitor visitArray(String name) {
+							return new AnnotationVisitor(Opcodes.ASM9) {
+								@Override
+								public void visit(String ignored, Object value) {
+									if(value instanceof Type type) {
+										targets.add(type.getInternalName());
+									}
+									else if(value instanceof String target) {
+										targets.add(target.replace('.', '/'));
+									}
+								}
+							};
+						}
+					};
+				}
+			}, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		}
+	}
+
+	/**
+	 * Reads the classes named by an access widener, the owners of widened members included.
+	 */
+	static void readAccessWidener(Path accessWidener, Set<String> targets) throws IOException {
+		try(BufferedReader reader = Files.newBufferedReader(accessWidener)) {
+			String header = reader.readLine();
+			if(header == null || !header.startsWith("accessWidener")) {
+				return;
+			}
+			String line;
+			while((line = reader.readLine()) != null) {
+				int comment = line.indexOf('#');
+				String[] parts = (comment == -1 ? line : line.substring(0, comment)).trim().split("\\s+");
+				if(parts.length >= 3 && (parts[1].equals("class") || parts[1].equals("method") || parts[1].equals("field"))) {
+					targets.add(parts[2]);
+				}
+			}
+		}
+	}
+
+}
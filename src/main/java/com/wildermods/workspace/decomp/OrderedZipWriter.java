@@ -0,0 +1,203 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A minimal zip writer which accepts entries that were already compressed, so that
+ * compression can happen on other threads while entries are still appended in order.
+ * <p>
+ * Entries are written with their sizes and CRC in the local header and UTF-8 names. All
+ * entries use the same fixed timestamp so identical inputs produce identical archives.
+ * Archives with more than 65535 entries get zip64 end records; individual archives larger
+ * than 4 GiB are not supported.
+ * </p>
+ */
+class OrderedZipWriter implements AutoCloseable {
+
+	/**
+	 * 1980-02-01 00:00 in MS-DOS format, the earliest date every zip tool agrees on.
+	 */
+	private static final int DOS_TIME = 0;
+	private static final int DOS_DATE = (0 << 9) | (2 << 5) | 1;
+
+	private static final int UTF8_FLAG = 1 << 11;
+	private static final long MAX_32 = 0xFFFFFFFFL;
+	private static final int MAX_16 = 0xFFFF;
+
+	private final OutputStream out;
+	private final List<CentralEntry> entries = new ArrayList<>();
+	private long offset = 0;
+
+	OrderedZipWriter(Path file) throws IOException {
+		this.out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+	}
+
+	/**
+	 * Compresses an entry. Safe to call from any thread.
+	 *
+	 * @param deflate false to store the entry without compression
+	 */
+	static Entry compress(String name, byte[] content, boolean deflate) {
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		if(!deflate) {
+			return new Entry(name, false, crc.getValue(), content.length, content);
+		}
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(content);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, content.length / 3));
+			byte[] buffer = new byte[8192];
+			while(!deflater.finished()) {
+				int length = deflater.deflate(buffer);
+				compressed.write(buffer, 0, length);
+			}
+			return new Entry(name, true, crc.getValue(), content.length, compressed.toByteArray());
+		}
+		finally {
+			deflater.end();
+		}
+	}
+
+	static Entry directory(String name) {
+		return new Entry(name.endsWith("/") ? name : name + "/", false, 0, 0, new byte[0]);
+	}
+
+	/**
+	 * Appends an entry. Must only be called from one thread at a time.
+	 */
+	void write(Entry entry) throws IOException {
+		if(offset > MAX_32 || entry.data().length > MAX_32 || entry.size() > MAX_32) {
+			throw new IOException("Archive too large, zip64 entries are not supported: " + entry.name());
+		}
+		byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+		int method = entry.deflated() ? 8 : 0;
+		int version = entry.deflated() ? 20 : 10;
+
+		writeInt(0x04034b50);
+		writeShort(version);
+		writeShort(UTF8_FLAG);
+		writeShort(method);
+		writeShort(DOS_TIME);
+		writeShort(DOS_DATE);
+		writeInt((int) entry.crc());
+		writeInt(entry.data().length);
+		writeInt((int) entry.size());
+		writeShort(name.length);
+		writeShort(0);
+		out.write(name);
+		out.write(entry.data());
+
+		entries.add(new CentralEntry(name, version, method, entry.crc(), entry.data().length, entry.size(), offset));
+		offset += 30 + name.length + entry.data().length;
+	}
+
+	/**
+	 * @return the number of bytes written so far
+	 */
+	long getBytesWritten() {
+		return offset;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			long centralOffset = offset;
+			for(CentralEntry entry : entries) {
+				writeInt(0x02014b50);
+				writeShort(20);
+				writeShort(entry.version());
+				writeShort(UTF8_FLAG);
+				writeShort(entry.method());
+				writeShort(DOS_TIME);
+				writeShort(DOS_DATE);
+				writeInt((int) entry.crc());
+				writeInt((int) entry.compressedSize());
+				writeInt((int) entry.size());
+				writeShort(entry.name().length);
+				writeShort(0); //extra
+				writeShort(0); //comment
+				writeShort(0); //disk
+				writeShort(0); //internal attributes
+				writeInt(0); //external attributes
+				writeInt((int) entry.offset());
+				out.write(entry.name());
+				offset += 46 + entry.name().length;
+			}
+			long centralSize = offset - centralOffset;
+			if(centralOffset > MAX_32 || centralSize > MAX_32) {
+				throw new IOException("Archive too large, zip64 archives are not supported");
+			}
+
+			if(entries.size() >= MAX_16) {
+				long zip64Offset = offset;
+				writeInt(0x06064b50);
+				writeLong(44);
+				writeShort(45);
+				writeShort(45);
+				writeInt(0);
+				writeInt(0);
+				writeLong(entries.size());
+				writeLong(entries.size());
+				writeLong(centralSize);
+				writeLong(centralOffset);
+
+				writeInt(0x07064b50);
+				writeInt(0);
+				writeLong(zip64Offset);
+				writeInt(1);
+			}
+
+			int count = Math.min(entries.size(), MAX_16);
+			writeInt(0x06054b50);
+			writeShort(0);
+			writeShort(0);
+			writeShort(count);
+			writeShort(count);
+			writeInt((int) centralSize);
+			writeInt((int) centralOffset);
+			writeShort(0);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private void writeShort(int value) throws IOException {
+		out.write(value & 0xFF);
+		out.write((value >>> 8) & 0xFF);
+	}
+
+	private void writeInt(int value) throws IOException {
+		writeShort(value);
+		writeShort(value >>> 16);
+	}
+
+	private void writeLong(long value) throws IOException {
+		writeInt((int) value);
+		writeInt((int) (value >>> 32));
+	}
+
+	/**
+	 * @param name the entry name
+	 * @param deflated whether {@code data} is deflated or stored
+	 * @param crc the CRC-32 of the uncompressed content
+	 * @param size the uncompressed size
+	 * @param data the entry data as it is written to the archive
+	 */
+	static record Entry(String name, boolean deflated, long crc, long size, byte[] data) {}
+
+	private static record CentralEntry(byte[] name, int version, int method, long crc, long compressedSize, long size, long offset) {}
+
+}
@@ -0,0 +1,357 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.jetbrains.java.decompiler.main.extern.IResultSaver;
+
+/**
+ * Writes decompiled sources into source jars and their line mappings into linemap files.
+ * <p>
+ * Entries are compressed on a shared pool of threads and appended to the archive by one
+ * writer thread per archive in the order the decompiler saved them. The decompiler saves
+ * classes from its worker threads, so saving into an archive is serialized per archive. Completed entries wait
+ * for the writer in a bounded queue: once it is full, the decompiler blocks until the
+ * writer catches up, so finished sources never pile up in the heap. Entries can also be
+ * stored without compression, which is faster for source jars only ever read by an IDE.
+ * </p>
+ * <p>
+ * For each archive {@code <archive>} the sources are written to {@code outputDir/<archive>}
+ * and the line mappings to {@code linemapDir/<archive>.linemap}, one block per class: a
+ * {@code name maxLine maxLineDest} header, the tab indented {@code line destLine} pairs, and
+ * a blank line.
+ * </p>
+ */
+public class ParallelArchiveSaver implements IResultSaver {
+
+	private final Path outputDir;
+	private final Path linemapDir;
+	private final boolean compress;
+	private final int queueCapacity;
+	private final Consumer<String> reporter;
+	private final ExecutorService compressors;
+	private final Map<String, ArchiveWriter> archives = new ConcurrentHashMap<>();
+
+	/**
+	 * @param outputDir the directory source jars are written to
+	 * @param linemapDir the directory linemaps are written to, or null to not write them
+	 * @param threads the number of threads compressing entries
+	 * @param compress false to store entries without compression
+	 * @param queueCapacity the maximum number of compressed entries waiting to be written, per archive
+	 * @param reporter receives a summary of every archive when it is closed
+	 */
+	public ParallelArchiveSaver(Path outputDir, Path linemapDir, int threads, boolean compress, int queueCapacity, Consumer<String> reporter) {
+		this.outputDir = outputDir;
+		this.linemapDir = linemapDir;
+		this.compress = compress;
+		this.queueCapacity = Math.max(1, queueCapacity);
+		this.reporter = reporter;
+		this.compressors = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+			Thread thread = new Thread(r, "WilderWorkspace source compressor");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public void saveFolder(String path) {
+		try {
+			Files.createDirectories(outputDir.resolve(path));
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void copyFile(String source, String path, String entryName) {
+		//only sources are written
+	}
+
+	@Override
+	public void saveClassFile(String path, String qualifiedName, String entryName, String content, int[] mapping) {
+		if(content == null) {
+			return;
+		}
+		try {
+			Path file = outputDir.resolve(path).resolve(entryName);
+			Files.createDirectories(file.getParent());
+			Files.writeString(file, content);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void createArchive(String path, String archiveName, Manifest manifest) {
+		String key = key(path, archiveName);
+		try {
+			Files.createDirectories(outputDir);
+			Path linemap = null;
+			if(linemapDir != null) {
+				Files.createDirectories(linemapDir);
+				linemap = linemapDir.resolve(archiveName + ".linemap");
+			}
+			ArchiveWriter writer = new ArchiveWriter(key, outputDir.resolve(archiveName), linemap);
+			if(archives.putIfAbsent(key, writer) != null) {
+				writer.abort();
+				throw new IllegalStateException("Archive " + key + " is already open");
+			}
+			if(manifest != null) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				manifest.write(bytes);
+				writer.submit(JarFile.MANIFEST_NAME, bytes.toByteArray());
+			}
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException("Unable to create archive " + outputDir.resolve(archiveName), e);
+		}
+	}
+
+	@Override
+	public void saveDirEntry(String path, String archiveName, String entryName) {
+		archive(path, archiveName).submitDirectory(entryName);
+	}
+
+	@Override
+	public void copyEntry(String source, String path, String archiveName, String entry) {
+		//only sources are written
+	}
+
+	@Override
+	public void saveClassEntry(String path, String archiveName, String qualifiedName, String entryName, String content) {
+		saveClassEntry(path, archiveName, qualifiedName, entryName, content, null);
+	}
+
+	@Override
+	public void saveClassEntry(String path, String archiveName, String qualifiedName, String entryName, String content, int[] mapping) {
+		if(content == null) {
+			return;
+		}
+		archive(path, archiveName).save(qualifiedName, entryName, content.getBytes(StandardCharsets.UTF_8), mapping);
+	}
+
+	@Override
+	public void closeArchive(String path, String archiveName) {
+		ArchiveWriter writer = archives.remove(key(path, archiveName));
+		if(writer == null) {
+			return;
+		}
+		writer.finish();
+		reporter.accept(writer.summary());
+	}
+
+	@Override
+	public void close() {
+		for(String key : archives.keySet()) {
+			ArchiveWriter writer = archives.remove(key);
+			if(writer != null) {
+				writer.abort();
+			}
+		}
+		compressors.shutdown();
+	}
+
+	private ArchiveWriter archive(String path, String archiveName) {
+		ArchiveWriter writer = archives.get(key(path, archiveName));
+		if(writer == null) {
+			throw new IllegalStateException("Archive " + key(path, archiveName) + " is not open");
+		}
+		return writer;
+	}
+
+	private static String key(String path, String archiveName) {
+		return path + "/" + archiveName;
+	}
+
+	private class ArchiveWriter {
+
+		private final CompletableFuture<OrderedZipWriter.Entry> end = CompletableFuture.completedFuture(null);
+		private final String key;
+		private final OrderedZipWriter zip;
+		private final BufferedWriter linemap;
+		private final BlockingQueue<CompletableFuture<OrderedZipWriter.Entry>> queue = new ArrayBlockingQueue<>(queueCapacity);
+		private final Thread writerThread;
+		private final Set<String> names = ConcurrentHashMap.newKeySet();
+		private volatile Throwable failure;
+		private final AtomicInteger entries = new AtomicInteger();
+		private final AtomicInteger highWater = new AtomicInteger();
+		private final AtomicLong uncompressedBytes = new AtomicLong();
+
+		ArchiveWriter(String key, Path archive, Path linemap) throws IOException {
+			this.key = key;
+			this.zip = new OrderedZipWriter(archive);
+			this.linemap = linemap == null ? null : Files.newBufferedWriter(linemap);
+			this.writerThread = new Thread(this::drain, "WilderWorkspace archive writer " + archive.getFileName());
+			this.writerThread.setDaemon(true);
+			this.writerThread.start();
+		}
+
+		/**
+		 * Writes the line mapping of a class and queues its source, as one step, so the blocks
+		 * of the linemap and the entries of the archive are in the same order even though the
+		 * decompiler saves classes from several threads.
+		 */
+		synchronized void save(String qualifiedName, String entryName, byte[] content, int[] mapping) {
+			if(names.contains(entryName)) {
+				return;
+			}
+			writeMapping(qualifiedName, mapping);
+			submit(entryName, content);
+		}
+
+		synchronized void submit(String name, byte[] content) {
+			if(!names.add(name)) {
+				return;
+			}
+			uncompressedBytes.addAndGet(content.length);
+			enqueue(CompletableFuture.supplyAsync(() -> OrderedZipWriter.compress(name, content, compress), compressors));
+		}
+
+		synchronized void submitDirectory(String name) {
+			if(!names.add(name.endsWith("/") ? name : name + "/")) {
+				return; //the decompiler may report the same directory more than once
+			}
+			enqueue(CompletableFuture.completedFuture(OrderedZipWriter.directory(name)));
+		}
+
+		private void writeMapping(String qualifiedName, int[] mapping) {
+			if(mapping == null || linemap == null) {
+				return;
+			}
+			int maxLine = 0;
+			int maxLineDest = 0;
+			StringBuilder lines = new StringBuilder();
+			for(int i = 0; i < mapping.length; i += 2) {
+				maxLine = Math.max(maxLine, mapping[i]);
+				maxLineDest = Math.max(maxLineDest, mapping[i + 1]);
+				lines.append('\t').append(mapping[i]).append('\t').append(mapping[i + 1]).append('\n');
+			}
+			lines.insert(0, qualifiedName + "\t" + maxLine + "\t" + maxLineDest + "\n").append('\n');
+			try {
+				linemap.write(lines.toString());
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private void enqueue(CompletableFuture<OrderedZipWriter.Entry> entry) {
+			try {
+				// Poll so a failed writer, which no longer takes entries, can't block the decompiler forever
+				do {
+					checkFailure();
+				}
+				while(!queue.offer(entry, 100, TimeUnit.MILLISECONDS));
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while saving " + key, e);
+			}
+			entries.incrementAndGet();
+			highWater.accumulateAndGet(queue.size(), Math::max);
+		}
+
+		private void drain() {
+			try {
+				while(true) {
+					CompletableFuture<OrderedZipWriter.Entry> next = queue.take();
+					if(next == end) {
+						return;
+					}
+					zip.write(next.get());
+				}
+			}
+			catch(Throwable t) {
+				failure = t instanceof ExecutionException ? t.getCause() : t;
+			}
+		}
+
+		void finish() {
+			try {
+				while(failure == null && !queue.offer(end, 100, TimeUnit.MILLISECONDS)) {
+					//wait for the writer to make room or fail
+				}
+				writerThread.join();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while saving " + key, e);
+			}
+			finally {
+				closeQuietly();
+			}
+			checkFailure();
+		}
+
+		void abort() {
+			writerThread.interrupt();
+			try {
+				writerThread.join();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			closeQuietly();
+		}
+
+		private void closeQuietly() {
+			try {
+				zip.close();
+			}
+			catch(IOException e) {
+				if(failure == null) {
+					failure = e;
+				}
+			}
+			if(linemap != null) {
+				try {
+					linemap.close();
+				}
+				catch(IOException e) {
+					if(failure == null) {
+						failure = e;
+					}
+				}
+			}
+		}
+
+		private void checkFailure() {
+			Throwable t = failure;
+			if(t instanceof IOException) {
+				throw new UncheckedIOException("Unable to save " + key, (IOException) t);
+			}
+			if(t != null) {
+				throw new IllegalStateException("Unable to save " + key, t);
+			}
+		}
+
+		String summary() {
+			return String.format("Saved %s: %d entries, %d bytes of source, %d bytes written (%s), queue high-water %d/%d",
+				key, entries.get(), uncompressedBytes.get(), zip.getBytesWritten(), compress ? "deflated" : "stored", highWater.get(), queueCapacity);
+		}
+
+	}
+
+}
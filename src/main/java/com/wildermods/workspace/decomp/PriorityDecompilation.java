@@ -0,0 +1,152 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.file.PathUtils;
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Decompiles the classes a mod targets, see {@link MixinTargets}, before the rest of the game.
+ * <p>
+ * The targeted classes and their supertypes are decompiled on their own, which only takes
+ * seconds, into partial source jars at {@code decomp/priority/<jar>}. They can be browsed
+ * while the full decompilation runs, and are deleted once it has finished. Only jars which
+ * have not been decompiled before get a priority pass, otherwise the previous sources are
+ * available in the meantime anyway.
+ * </p>
+ */
+public class PriorityDecompilation {
+
+	private final WilderWorkspaceDecompiler decompiler;
+	private final Set<String> targets;
+	private final Consumer<String> reporter;
+
+	PriorityDecompilation(WilderWorkspaceDecompiler decompiler, Collection<String> targets, Consumer<String> reporter) {
+		this.decompiler = decompiler;
+		this.targets = new HashSet<>(targets);
+		this.reporter = reporter;
+	}
+
+	/**
+	 * @return the directory partial source jars are written to for a decompilation directory
+	 */
+	public static Path getOutputDir(Path decompDir) {
+		return decompDir.resolve("decomp").resolve("priority");
+	}
+
+	void run() throws IOException {
+		for(Path source : decompiler.getSources()) {
+			String archiveName = source.getFileName().toString();
+			if(Files.exists(decompiler.getDecompDest().resolve(archiveName))) {
+				continue;
+			}
+			Set<String> roots = resolveRoots(source);
+			if(roots.isEmpty()) {
+				continue;
+			}
+			Path outputDir = decompiler.getDecompDest().resolve("priority");
+			Files.createDirectories(outputDir);
+			Path work = Files.createTempDirectory(outputDir, "work");
+			try {
+				decompile(source, roots, work);
+				Path archive = work.resolve(archiveName);
+				if(Files.isRegularFile(archive)) {
+					Path published = outputDir.resolve(archiveName);
+					Files.move(archive, published, StandardCopyOption.REPLACE_EXISTING);
+					reporter.accept("Decompiled " + roots.size() + " targeted classes of " + archiveName + " first, their sources are available in " + published + " until the full decompilation finishes");
+				}
+			}
+			finally {
+				PathUtils.deleteDirectory(work);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the partial source jars, once the full source jars are written.
+	 */
+	void cleanup() throws IOException {
+		Path outputDir = decompiler.getDecompDest().resolve("priority");
+		if(Files.exists(outputDir)) {
+			PathUtils.deleteDirectory(outputDir);
+		}
+	}
+
+	/**
+	 * @return the top level classes of the jar which contain a target or a supertype of one
+	 */
+	Set<String> resolveRoots(Path source) throws IOException {
+		Set<String> roots = new TreeSet<>();
+		try(ZipFile zip = new ZipFile(source.toFile())) {
+			Deque<String> queue = new ArrayDeque<>(targets);
+			Set<String> seen = new HashSet<>();
+			while(!queue.isEmpty()) {
+				String name = queue.poll();
+				Header header = seen.add(name) ? readHeader(zip, name) : null;
+				if(header == null) {
+					continue;
+				}
+				roots.add(rootOf(name));
+				if(header.superName() != null) {
+					queue.add(header.superName());
+				}
+				for(String i : header.interfaces()) {
+					queue.add(i);
+				}
+			}
+		}
+		return roots;
+	}
+
+	private void decompile(Path source, Set<String> roots, Path work) throws IOException {
+		try(FilteredJarContextSource priority = new FilteredJarContextSource(source, name -> roots.contains(rootOf(name)));
+			FilteredJarContextSource rest = new FilteredJarContextSource(source, name -> !roots.contains(rootOf(name)))) {
+			decompiler.decompile(work, null, ff -> {
+				decompiler.addLibraries(ff);
+				for(Path other : decompiler.getSources()) {
+					if(!other.equals(source)) {
+						ff.addLibrary(other.toFile());
+					}
+				}
+				ff.addLibrary(rest);
+				ff.addSource(priority);
+			});
+		}
+	}
+
+	/**
+	 * Nested classes are written into the source file of their top level class, so they
+	 * are decompiled along with it.
+	 */
+	private static String rootOf(String name) {
+		int inner = name.indexOf('$');
+		return inner == -1 ? name : name.substring(0, inner);
+	}
+
+	private static Header readHeader(ZipFile zip, String name) throws IOException {
+		ZipEntry entry = zip.getEntry(name + ".class");
+		if(entry == null) {
+			return null;
+		}
+		try(InputStream i = zip.getInputStream(entry)) {
+			ClassReader reader = new ClassReader(i);
+			return new Header(reader.getSuperName(), reader.getInterfaces());
+		}
+	}
+
+	private static record Header(String superName, String[] interfaces) {}
+
+}
@@ -0,0 +1,165 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import org.apache.commons.io.file.PathUtils;
+
+/**
+ * Line remapped copies of the decompiled game jars.
+ * <p>
+ * Remapping used to rewrite the jars in {@code bin/} in place. Instead, remapped jars are
+ * now written to a shared cache keyed by the hash of the original jar and of its linemap,
+ * {@code <cacheDir>/<key>/<jar>}, and published to {@code decomp/remapped/<jar>} in the
+ * decompilation directory along with a stamp of the jar they were made from. The
+ * original jars are never modified.
+ * </p>
+ * <p>
+ * {@link #resolve(Path, Path)} returns the remapped jar only while its stamp still matches
+ * the original, so a game update never puts stale classes on the classpath. The stamp is a
+ * hash of the jar's content, so remapped jars restored from the build cache are still used,
+ * along with the jar's size and modification time. Resolving runs while the build is
+ * configured, so the jar is only hashed again when its size or modification time changed.
+ * </p>
+ */
+public class RemappedJars {
+
+	public static final Path DEFAULT_DIR = JarFingerprinter.DEFAULT_DIR.resolve("remapCache");
+
+	/**
+	 * Changes whenever remapping produces different output for the same inputs.
+	 */
+	private static final String REMAPPER_VERSION = "1";
+
+	private static final String STAMP_SUFFIX = ".source";
+
+	private final Path cacheDir;
+	private final JarFingerprinter fingerprinter;
+
+	public RemappedJars(Path cacheDir, JarFingerprinter fingerprinter) {
+		this.cacheDir = cacheDir;
+		this.fingerprinter = fingerprinter;
+	}
+
+	/**
+	 * @return the directory remapped jars are published to for a decompilation directory
+	 */
+	public static Path getOutputDir(Path decompDir) {
+		return decompDir.resolve("decomp").resolve("remapped");
+	}
+
+	/**
+	 * @return the remapped copy of {@code jar} if it is up to date, {@code jar} itself otherwise
+	 */
+	public static Path resolve(Path decompDir, Path jar) {
+		Path remapped = getOutputDir(decompDir).resolve(jar.getFileName().toString());
+		Path stamp = remapped.resolveSibling(remapped.getFileName() + STAMP_SUFFIX);
+		try {
+			if(Files.isRegularFile(remapped) && Files.isRegularFile(stamp)) {
+				String[] recorded = Files.readString(stamp).split("\n");
+				String attributes = attributes(jar);
+				if(recorded.length > 1 && recorded[1].equals(attributes)) {
+					return remapped;
+				}
+				JarFingerprinter fingerprinter = new JarFingerprinter(JarFingerprinter.DEFAULT_DIR);
+				String fingerprint = fingerprinter.fingerprintFile(jar);
+				if(recorded[0].equals(fingerprint)) {
+					Files.writeString(stamp, fingerprint + "\n" + attributes); //so the next build doesn't hash it again
+					return remapped;
+				}
+			}
+		}
+		catch(IOException e) {
+			//fall back to the original
+		}
+		return jar;
+	}
+
+	public String computeKey(Path jar, Path linemap) throws IOException {
+		MessageDigest digest = JarFingerprinter.sha256();
+		JarFingerprinter.update(digest, "remapper", REMAPPER_VERSION);
+		JarFingerprinter.update(digest, "jar", fingerprinter.fingerprintFile(jar));
+		JarFingerprinter.update(digest, "linemap", JarFingerprinter.hashFile(linemap));
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * @return the cached remapped jar, or null if it has not been remapped with this key
+	 */
+	public Path get(String key, Path jar) {
+		Path cached = cacheDir.resolve(key).resolve(jar.getFileName().toString());
+		return Files.isRegularFile(cached) ? cached : null;
+	}
+
+	/**
+	 * Remaps {@code jar} into the cache.
+	 *
+	 * @return the cached remapped jar
+	 */
+	public Path store(String key, Path jar, LineNumberJarRemapper remapper) throws IOException {
+		Path entry = cacheDir.resolve(key);
+		Path cached = entry.resolve(jar.getFileName().toString());
+		if(Files.isRegularFile(cached)) {
+			return cached;
+		}
+		Files.createDirectories(cacheDir);
+		Path temp = Files.createTempDirectory(cacheDir, key + ".tmp");
+		try {
+			remapper.remap(jar, temp.resolve(jar.getFileName().toString()));
+			try {
+				Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, entry);
+			}
+		}
+		catch(FileAlreadyExistsException e) {
+			//another build remapped the same jar first
+		}
+		finally {
+			if(Files.exists(temp)) {
+				PathUtils.deleteDirectory(temp);
+			}
+		}
+		return cached;
+	}
+
+	/**
+	 * Publishes a cached remapped jar to the decompilation directory, linking it where the
+	 * file system allows it.
+	 *
+	 * @return the published jar
+	 */
+	public Path publish(Path cached, Path decompDir, Path jar) throws IOException {
+		Path outputDir = getOutputDir(decompDir);
+		Files.createDirectories(outputDir);
+		Path remapped = outputDir.resolve(jar.getFileName().toString());
+		Path stamp = remapped.resolveSibling(remapped.getFileName() + STAMP_SUFFIX);
+		Files.deleteIfExists(stamp);
+		Files.deleteIfExists(remapped);
+		try {
+			Files.createLink(remapped, cached);
+		}
+		catch(IOException | UnsupportedOperationException e) {
+			Path temp = Files.createTempFile(outputDir, remapped.getFileName().toString(), ".tmp");
+			Files.copy(cached, temp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temp, remapped, StandardCopyOption.REPLACE_EXISTING);
+		}
+		Files.writeString(stamp, fingerprinter.fingerprintFile(jar) + "\n" + attributes(jar));
+		return remapped;
+	}
+
+	/**
+	 * @return the size and modification time of a jar, which change whenever it is replaced
+	 */
+	private static String attributes(Path jar) throws IOException {
+		return Files.size(jar) + " " + Files.getLastModifiedTime(jar).toMillis();
+	}
+
+}
@@ -0,0 +1,215 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.file.PathUtils;
+
+/**
+ * Decompiles source jars a few packages at a time, so the peak heap stays bounded no
+ * matter how large the jars are.
+ * <p>
+ * The decompiler keeps every class it decompiles in memory until the whole context is
+ * done. In low memory mode each source jar is split into shards of whole packages, sized so
+ * that a shard fits into the heap budget with {@link DecompilationScheduler#HEAP_PER_BYTECODE_BYTE}
+ * to spare per byte of bytecode. Every shard is decompiled in its own context, with the
+ * rest of the jar, the other source jars and the libraries supplied as libraries, whose
+ * classes the decompiler only reads when they are referenced. A shard's sources and line
+ * mappings are appended to the final source jar and linemap before the next shard starts.
+ * </p>
+ * <p>
+ * Jars are decompiled one after the other, so this is slower than
+ * {@link WilderWorkspaceDecompiler#decompile()}, but its output is the same.
+ * </p>
+ */
+class ShardedDecompilation {
+
+	/**
+	 * Share of the heap budget left for library classes and the decompiler itself.
+	 */
+	private static final double LIBRARY_HEAP_FRACTION = 0.5;
+
+	private static final long MIN_SHARD_SIZE = 256 * 1024;
+
+	private final WilderWorkspaceDecompiler decompiler;
+	private final int threads;
+	private final long maxShardSize;
+	private final Consumer<String> reporter;
+
+	/**
+	 * @param threads the number of decompiler threads, reduced if the heap budget can't hold them
+	 * @param heapBudget the heap in bytes the decompilation may use
+	 */
+	ShardedDecompilation(WilderWorkspaceDecompiler decompiler, int threads, long heapBudget, Consumer<String> reporter) {
+		this.decompiler = decompiler;
+		this.threads = (int) Math.max(1, Math.min(threads, heapBudget / 4 / DecompilationScheduler.HEAP_PER_THREAD));
+		long shardHeap = (long) ((heapBudget - this.threads * DecompilationScheduler.HEAP_PER_THREAD) * (1 - LIBRARY_HEAP_FRACTION));
+		this.maxShardSize = Math.max(MIN_SHARD_SIZE, shardHeap / DecompilationScheduler.HEAP_PER_BYTECODE_BYTE);
+		this.reporter = reporter;
+	}
+
+	void run() throws IOException {
+		Path workDir = decompiler.getDecompDest().resolve("shards");
+		try {
+			for(Path source : decompiler.getSources()) {
+				decompile(source, workDir);
+			}
+		}
+		finally {
+			if(Files.exists(workDir)) {
+				PathUtils.deleteDirectory(workDir);
+			}
+		}
+	}
+
+	/**
+	 * Splits a jar into shards of whole packages no larger than the shard size, unless a
+	 * single package is larger by itself.
+	 *
+	 * @return the package names of each shard, in order
+	 */
+	List<Set<String>> plan(Path source) throws IOException {
+		Map<String, Long> packageSizes = new TreeMap<>();
+		try(ZipFile zip = new ZipFile(source.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while(entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if(!entry.isDirectory() && entry.getName().endsWith(".class")) {
+					packageSizes.merge(packageOf(entry.getName()), Math.max(entry.getSize(), entry.getCompressedSize()), Long::sum);
+				}
+			}
+		}
+		List<Set<String>> shards = new ArrayList<>();
+		Set<String> shard = new HashSet<>();
+		long shardSize = 0;
+		for(Map.Entry<String, Long> entry : packageSizes.entrySet()) {
+			if(!shard.isEmpty() && shardSize + entry.getValue() > maxShardSize) {
+				shards.add(shard);
+				shard = new HashSet<>();
+				shardSize = 0;
+			}
+			shard.add(entry.getKey());
+			shardSize += entry.getValue();
+		}
+		if(!shard.isEmpty()) {
+			shards.add(shard);
+		}
+		return shards;
+	}
+
+	private void decompile(Path source, Path workDir) throws IOException {
+		String archiveName = source.getFileName().toString();
+		List<Set<String>> shards = plan(source);
+		reporter.accept("Decompiling " + archiveName + " in " + shards.size() + " shards of at most " + maxShardSize / 1024 + " KiB of bytecode with " + threads + " threads");
+
+		Path archive = decompiler.getDecompDest().resolve(archiveName);
+		Path linemap = decompiler.getLinemapDest().resolve(archiveName + ".linemap");
+		Files.createDirectories(decompiler.getLinemapDest());
+		Path tempArchive = Files.createTempFile(decompiler.getDecompDest(), archiveName, ".tmp");
+		Path tempLinemap = Files.createTempFile(decompiler.getLinemapDest(), archiveName, ".tmp");
+		try {
+			try(OrderedZipWriter out = new OrderedZipWriter(tempArchive); BufferedWriter linemapOut = Files.newBufferedWriter(tempLinemap)) {
+				Set<String> written = new HashSet<>();
+				writeManifest(source, out, written);
+				for(int i = 0; i < shards.size(); i++) {
+					Set<String> packages = shards.get(i);
+					Path shardDest = workDir.resolve(String.valueOf(i));
+					Path shardLinemapDest = shardDest.resolve("linemaps");
+					decompileShard(source, packages, shardDest, shardLinemapDest);
+					append(shardDest.resolve(archiveName), out, written);
+					Path shardLinemap = shardLinemapDest.resolve(archiveName + ".linemap");
+					if(Files.isRegularFile(shardLinemap)) {
+						for(String line : Files.readAllLines(shardLinemap)) {
+							linemapOut.write(line);
+							linemapOut.newLine();
+						}
+					}
+					PathUtils.deleteDirectory(shardDest);
+					reporter.accept("Finished shard " + (i + 1) + "/" + shards.size() + " of " + archiveName + " (" + packages.size() + " packages)");
+				}
+			}
+			Files.move(tempArchive, archive, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(tempLinemap, linemap, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(tempArchive);
+			Files.deleteIfExists(tempLinemap);
+		}
+	}
+
+	private void decompileShard(Path source, Set<String> packages, Path shardDest, Path shardLinemapDest) throws IOException {
+		try(FilteredJarContextSource shard = new FilteredJarContextSource(source, name -> packages.contains(packageOf(name)));
+			FilteredJarContextSource rest = new FilteredJarContextSource(source, name -> !packages.contains(packageOf(name)))) {
+			decompiler.decompile(shardDest, shardLinemapDest, threads, ff -> {
+				decompiler.addLibraries(ff);
+				for(Path other : decompiler.getSources()) {
+					if(!other.equals(source)) {
+						ff.addLibrary(other.toFile());
+					}
+				}
+				ff.addLibrary(rest);
+				ff.addSource(shard);
+			});
+		}
+	}
+
+	/**
+	 * Shards are decompiled from filtered sources which don't carry the manifest of the jar,
+	 * so it is copied from the jar like a full decompilation would.
+	 */
+	private void writeManifest(Path source, OrderedZipWriter out, Set<String> written) throws IOException {
+		try(JarFile jar = new JarFile(source.toFile())) {
+			Manifest manifest = jar.getManifest();
+			if(manifest != null) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				manifest.write(bytes);
+				out.write(OrderedZipWriter.compress(JarFile.MANIFEST_NAME, bytes.toByteArray(), decompiler.isCompressSources()));
+				written.add(JarFile.MANIFEST_NAME);
+			}
+		}
+	}
+
+	private void append(Path shardArchive, OrderedZipWriter out, Set<String> written) throws IOException {
+		if(!Files.isRegularFile(shardArchive)) {
+			return;
+		}
+		try(ZipFile zip = new ZipFile(shardArchive.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while(entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if(!written.add(entry.getName())) {
+					continue; //directories shared by several shards
+				}
+				if(entry.isDirectory()) {
+					out.write(OrderedZipWriter.directory(entry.getName()));
+					continue;
+				}
+				try(InputStream i = zip.getInputStream(entry)) {
+					out.write(OrderedZipWriter.compress(entry.getName(), i.readAllBytes(), decompiler.isCompressSources()));
+				}
+			}
+		}
+	}
+
+	private static String packageOf(String name) {
+		return name.substring(0, Math.max(0, name.lastIndexOf('/')));
+	}
+
+}
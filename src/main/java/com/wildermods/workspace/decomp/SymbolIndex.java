@@ -0,0 +1,537 @@
+package com.wildermods.workspace.decomp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * An index of where the classes, methods and fields of a decompiled jar are defined, and
+ * of every place they are used from, in terms of the decompiled sources.
+ * <p>
+ * The index is built from the bytecode of the jar, with the line numbers mapped through its
+ * {@link LineMap}, so building it needs neither the sources nor the remapped jar. It is a
+ * text file sorted by symbol, written to {@code decomp/symbols/<jar>.symbols}. Every symbol
+ * is a header line, {@code c owner}, {@code m owner name descriptor} or
+ * {@code f owner name descriptor}, followed by its definition, {@code = file line}, if it
+ * is defined in the jar, and its usages, {@code @ file line caller}. All fields are tab
+ * separated. Method lines are those of the first statement of the method, classes and
+ * fields have no line, written as 0. Symbols of other jars and libraries are included
+ * when they are used from this jar, so usages of library methods can be found too.
+ * </p>
+ * <p>
+ * Next to the index, {@code <jar>.symbols.offsets} maps the simple name of every class to the
+ * byte offset of the first header of each kind of its symbols, {@code simple kind owner offset}.
+ * As the headers are sorted, the symbols of a class of each kind are contiguous, so a query
+ * naming a class only reads the offsets and the lines of that class. Queries of a member of
+ * every class stream the whole index and only compare header lines, so a query never holds
+ * more than its results in memory.
+ * </p>
+ */
+public class SymbolIndex {
+
+	/**
+	 * Changes whenever the format or contents of the index change, so old indexes are rebuilt.
+	 */
+	private static final String HEADER = "# symbols 2\t";
+	private static final String SUFFIX = ".symbols";
+	private static final String OFFSETS_SUFFIX = ".offsets";
+
+	private static final char CLASS = 'c';
+	private static final char METHOD = 'm';
+	private static final char FIELD = 'f';
+	private static final char DEFINITION = '=';
+	private static final char USAGE = '@';
+
+	/**
+	 * @return the directory symbol indexes are written to for a decompilation directory
+	 */
+	public static Path getOutputDir(Path decompDir) {
+		return decompDir.resolve("decomp").resolve("symbols");
+	}
+
+	/**
+	 * @return the index file of a source jar
+	 */
+	public static Path getIndexFile(Path outputDir, Path jar) {
+		return outputDir.resolve(jar.getFileName() + SUFFIX);
+	}
+
+	private static Path getOffsetsFile(Path indexFile) {
+		return indexFile.resolveSibling(indexFile.getFileName() + OFFSETS_SUFFIX);
+	}
+
+	/**
+	 * @param key identifies the jar and linemap the index was built from
+	 * @return true if the index and its offsets exist and were built with the same key
+	 */
+	public static boolean isUpToDate(Path indexFile, String key) {
+		return hasHeader(indexFile, key) && hasHeader(getOffsetsFile(indexFile), key);
+	}
+
+	private static boolean hasHeader(Path file, String key) {
+		if(!Files.isRegularFile(file)) {
+			return false;
+		}
+		try(BufferedReader reader = Files.newBufferedReader(file)) {
+			return (HEADER + key).equals(reader.readLine());
+		}
+		catch(IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Builds the index of a decompiled jar.
+	 *
+	 * @param jar the jar the sources were decompiled from, not the remapped jar
+	 * @param linemap the line mappings of the decompiled sources
+	 * @param key identifies the jar and linemap, see {@link #isUpToDate(Path, String)}
+	 * @param indexFile the file to write the index to
+	 */
+	public static void write(Path jar, LineMap linemap, String key, Path indexFile) throws IOException {
+		Map<String, ClassSymbols> classes = new HashMap<>();
+		try(JarFile jarFile = new JarFile(jar.toFile())) {
+			for(JarEntry entry : (Iterable<JarEntry>)jarFile.stream()::iterator) {
+				String name = entry.getName();
+				if(entry.isDirectory() || !name.endsWith(".class") || name.startsWith("META-INF/")) {
+					continue;
+				}
+				try(InputStream i = jarFile.getInputStream(entry)) {
+					ClassSymbols symbols = scan(new ClassReader(i.readAllBytes()));
+					classes.put(symbols.name, symbols);
+				}
+			}
+		}
+
+		Map<String, Symbol> symbols = new TreeMap<>();
+		for(ClassSymbols owner : classes.values()) {
+			String root = owner.name;
+			Set<String> seen = new HashSet<>();
+			while(classes.containsKey(root) && classes.get(root).outer != null && classes.containsKey(classes.get(root).outer) && seen.add(root)) {
+				root = classes.get(root).outer;
+			}
+			String file = root + ".java";
+			LineMap.ClassLines lines = linemap.get(root);
+
+			symbols.computeIfAbsent(CLASS + "\t" + owner.name, k -> new Symbol()).definition = file + "\t0";
+			for(Reference definition : owner.definitions) {
+				symbols.computeIfAbsent(definition.symbol(), k -> new Symbol()).definition = file + "\t" + map(lines, definition.line());
+			}
+			for(Reference usage : owner.usages) {
+				symbols.computeIfAbsent(usage.symbol(), k -> new Symbol()).usages.add(new Site(file, map(lines, usage.line()), usage.caller()));
+			}
+		}
+
+		Files.createDirectories(indexFile.getParent());
+		Map<String, Long> offsets = new LinkedHashMap<>();
+		Path temp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+		try {
+			try(BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				long position = write(writer, HEADER + key + "\n");
+				for(Map.Entry<String, Symbol> symbol : symbols.entrySet()) {
+					offsets.putIfAbsent(ownerKey(symbol.getKey()), position);
+					position += write(writer, symbol.getKey() + "\n");
+					if(symbol.getValue().definition != null) {
+						position += write(writer, DEFINITION + "\t" + symbol.getValue().definition + "\n");
+					}
+					for(Site usage : symbol.getValue().usages) {
+						position += write(writer, USAGE + "\t" + usage.file() + "\t" + usage.line() + "\t" + usage.caller() + "\n");
+					}
+				}
+			}
+			Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+
+		Path offsetsFile = getOffsetsFile(indexFile);
+		temp = Files.createTempFile(indexFile.getParent(), offsetsFile.getFileName().toString(), ".tmp");
+		try {
+			try(BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				writer.write(HEADER + key + "\n");
+				for(Map.Entry<String, Long> offset : offsets.entrySet()) {
+					String owner = offset.getKey().substring(2);
+					writer.write(simpleName(owner) + "\t" + offset.getKey() + "\t" + offset.getValue() + "\n");
+				}
+			}
+			Files.move(temp, offsetsFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * @return the number of bytes written
+	 */
+	private static int write(BufferedWriter writer, String line) throws IOException {
+		writer.write(line);
+		return line.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	/**
+	 * @return the kind and owner of a header line, {@code kind owner}
+	 */
+	private static String ownerKey(String header) {
+		int end = header.indexOf('\t', 2);
+		return end == -1 ? header : header.substring(0, end);
+	}
+
+	/**
+	 * @return the last part of a binary class name, such as {@code Baz} for {@code com/example/Foo$Bar/Baz}
+	 */
+	private static String simpleName(String owner) {
+		return owner.substring(Math.max(owner.lastIndexOf('/'), owner.lastIndexOf('$')) + 1);
+	}
+
+	private static int map(LineMap.ClassLines lines, int line) {
+		if(line <= 0 || lines == null) {
+			return 0;
+		}
+		return lines.map(line);
+	}
+
+	private static ClassSymbols scan(ClassReader reader) {
+		ClassSymbols symbols = new ClassSymbols(reader.getClassName());
+		reader.accept(new ClassVisitor(Opcodes.ASM9) {
+
+			@Override
+			public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+				if(superName != null) {
+					symbols.useClass(superName, 0, name);
+				}
+				if(interfaces != null) {
+					for(String i : interfaces) {
+						symbols.useClass(i, 0, name);
+					}
+				}
+			}
+
+			@Override
+			public void visitInnerClass(String name, String outerName, String innerName, int access) {
+				if(name.equals(symbols.name) && outerName != null) {
+					symbols.outer = outerName;
+				}
+			}
+
+			@Override
+			public void visitOuterClass(String owner, String name, String descriptor) {
+				if(symbols.outer == null) {
+					symbols.outer = owner;
+				}
+			}
+
+			@Override
+			public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+				symbols.definitions.add(new Reference(member(FIELD, symbols.name, name, descriptor), 0, null));
+				return null;
+			}
+
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				String caller = symbols.name + "#" + name + descriptor;
+				String method = member(METHOD, symbols.name, name, descriptor);
+				return new MethodVisitor(Opcodes.ASM9) {
+
+					private int line = 0;
+					private int firstLine = 0;
+
+					@Override
+					public void visitLineNumber(int line, Label start) {
+						this.line = line;
+						if(firstLine == 0 || line < firstLine) {
+							firstLine = line;
+						}
+					}
+
+					@Override
+					public void visitTypeInsn(int opcode, String type) {
+						symbols.useClass(type, line, caller);
+					}
+
+					@Override
+					public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+						symbols.usages.add(new Reference(member(FIELD, owner, name, descriptor), line, caller));
+					}
+
+					@Override
+					public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+						if(owner.startsWith("[")) {
+							return; //clone() of an array
+						}
+						symbols.usages.add(new Reference(member(METHOD, owner, name, descriptor), line, caller));
+					}
+
+					@Override
+					public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+						for(Object argument : bootstrapMethodArguments) {
+							if(argument instanceof Handle handle) {
+								char kind = handle.getTag() <= Opcodes.H_PUTSTATIC ? FIELD : METHOD;
+								symbols.usages.add(new Reference(member(kind, handle.getOwner(), handle.getName(), handle.getDesc()), line, caller));
+							}
+						}
+					}
+
+					@Override
+					public void visitLdcInsn(Object value) {
+						if(value instanceof Type type && (type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY)) {
+							symbols.useClass(type.getInternalName(), line, caller);
+						}
+					}
+
+					@Override
+					public void visitEnd() {
+						symbols.definitions.add(new Reference(method, firstLine, null));
+					}
+
+				};
+			}
+
+		}, ClassReader.SKIP_FRAMES);
+		return symbols;
+	}
+
+	private static String member(char kind, String owner, String name, String descriptor) {
+		return kind + "\t" + owner + "\t" + name + "\t" + descriptor;
+	}
+
+	/**
+	 * Finds the definitions, and optionally the usages, of the symbols matching a query.
+	 * <p>
+	 * A query is a class, {@code Foo} or {@code com.example.Foo}, optionally followed by a
+	 * member, {@code Foo#bar}. The member may include its descriptor, {@code Foo#bar(I)V},
+	 * and the class may be left out to match members of every class, {@code #bar}. Classes
+	 * match by their fully qualified name or any trailing part of it, nested classes may be
+	 * separated with {@code $} or a dot.
+	 * </p>
+	 *
+	 * @param indexFile the index to search
+	 * @param query the symbols to find
+	 * @param usages true to also find the usages of the symbols
+	 */
+	public static List<Match> search(Path indexFile, String query, boolean usages) throws IOException {
+		Query parsed = Query.parse(query);
+		List<Match> matches = new ArrayList<>();
+		Path offsetsFile = getOffsetsFile(indexFile);
+		if(parsed.owner() == null || !Files.isRegularFile(offsetsFile)) {
+			try(BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+				checkHeader(reader, indexFile);
+				collect(reader, null, parsed, usages, matches, indexFile);
+			}
+			return matches;
+		}
+
+		List<Long> offsets = new ArrayList<>();
+		List<String> owners = new ArrayList<>();
+		try(BufferedReader reader = Files.newBufferedReader(offsetsFile, StandardCharsets.UTF_8)) {
+			checkHeader(reader, offsetsFile);
+			String simpleName = simpleName(parsed.owner());
+			String line;
+			while((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if(tab != simpleName.length() || !line.startsWith(simpleName)) {
+					continue;
+				}
+				int last = line.lastIndexOf('\t');
+				String ownerKey = line.substring(tab + 1, last);
+				if(parsed.matchesOwner(ownerKey)) {
+					owners.add(ownerKey);
+					offsets.add(Long.parseLong(line.substring(last + 1)));
+				}
+			}
+		}
+		try(FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+			for(int i = 0; i < offsets.size(); i++) {
+				channel.position(offsets.get(i));
+				//a new reader for every offset, as a reader buffers past the lines it returns
+				BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+				collect(reader, owners.get(i), parsed, usages, matches, indexFile);
+			}
+		}
+		return matches;
+	}
+
+	private static void checkHeader(BufferedReader reader, Path file) throws IOException {
+		String header = reader.readLine();
+		if(header == null || !header.startsWith(HEADER)) {
+			throw new IOException("Malformed symbol index " + file);
+		}
+	}
+
+	/**
+	 * Reads the symbols of an index and adds the entries of the symbols matching the query.
+	 *
+	 * @param ownerKey the kind and owner to stop after, {@code kind owner}, or null to read to the end
+	 */
+	private static void collect(BufferedReader reader, String ownerKey, Query query, boolean usages, List<Match> matches, Path indexFile) throws IOException {
+		String symbol = null;
+		String line;
+		while((line = reader.readLine()) != null) {
+			if(line.isEmpty()) {
+				continue;
+			}
+			char kind = line.charAt(0);
+			if(kind != DEFINITION && kind != USAGE) {
+				if(ownerKey != null && !ownerKey(line).equals(ownerKey)) {
+					return;
+				}
+				symbol = query.matches(line) ? line : null;
+				continue;
+			}
+			if(symbol == null || (kind == USAGE && !usages)) {
+				continue;
+			}
+			String[] parts = line.split("\t");
+			if(parts.length < 3) {
+				throw new IOException("Malformed symbol index entry in " + indexFile + ": " + line);
+			}
+			matches.add(new Match(describe(symbol), kind == DEFINITION, parts[1], Integer.parseInt(parts[2]), parts.length > 3 ? describeCaller(parts[3]) : null));
+		}
+	}
+
+	/**
+	 * @return the symbol of a header line in the form of a query, such as {@code com.example.Foo#bar(I)V}
+	 */
+	private static String describe(String header) {
+		String[] parts = header.split("\t");
+		String owner = parts[1].replace('/', '.');
+		if(parts[0].charAt(0) == CLASS) {
+			return owner;
+		}
+		return owner + "#" + parts[2] + (parts[0].charAt(0) == METHOD ? parts[3] : "");
+	}
+
+	/**
+	 * @return the caller of a usage with a binary class name, such as {@code com.example.Foo#bar(Lcom/example/Baz;)V}
+	 */
+	private static String describeCaller(String caller) {
+		int hash = caller.indexOf('#');
+		return hash == -1 ? caller.replace('/', '.') : caller.substring(0, hash).replace('/', '.') + caller.substring(hash);
+	}
+
+	/**
+	 * @param symbol the matched symbol, such as {@code com.example.Foo#bar(I)V}
+	 * @param definition true if this is the definition of the symbol, false if it is a usage
+	 * @param file the decompiled source file, relative to the root of the source jar
+	 * @param line the line in the decompiled source file, or 0 if it is not known
+	 * @param caller the method the usage is in, null for definitions
+	 */
+	public static record Match(String symbol, boolean definition, String file, int line, String caller) {}
+
+	private static record Query(String owner, String member, String descriptor) {
+
+		static Query parse(String query) {
+			String owner = query;
+			String member = null;
+			String descriptor = null;
+			int hash = query.indexOf('#');
+			if(hash != -1) {
+				owner = query.substring(0, hash);
+				member = query.substring(hash + 1);
+				int paren = member.indexOf('(');
+				if(paren != -1) {
+					descriptor = member.substring(paren);
+					member = member.substring(0, paren);
+				}
+			}
+			owner = owner.replace('.', '/').replace('$', '/');
+			return new Query(owner.isEmpty() ? null : owner, member, descriptor);
+		}
+
+		/**
+		 * @param ownerKey the kind and owner of a header line, {@code kind owner}
+		 * @return whether headers of this kind and owner can match the query
+		 */
+		boolean matchesOwner(String ownerKey) {
+			if((ownerKey.charAt(0) == CLASS) != (member == null)) {
+				return false;
+			}
+			String candidate = ownerKey.substring(2).replace('$', '/');
+			return owner == null || candidate.equals(owner) || candidate.endsWith("/" + owner);
+		}
+
+		boolean matches(String header) {
+			String[] parts = header.split("\t");
+			if(!matchesOwner(parts[0] + "\t" + parts[1])) {
+				return false;
+			}
+			boolean isClass = parts[0].charAt(0) == CLASS;
+			if(isClass) {
+				return true;
+			}
+			return parts[2].equals(member) && (descriptor == null || parts[3].startsWith(descriptor));
+		}
+
+	}
+
+	private static class Symbol {
+
+		private String definition;
+		private final Set<Site> usages = new TreeSet<>(Comparator.comparing(Site::file).thenComparingInt(Site::line).thenComparing(Site::caller));
+
+	}
+
+	private static record Site(String file, int line, String caller) {}
+
+	/**
+	 * @param symbol the header line of the symbol
+	 * @param line the line in the original class file, or 0
+	 * @param caller the method the usage is in, or null for definitions
+	 */
+	private static record Reference(String symbol, int line, String caller) {}
+
+	private static class ClassSymbols {
+
+		private final String name;
+		private String outer;
+		private final List<Reference> definitions = new ArrayList<>();
+		private final List<Reference> usages = new ArrayList<>();
+
+		ClassSymbols(String name) {
+			this.name = name;
+		}
+
+		void useClass(String type, int line, String caller) {
+			if(type.startsWith("[")) {
+				Type element = Type.getType(type).getElementType();
+				if(element.getSort() != Type.OBJECT) {
+					return;
+				}
+				type = element.getInternalName();
+			}
+			usages.add(new Reference(CLASS + "\t" + type, line, caller));
+		}
+
+	}
+
+}
@@ -1,58 +1,249 @@
 package com.wildermods.workspace.decomp;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.jar.JarFile;
 
 import org.jetbrains.java.decompiler.main.Fernflower;
+import org.jetbrains.java.decompiler.main.extern.IContextSource;
 import org.jetbrains.java.decompiler.main.extern.IFernflowerLogger;
 import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
-import org.jetbrains.java.decompiler.main.extern.IResultSaver;
 
+import net.fabricmc.fernflower.api.IFabricJavadocProvider;
 import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
 
 public class WilderWorkspaceDecompiler {
 
-	private final Fernflower ff;
+	/**
+	 * Number of decompiled sources per decompiler thread that may wait to be written before the decompiler blocks.
+	 */
+	private static final int SAVE_QUEUE_PER_THREAD = 8;
+
+	private final DecompilationMetadata metaData;
+	private final Map<String, Object> options;
+	private final List<Path> sources;
+	private final Path decompDest;
+	private final Path linemapDest;
+	private final int maxConcurrentJobs;
+	private final long maxHeap;
+	private final boolean compressSources;
+	private final boolean lowMemory;
+	private final DecompilationTelemetry telemetry;
+	private final LibraryClassCache libraryCache;
+	private IContextSource cachedLibraries;
 
 	WilderWorkspaceDecompiler(DecompilerBuilder builder) {
-		DecompilationMetadata metaData = builder.getMetaData();
-		Path decompDest = builder.getDecompDest();
-		Path linemapDest = builder.getLinemapDest();
+		this.metaData = builder.getMetaData();
+		this.options = createOptions(metaData);
+		this.sources = List.copyOf(builder.getSources());
+		this.decompDest = builder.getDecompDest();
+		this.linemapDest = builder.getLinemapDest();
+		this.maxConcurrentJobs = builder.getMaxConcurrentJobs();
+		this.maxHeap = builder.getMaxHeap();
+		this.compressSources = builder.isCompressSources();
+		this.lowMemory = builder.isLowMemory();
+		this.telemetry = builder.getTelemetry();
+		this.libraryCache = builder.getLibraryCache();
+	}
 
+	public static Map<String, Object> createOptions(DecompilationMetadata metaData) {
 		final Map<String, Object> options = new HashMap<>(Map.of(
 			IFernflowerPreferences.DECOMPILE_GENERIC_SIGNATURES, "1",
 			IFernflowerPreferences.BYTECODE_SOURCE_MAPPING, "1",
 			IFernflowerPreferences.DUMP_CODE_LINES, "1",
 			IFernflowerPreferences.REMOVE_SYNTHETIC, "1",
-			IFernflowerPreferences.LOG_LEVEL, "trace",
+			IFernflowerPreferences.LOG_LEVEL, metaData.logger() instanceof AsyncDecompilerLogger async ? async.getEffectiveLevel().name() : "info",
 			IFernflowerPreferences.THREADS, String.valueOf(metaData.numberOfThreads()),
 			IFernflowerPreferences.INDENT_STRING, "\t"
 		));
+		if (metaData.javaDocs() != null) {
+			options.put(IFabricJavadocProvider.PROPERTY_NAME, new WilderWorkspaceJavadocProvider(metaData.javaDocs().toFile(), "named"));
+		}
 		options.putAll(metaData.options());
+		return options;
+	}
 
-		IResultSaver saver = new WWThreadSafeResultSaver(
-				() -> decompDest,
-				() -> linemapDest
-		);
-		ff = new Fernflower(saver, options, (IFernflowerLogger) metaData.logger());
+	public Map<String, Object> getOptions() {
+		return options;
+	}
 
-		// Add libraries
-		for (Path library : metaData.libraries()) {
-			ff.addLibrary(library.toFile());
+	public Collection<Path> getSources() {
+		return sources;
+	}
+
+	public Collection<Path> getLibraries() {
+		return metaData.libraries();
+	}
+
+	public Path getDecompDest() {
+		return decompDest;
+	}
+
+	public Path getLinemapDest() {
+		return linemapDest;
+	}
+
+	public boolean isCompressSources() {
+		return compressSources;
+	}
+
+	/**
+	 * @return the jar Vineflower was loaded from, or null if it was not loaded from a jar
+	 */
+	public static Path getDecompilerJar() {
+		try {
+			CodeSource source = Fernflower.class.getProtectionDomain().getCodeSource();
+			if(source != null && source.getLocation() != null) {
+				Path jar = Path.of(source.getLocation().toURI());
+				if(Files.isRegularFile(jar)) {
+					return jar;
+				}
+			}
+		}
+		catch(URISyntaxException | SecurityException e) {
+			//fall through
+		}
+		return null;
+	}
+
+	/**
+	 * @return the version of Vineflower on the classpath, or a hash of it if the version is unknown
+	 */
+	public static String getDecompilerVersion() {
+		String version = Fernflower.class.getPackage().getImplementationVersion();
+		if(version != null) {
+			return version;
+		}
+		Path jar = getDecompilerJar();
+		if(jar != null) {
+			try {
+				try(JarFile jarFile = new JarFile(jar.toFile())) {
+					if(jarFile.getManifest() != null) {
+						version = jarFile.getManifest().getMainAttributes().getValue("Implementation-Version");
+					}
+				}
+				if(version == null) {
+					version = JarFingerprinter.hashFile(jar);
+				}
+				return version;
+			}
+			catch(IOException e) {
+				//fall through
+			}
+		}
+		try(InputStream i = Fernflower.class.getResourceAsStream("Fernflower.class")) {
+			if(i == null) {
+				return "unknown";
+			}
+			MessageDigest digest = JarFingerprinter.sha256();
+			digest.update(i.readAllBytes());
+			return HexFormat.of().formatHex(digest.digest());
+		}
+		catch(IOException e) {
+			return "unknown";
 		}
+	}
 
-		// Add sources to decompile
-		for (Path source : builder.getSources()) {
-			ff.addSource(source.toFile());
+	/**
+	 * Decompiles every source jar. Each jar is decompiled in its own context and independent
+	 * jars run concurrently, see {@link DecompilationScheduler}. In low memory mode the jars
+	 * are instead decompiled one at a time in package shards, see {@link ShardedDecompilation}.
+	 */
+	public void decompile() throws IOException {
+		if (lowMemory) {
+			new ShardedDecompilation(this, metaData.numberOfThreads(), maxHeap, this::report).run();
+			return;
+		}
+		DecompilationScheduler scheduler = new DecompilationScheduler(this, metaData.numberOfThreads(), maxConcurrentJobs, maxHeap);
+		List<DecompilationScheduler.Job> jobs = scheduler.plan();
+		for (DecompilationScheduler.Job job : jobs) {
+			if (metaData.logger() == null) {
+				break;
+			}
+			metaData.logger().accept("Scheduling " + job.source().getFileName() + " (" + job.bytecodeSize() / 1024 + " KiB of bytecode) with " + job.threads() + " threads and ~" + job.heapEstimate() / (1024 * 1024) + " MiB of heap");
 		}
+		scheduler.run(jobs);
+	}
+
+	/**
+	 * Runs the decompiler with the same options and logger as {@link #decompile()}, but with
+	 * the inputs supplied by {@code inputs} and the output written to the given directories.
+	 */
+	void decompile(Path decompDest, Path linemapDest, Consumer<Fernflower> inputs) {
+		decompile(decompDest, linemapDest, metaData.numberOfThreads(), inputs);
 	}
 
-	public void decompile() {
+	void decompile(Path decompDest, Path linemapDest, int threads, Consumer<Fernflower> inputs) {
+		Map<String, Object> options = new HashMap<>(this.options);
+		options.put(IFernflowerPreferences.THREADS, String.valueOf(threads));
+
+		// Fernflower binds its context to the current thread, so it is created here rather than in the constructor
+		ParallelArchiveSaver saver = new ParallelArchiveSaver(decompDest, linemapDest, threads, compressSources, threads * SAVE_QUEUE_PER_THREAD, this::report);
+		IFernflowerLogger logger = (IFernflowerLogger) metaData.logger();
+		if (telemetry != null) {
+			logger = telemetry.logger(logger, threads);
+		}
+		Fernflower ff = new Fernflower(saver, options, logger);
+
 		try {
+			inputs.accept(ff);
 			ff.decompileContext();
 		} finally {
 			ff.clearContext();
+			saver.close();
+		}
+	}
+
+	/**
+	 * Adds the libraries to a decompiler context, as a single context source backed by the
+	 * {@link LibraryClassCache} if there is one, otherwise as jars.
+	 */
+	void addLibraries(Fernflower ff) {
+		IContextSource libraries = getCachedLibraries();
+		if (libraries != null) {
+			ff.addLibrary(libraries);
+			return;
+		}
+		for (Path library : getLibraries()) {
+			ff.addLibrary(library.toFile());
+		}
+	}
+
+	private synchronized IContextSource getCachedLibraries() {
+		if (libraryCache == null || cachedLibraries != null) {
+			return cachedLibraries;
+		}
+		try {
+			cachedLibraries = libraryCache.open(getLibraries());
+		}
+		catch (IOException e) {
+			report("Unable to cache the decompiler libraries, reading them from their jars instead: " + e);
+			return null;
+		}
+		return cachedLibraries;
+	}
+
+	private void report(String message) {
+		if (metaData.logger() == null) {
+			return;
+		}
+		try {
+			metaData.logger().accept(message);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
 	}
-}
\ No newline at end of file
+}
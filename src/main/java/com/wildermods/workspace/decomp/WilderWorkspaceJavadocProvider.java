@@ -1,51 +1,97 @@
 package com.wildermods.workspace.decomp;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
 
+import org.jetbrains.java.decompiler.code.CodeConstants;
 import org.jetbrains.java.decompiler.struct.StructClass;
 import org.jetbrains.java.decompiler.struct.StructField;
 import org.jetbrains.java.decompiler.struct.StructMethod;
+import org.jetbrains.java.decompiler.struct.StructRecordComponent;
 
-import net.fabricmc.loom.decompilers.vineflower.TinyJavadocProvider;
+import net.fabricmc.fernflower.api.IFabricJavadocProvider;
 
-public class WilderWorkspaceJavadocProvider extends TinyJavadocProvider {
+/**
+ * Supplies the comments of a tiny v2 mappings file to the decompiler from a shared
+ * {@link JavadocIndex}, the same way loom's {@code TinyJavadocProvider} does: the
+ * components of records are documented with {@code @param} tags on the record, and methods
+ * with the comments of their parameters.
+ */
+public class WilderWorkspaceJavadocProvider implements IFabricJavadocProvider {
 	
-	private final TinyJavadocProvider parent;
+	private final JavadocIndex index;
 
 	public WilderWorkspaceJavadocProvider(File tinyFile, String runtimeNamespace) {
-		super(tinyFile, runtimeNamespace);
-		if(tinyFile == null) {
-			parent = null;
+		try {
+			this.index = tinyFile == null ? null : JavadocIndex.open(tinyFile.toPath(), runtimeNamespace, JavadocIndex.DEFAULT_DIR);
 		}
-		else {
-			parent = new TinyJavadocProvider(tinyFile, runtimeNamespace);
+		catch(IOException e) {
+			throw new UncheckedIOException("Unable to index the javadocs of " + tinyFile, e);
 		}
 	}
+	
+	public WilderWorkspaceJavadocProvider(JavadocIndex index) {
+		this.index = index;
+	}
 
 	@Override
 	public String getClassDoc(StructClass structClass) {
-		if(parent == null) {
-			return "";
+		if(index == null) {
+			return null;
+		}
+		String doc = index.getClassDoc(structClass.qualifiedName);
+		List<StructRecordComponent> components = structClass.getRecordComponents();
+		if(components == null) {
+			return doc;
+		}
+		StringBuilder recordDoc = null;
+		for(StructRecordComponent component : components) {
+			String componentDoc = index.getFieldDoc(structClass.qualifiedName, component.getName(), component.getDescriptor());
+			if(componentDoc == null) {
+				continue;
+			}
+			if(recordDoc == null) {
+				recordDoc = new StringBuilder();
+				if(doc != null) {
+					recordDoc.append(doc).append("\n\n");
+				}
+			}
+			else {
+				recordDoc.append('\n');
+			}
+			recordDoc.append("@param ").append(component.getName()).append(' ').append(componentDoc);
 		}
-		return parent.getClassDoc(structClass);
+		return recordDoc == null ? doc : recordDoc.toString();
 	}
 
 	@Override
 	public String getFieldDoc(StructClass structClass, StructField structField) {
-		if(parent == null) {
-			return "";
+		if(index == null) {
+			return null;
 		}
-		return parent.getFieldDoc(structClass, structField);
+		// Record components are documented on the record itself
+		if(structClass.getRecordComponents() != null && !structField.hasModifier(CodeConstants.ACC_STATIC)) {
+			return null;
+		}
+		return index.getFieldDoc(structClass.qualifiedName, structField.getName(), structField.getDescriptor());
 	}
 
 	@Override
 	public String getMethodDoc(StructClass structClass, StructMethod structMethod) {
-		if(parent == null) {
-			return "";
+		if(index == null) {
+			return null;
 		}
-		return parent.getMethodDoc(structClass, structMethod);
+		return index.getMethodDoc(structClass.qualifiedName, structMethod.getName(), structMethod.getDescriptor());
 	}
 
-	
+	/**
+	 * Identifies the mappings, so decompiler options containing this provider fingerprint consistently.
+	 */
+	@Override
+	public String toString() {
+		return index == null ? "no javadocs" : "javadocs@" + index.getKey();
+	}
 	
 }
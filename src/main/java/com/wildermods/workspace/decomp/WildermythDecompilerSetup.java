@@ -3,18 +3,28 @@ package com.wildermods.workspace.decomp;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
-
-import org.apache.commons.lang3.StringUtils;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import com.wildermods.workspace.capabilities.GameProject;
 import com.wildermods.workspace.capabilities.ModuleInfo;
 
-import net.fabricmc.loom.decompilers.ClassLineNumbers;
-import net.fabricmc.loom.decompilers.LineNumberRemapper;
-
 public class WildermythDecompilerSetup {
 
+	/**
+	 * Incremental decompilations of at most this many classes finish about as fast as a
+	 * priority pass, so they don't get one.
+	 */
+	private static final int PRIORITY_PASS_THRESHOLD = 500;
+
 	private final DecompilerBuilder builder;
 	private final GameProject project;
 	private final Map<String, ModuleInfo> modules;
@@ -33,46 +43,228 @@ public class WildermythDecompilerSetup {
 		// Optionally add any extra libraries (if needed) – but they are already handled via modules
 		// Build and decompile
 		WilderWorkspaceDecompiler decompiler = builder.build();
-		decompiler.decompile();
-
-		// Remap line numbers (unchanged from your previous version)
-		Path linemapDir = decompDir.resolve("decomp").resolve("linemaps");
-		if (Files.exists(linemapDir)) {
-			Map<String, Path> sourceJars = new java.util.HashMap<>();
-			for (ModuleInfo info : modules.values()) {
-				if ("decompile".equals(info.sourceStrategy().type)) {
-					Path jar = project.getRootDir().resolve(info.relativeJarPath()).normalize();
-					sourceJars.put(jar.getFileName().toString(), jar);
+		if (builder.isLazy()) {
+			createLazySourceProvider(decompiler, decompDir).prepare();
+			project.info("Lazy decompilation enabled, classes are decompiled into " + LazySourceProvider.getOutputDir(decompDir) + " when requested");
+			return;
+		}
+		PriorityDecompilation priority = null;
+		if (!builder.getPriorityClasses().isEmpty()) {
+			priority = new PriorityDecompilation(decompiler, builder.getPriorityClasses(), project::info);
+		}
+		IncrementalDecompilation incremental = builder.isIncremental() ? new IncrementalDecompilation(decompiler) : null;
+		decompileSources(decompiler, incremental, priority);
+		remap(decompiler, decompDir);
+		if (priority != null) {
+			priority.cleanup();
+		}
+
+		if (incremental != null) {
+			incremental.cleanup();
+		}
+	}
+
+	/**
+	 * Decompiles the sources of the given classes, and the not yet decompiled classes in their
+	 * packages, into the lazy source directories.
+	 */
+	public void decompileLazily(Path decompDir, Collection<String> classNames) throws IOException {
+		builder.setModules(modules, project.getRootDir());
+		builder.setDecompDest(decompDir);
+		LazySourceProvider provider = createLazySourceProvider(builder.build(), decompDir);
+		for (String className : classNames) {
+			Path source = provider.provide(className);
+			if (source == null) {
+				project.warn("No decompiled jar contains " + className);
+			}
+			else {
+				project.info(className + " -> " + source);
+			}
+		}
+	}
+
+	private LazySourceProvider createLazySourceProvider(WilderWorkspaceDecompiler decompiler, Path decompDir) throws IOException {
+		JarFingerprinter fingerprinter = builder.getFingerprinter();
+		if (fingerprinter == null) {
+			fingerprinter = new JarFingerprinter(JarFingerprinter.DEFAULT_DIR);
+		}
+		return new LazySourceProvider(decompiler, fingerprinter, LazySourceProvider.getOutputDir(decompDir));
+	}
+
+	/**
+	 * Produces the source jars and linemaps, restoring them from the cache or decompiling
+	 * only the changed classes where possible. The priority pass only runs when the sources
+	 * are not in the cache and more than a few classes have to be decompiled.
+	 */
+	private void decompileSources(WilderWorkspaceDecompiler decompiler, IncrementalDecompilation incremental, PriorityDecompilation priority) throws IOException {
+		JarFingerprinter fingerprinter = builder.getFingerprinter();
+		if (fingerprinter == null) {
+			fingerprinter = new JarFingerprinter(JarFingerprinter.DEFAULT_DIR);
+		}
+		try {
+			Map<Path, ClassIndex> indexes = new LinkedHashMap<>();
+			if (incremental != null) {
+				for (Path source : decompiler.getSources()) {
+					// Other source jars are compared class by class, so only the libraries are part of the context
+					String contextKey = fingerprinter.fingerprintContext(source, decompiler.getLibraries(), Set.of(), decompiler.getOptions());
+					indexes.put(source, ClassIndex.scan(source, contextKey));
 				}
 			}
-			Files.list(linemapDir)
-				.filter(p -> p.toString().endsWith(".linemap"))
-				.forEach(linemap -> {
-					String jarName = StringUtils.removeEnd(linemap.getFileName().toString(), ".linemap");
-					Path sourceJar = sourceJars.get(jarName);
-					if (sourceJar != null && Files.exists(sourceJar)) {
-						project.info("Remapping " + sourceJar);
+
+			DecompilationCache cache = builder.getCache();
+			Map<Path, String> keys = cache == null ? Map.of() : computeCacheKeys(decompiler, cache, fingerprinter);
+			if (cache == null || !restoreCached(decompiler, cache, keys)) {
+				Map<Path, IncrementalDecompilation.Plan> plans = incremental == null ? null : incremental.plan(indexes);
+				if (priority != null && (plans == null || plans.values().stream().mapToInt(plan -> plan.affectedRoots().size()).sum() > PRIORITY_PASS_THRESHOLD)) {
+					priority.run();
+				}
+				if (plans != null) {
+					for (IncrementalDecompilation.Plan plan : plans.values()) {
+						project.info(plan.source().getFileName() + ": " + plan.affectedRoots().size() + " classes to decompile, " + plan.removedRoots().size() + " removed");
+					}
+					incremental.run(plans.values());
+				}
+				else {
+					if (incremental != null) {
+						project.info("No usable previous decompilation, decompiling all classes");
+					}
+					decompiler.decompile();
+					for (Map.Entry<Path, String> key : keys.entrySet()) {
+						String archiveName = key.getKey().getFileName().toString();
 						try {
-							remap(linemap, sourceJar, sourceJar); // overwrite original (as before)
-						} catch (Throwable e) {
-							throw new RuntimeException("Failed to remap " + jarName, e);
+							cache.store(key.getValue(), archiveName, decompiler.getDecompDest(), decompiler.getLinemapDest());
+						}
+						catch (IOException e) {
+							project.warn(e, "Could not store " + archiveName + " in the decompilation cache");
 						}
-					} else {
-						project.warn("No source jar found for linemap: " + jarName);
 					}
-				});
-		} else {
-			project.info("No linemap directory found at " + linemapDir);
+				}
+			}
+
+			if (incremental != null) {
+				incremental.writeIndexes(indexes);
+			}
 		}
+		finally {
+			fingerprinter.save();
+		}
+	}
+
+	private Map<Path, String> computeCacheKeys(WilderWorkspaceDecompiler decompiler, DecompilationCache cache, JarFingerprinter fingerprinter) throws IOException {
+		Set<Path> classpath = new LinkedHashSet<>();
+		classpath.addAll(decompiler.getSources());
+		classpath.addAll(decompiler.getLibraries());
+
+		Map<Path, String> keys = new LinkedHashMap<>();
+		for (Path source : decompiler.getSources()) {
+			String contextKey = fingerprinter.fingerprintContext(source, classpath, decompiler.getSources(), decompiler.getOptions());
+			keys.put(source, cache.computeKey(source, contextKey));
+		}
+		return keys;
 	}
 
-	private void remap(Path linemap, Path jarToRemap, Path remappedJarDest) throws Throwable {
-		project.info("Remapping " + jarToRemap + " to " + remappedJarDest);
-		ClassLineNumbers lineNumbers = ClassLineNumbers.readMappings(Files.newBufferedReader(linemap));
-		LineNumberRemapper remapper = new LineNumberRemapper(lineNumbers);
-		if (Files.notExists(remappedJarDest)) {
-			Files.createDirectories(remappedJarDest.getParent());
+	/**
+	 * Restores every source jar from the cache, or none of them.
+	 */
+	private boolean restoreCached(WilderWorkspaceDecompiler decompiler, DecompilationCache cache, Map<Path, String> keys) throws IOException {
+		if (keys.isEmpty()) {
+			return false;
+		}
+		for (Map.Entry<Path, String> key : keys.entrySet()) {
+			String archiveName = key.getKey().getFileName().toString();
+			if (!cache.contains(key.getValue(), archiveName)) {
+				project.info("Decompilation cache miss for " + archiveName + " (" + key.getValue() + ")");
+				return false;
+			}
+		}
+		for (Map.Entry<Path, String> key : keys.entrySet()) {
+			String archiveName = key.getKey().getFileName().toString();
+			if (!cache.restore(key.getValue(), archiveName, decompiler.getDecompDest(), decompiler.getLinemapDest())) {
+				throw new IOException("Decompilation cache entry " + key.getValue() + " disappeared while restoring");
+			}
+			project.info("Restored " + archiveName + " from decompilation cache (" + key.getValue() + ")");
+		}
+		project.info("All decompiled sources restored from " + cache.getCacheDir() + ", skipping decompilation");
+		return true;
+	}
+
+	/**
+	 * Writes line remapped copies of the source jars, remapping jars and their classes in
+	 * parallel. Jars remapped before with the same linemap are taken from the cache. The
+	 * {@link SymbolIndex} of each jar is rebuilt along with it.
+	 */
+	private void remap(WilderWorkspaceDecompiler decompiler, Path decompDir) throws IOException {
+		JarFingerprinter fingerprinter = builder.getFingerprinter();
+		if (fingerprinter == null) {
+			fingerprinter = new JarFingerprinter(JarFingerprinter.DEFAULT_DIR);
+		}
+		RemappedJars remappedJars = new RemappedJars(RemappedJars.DEFAULT_DIR, fingerprinter);
+
+		Map<Path, Path> linemaps = new LinkedHashMap<>();
+		for (Path jar : decompiler.getSources()) {
+			Path linemap = decompiler.getLinemapDest().resolve(jar.getFileName() + ".linemap");
+			if (Files.isRegularFile(linemap) && Files.isRegularFile(jar)) {
+				linemaps.put(jar, linemap);
+			}
+			else {
+				project.warn("No linemap found for " + jar.getFileName() + ", it will not be remapped");
+			}
+		}
+		if (linemaps.isEmpty()) {
+			return;
+		}
+
+		ExecutorService classPool = Executors.newFixedThreadPool(builder.getThreadCount(), daemon("WilderWorkspace remapper"));
+		ExecutorService jarPool = Executors.newFixedThreadPool(linemaps.size(), daemon("WilderWorkspace jar remapper"));
+		try {
+			Map<Path, Future<Path>> remapped = new LinkedHashMap<>();
+			for (Map.Entry<Path, Path> entry : linemaps.entrySet()) {
+				Path jar = entry.getKey();
+				String key = remappedJars.computeKey(jar, entry.getValue());
+				remapped.put(jar, jarPool.submit(() -> {
+					Path cached = remappedJars.get(key, jar);
+					if (cached != null) {
+						project.info("Using cached remapped " + jar.getFileName() + " (" + key + ")");
+					}
+					else {
+						LineNumberJarRemapper remapper = new LineNumberJarRemapper(LineMap.read(entry.getValue()), classPool);
+						cached = remappedJars.store(key, jar, remapper);
+						project.info("Remapped " + jar.getFileName() + " (" + key + ")");
+					}
+					Path published = remappedJars.publish(cached, decompDir, jar);
+					Path symbols = SymbolIndex.getIndexFile(SymbolIndex.getOutputDir(decompDir), jar);
+					if (!SymbolIndex.isUpToDate(symbols, key)) {
+						SymbolIndex.write(jar, LineMap.read(entry.getValue()), key, symbols);
+						project.info("Indexed the symbols of " + jar.getFileName());
+					}
+					return published;
+				}));
+			}
+			for (Map.Entry<Path, Future<Path>> entry : remapped.entrySet()) {
+				try {
+					project.info(entry.getKey() + " -> " + entry.getValue().get());
+				}
+				catch (ExecutionException e) {
+					throw new IOException("Failed to remap " + entry.getKey().getFileName(), e.getCause());
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while remapping", e);
+				}
+			}
 		}
-		remapper.process(jarToRemap, remappedJarDest);
+		finally {
+			jarPool.shutdownNow();
+			classPool.shutdownNow();
+			fingerprinter.save();
+		}
+	}
+
+	private static ThreadFactory daemon(String name) {
+		return r -> {
+			Thread thread = new Thread(r, name);
+			thread.setDaemon(true);
+			return thread;
+		};
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,149 @@
+package com.wildermods.workspace.dependency;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.wildermods.thrixlvault.steam.ISteamDownloadable;
+
+/**
+ * Downloads missing game versions and processes each of them as soon as its download finishes.
+ * <p>
+ * Downloads run one at a time on their own thread, as they share the bandwidth and the SteamCMD
+ * session. Whenever a version finishes downloading it is handed to a pool of workers, which
+ * chrysalisize, verify and export it while the next version downloads. Setting up several
+ * versions therefore takes about as long as the slowest stage, rather than the sum of all
+ * stages.
+ * </p>
+ */
+public class DownloadPipeline<T extends ISteamDownloadable> implements AutoCloseable {
+
+	private final VaultDownloader downloader;
+	private final Stage<T> stage;
+	private final Function<T, String> names;
+	private final Consumer<String> reporter;
+	private final ExecutorService downloads;
+	private final ExecutorService workers;
+
+	private final Map<T, Throwable> failures = new ConcurrentHashMap<>();
+	private final List<T> items = new ArrayList<>();
+	private Future<List<Future<?>>> running;
+	private long start;
+
+	/**
+	 * @param downloader downloads each version into its vault
+	 * @param stage processes each version once it is downloaded
+	 * @param workers the maximum number of versions processed at once
+	 * @param names the name of each version, for the progress messages
+	 * @param reporter receives the progress
+	 */
+	public DownloadPipeline(VaultDownloader downloader, Stage<T> stage, int workers, Function<T, String> names, Consumer<String> reporter) {
+		this.downloader = downloader;
+		this.stage = stage;
+		this.names = names;
+		this.reporter = reporter;
+		this.downloads = Executors.newSingleThreadExecutor(r -> daemon(r, "WilderWorkspace downloader"));
+		this.workers = Executors.newFixedThreadPool(Math.max(1, workers), r -> daemon(r, "WilderWorkspace vault processor"));
+	}
+
+	/**
+	 * Starts downloading the versions in order, without waiting for them.
+	 */
+	public void start(Collection<T> versions) {
+		if(running != null) {
+			throw new IllegalStateException("The pipeline was already started");
+		}
+		items.addAll(versions);
+		start = System.nanoTime();
+		running = downloads.submit(() -> {
+			List<Future<?>> processing = new ArrayList<>();
+			for(T item : items) {
+				try {
+					downloader.download(item);
+				}
+				catch(InterruptedException e) {
+					throw e;
+				}
+				catch(Throwable t) {
+					failures.put(item, t);
+					report("Download of " + names.apply(item) + " failed");
+					continue;
+				}
+				report("Downloaded " + names.apply(item));
+				processing.add(workers.submit(() -> {
+					try {
+						stage.process(item);
+						report("Set up " + names.apply(item));
+					}
+					catch(Throwable t) {
+						failures.put(item, t);
+						report("Setting up " + names.apply(item) + " failed");
+					}
+				}));
+			}
+			report("Finished downloading " + items.size() + " versions");
+			return processing;
+		});
+	}
+
+	/**
+	 * Waits for every version to be downloaded and processed.
+	 *
+	 * @return the problem of each version which could not be downloaded or processed, in the order they were started in
+	 */
+	public Map<T, Throwable> await() throws InterruptedException {
+		if(running == null) {
+			return Map.of();
+		}
+		try {
+			for(Future<?> processing : running.get()) {
+				processing.get();
+			}
+		}
+		catch(ExecutionException e) {
+			throw new IllegalStateException("The download pipeline failed", e.getCause());
+		}
+		Map<T, Throwable> ordered = new LinkedHashMap<>();
+		for(T item : items) {
+			if(failures.containsKey(item)) {
+				ordered.put(item, failures.get(item));
+			}
+		}
+		return ordered;
+	}
+
+	private void report(String message) {
+		reporter.accept(String.format(Locale.ROOT, "%s after %.1fs", message, (System.nanoTime() - start) / 1e9));
+	}
+
+	@Override
+	public void close() {
+		downloads.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	private static Thread daemon(Runnable r, String name) {
+		Thread thread = new Thread(r, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * What happens to a version once it is downloaded.
+	 */
+	@FunctionalInterface
+	public static interface Stage<T> {
+		void process(T downloaded) throws Exception;
+	}
+
+}
@@ -0,0 +1,27 @@
+package com.wildermods.workspace.dependency;
+
+import java.util.List;
+
+import com.wildermods.thrixlvault.MassDownloadWeaver;
+import com.wildermods.thrixlvault.steam.ISteamDownloadable;
+
+/**
+ * Downloads a game version into its vault. Replacing the Steam downloader with a stand-in lets
+ * the setup of vaulted dependencies run offline, for example from a local copy of a vault.
+ */
+@FunctionalInterface
+public interface VaultDownloader {
+
+	/**
+	 * Downloads the version into its vault, so it can be chrysalisized afterwards.
+	 */
+	void download(ISteamDownloadable downloadable) throws Exception;
+
+	/**
+	 * @return a downloader which downloads each version from Steam with SteamCMD, logged in as the user
+	 */
+	public static VaultDownloader steam(String user) {
+		return downloadable -> new MassDownloadWeaver(user, List.of(downloadable)).run();
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.wildermods.workspace.dependency;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Verifies the vaulted dependencies of a project concurrently.
+ * <p>
+ * Verifying a vault hashes every blob of a game version, so verifying the versions a project
+ * pins one after another takes as long as all of them together. The verifications of every phase
+ * share one bounded pool instead, so several versions are hashed at once without oversubscribing
+ * the disk and processors.
+ * </p>
+ * <p>
+ * A failed verification doesn't stop the others, its problem is returned for its dependency,
+ * so every broken dependency is reported at once.
+ * </p>
+ */
+public class VaultVerifier implements AutoCloseable {
+
+	private final ExecutorService pool;
+	private final Consumer<String> reporter;
+
+	/**
+	 * @param threads the maximum number of verifications run at once
+	 * @param reporter receives the progress of each phase
+	 */
+	public VaultVerifier(int threads, Consumer<String> reporter) {
+		this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+			Thread thread = new Thread(r, "WilderWorkspace vault verifier");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.reporter = reporter;
+	}
+
+	/**
+	 * Runs the verifications of a phase and waits for all of them to finish.
+	 *
+	 * @param phase what is verified, such as {@code "vault blobs"}, for the progress messages
+	 * @param verifications the verification of each dependency
+	 * @param names the name of each dependency, for the progress messages
+	 * @return the problem of each dependency whose verification failed, in the order of the verifications
+	 */
+	public <K> Map<K, Throwable> verify(String phase, Map<K, Verification> verifications, Function<K, String> names) throws InterruptedException {
+		long start = System.nanoTime();
+		CompletionService<K> completion = new ExecutorCompletionService<>(pool);
+		Map<Future<K>, K> keys = new LinkedHashMap<>();
+		for(Map.Entry<K, Verification> entry : verifications.entrySet()) {
+			K key = entry.getKey();
+			Verification verification = entry.getValue();
+			keys.put(completion.submit(() -> {
+				verification.verify();
+				return key;
+			}), key);
+		}
+
+		Map<K, Throwable> failures = new LinkedHashMap<>();
+		for(int done = 1; done <= keys.size(); done++) {
+			Future<K> future = completion.take();
+			K key = keys.get(future);
+			try {
+				future.get();
+				reporter.accept(String.format(Locale.ROOT, "Verified %s of %s (%d/%d) after %.1fs", phase, names.apply(key), done, keys.size(), (System.nanoTime() - start) / 1e9));
+			}
+			catch(ExecutionException e) {
+				failures.put(key, e.getCause());
+				reporter.accept(String.format(Locale.ROOT, "Verification of %s of %s failed (%d/%d) after %.1fs", phase, names.apply(key), done, keys.size(), (System.nanoTime() - start) / 1e9));
+			}
+		}
+
+		if(!keys.isEmpty()) {
+			double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-3);
+			reporter.accept(String.format(Locale.ROOT, "Verified %s of %d dependencies in %.1fs, %.2f dependencies/s, %d failed", phase, keys.size(), seconds, keys.size() / seconds, failures.size()));
+		}
+		Map<K, Throwable> ordered = new LinkedHashMap<>();
+		for(K key : verifications.keySet()) {
+			if(failures.containsKey(key)) {
+				ordered.put(key, failures.get(key));
+			}
+		}
+		return ordered;
+	}
+
+	@Override
+	public void close() {
+		pool.shutdownNow();
+	}
+
+	@FunctionalInterface
+	public static interface Verification {
+		void verify() throws Exception;
+	}
+
+}
@@ -4,18 +4,22 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 
 import java.nio.charset.Charset;
-import java.nio.file.FileVisitResult;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.io.file.PathUtils;
 
@@ -24,13 +28,14 @@ import org.gradle.api.GradleException;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
 import org.gradle.work.DisableCachingByDefault;
 
 import com.wildermods.masshash.exception.IntegrityException;
 import com.wildermods.masshash.exception.IntegrityProblem;
 import com.wildermods.thrixlvault.ChrysalisizedVault;
-import com.wildermods.thrixlvault.MassDownloadWeaver;
 import com.wildermods.thrixlvault.Vault;
 import com.wildermods.thrixlvault.exception.DatabaseError;
 import com.wildermods.thrixlvault.exception.DatabaseIntegrityError;
@@ -38,10 +43,17 @@ import com.wildermods.thrixlvault.exception.DatabaseMissingBlobError.DatabaseMis
 import com.wildermods.thrixlvault.exception.MissingResourceException.MissingResourceProblem;
 import com.wildermods.thrixlvault.exception.MissingVersionException;
 import com.wildermods.thrixlvault.steam.IDownloadable;
-import com.wildermods.thrixlvault.steam.ISteamDownloadable;
 import com.wildermods.thrixlvault.wildermyth.WildermythManifest;
 import com.wildermods.workspace.WilderWorkspaceExtension;
 import com.wildermods.workspace.WilderWorkspacePluginImpl;
+import com.wildermods.workspace.copy.MaterializationMode;
+import com.wildermods.workspace.copy.MaterializationProfile;
+import com.wildermods.workspace.copy.WorkspaceCopier;
+import com.wildermods.workspace.copy.WorkspaceManifest;
+import com.wildermods.workspace.decomp.JarFingerprinter;
+import com.wildermods.workspace.dependency.DownloadPipeline;
+import com.wildermods.workspace.dependency.VaultDownloader;
+import com.wildermods.workspace.dependency.VaultVerifier;
 import com.wildermods.workspace.dependency.VaultedDependencySpec;
 import com.wildermods.workspace.util.OS;
 import com.wildermods.workspace.util.Platform;
@@ -58,6 +70,14 @@ public class CopyLocalDependenciesToWorkspaceTask extends DefaultTask {
 	
 	private static final Logger LOGGER = Logging.getLogger(CopyLocalDependenciesToWorkspaceTask.class);
 	private static final String UNSUPPLIED_USER = "NO_USERNAME_SUPPLIED";
+	private static final Set<String> SKIPPED_DIRECTORIES = MaterializationProfile.RUNTIME_DIRECTORIES;
+	private static final Path VAULT_EXPORT_DIR = JarFingerprinter.DEFAULT_DIR.resolve("vaultExports");
+	private static final Set<String> GENERATED_DIRECTORIES = Set.of("decomp", "fabric");
+	/**
+	 * The files in the root directory which are written to in the workspace. The game keeps its
+	 * settings with the saves in {@code players}, so this is only the patchline this task writes.
+	 */
+	private static final Set<String> WRITTEN_FILES = Set.of("patchline.txt");
 	
 	@Input
 	private String platform = Platform.steam.name();
@@ -74,6 +94,37 @@ public class CopyLocalDependenciesToWorkspaceTask extends DefaultTask {
 	@Input
 	private boolean overwrite = false;
 	
+	@Input
+	private boolean sync = false;
+	
+	@Input
+	private boolean checksum = false;
+	
+	@Input
+	private boolean fingerprint = true;
+	
+	@Input
+	private String materialization = MaterializationMode.copy.name();
+	
+	@Input
+	private MaterializationProfile materializationProfile = MaterializationProfile.RUN;
+	
+	@Internal
+	private int verificationThreads = Runtime.getRuntime().availableProcessors();
+	
+	@Internal
+	private int copyConcurrency = WorkspaceCopier.DEFAULT_CONCURRENCY;
+	
+	@Internal
+	private VaultDownloader downloader;
+	
+	/**
+	 * Exports write into the workspace while other dependencies are verified from it, so
+	 * verifications hold the read lock and exports the write lock.
+	 */
+	@Internal
+	private final ReadWriteLock workspaceLock = new ReentrantReadWriteLock();
+	
 	@TaskAction
 	public void copyDependencies() throws IOException {
 		final Path destDir = Path.of(this.destDir).toAbsolutePath().normalize();
@@ -109,94 +160,267 @@ public class CopyLocalDependenciesToWorkspaceTask extends DefaultTask {
 		WilderWorkspaceExtension extension = getProject().getExtensions().getByType(WilderWorkspaceExtension.class);
 		List<VaultedDependencySpec> deps = extension.getVaultDependencies();
 		
-		HashMap<IDownloadable, ChrysalisizedVault> vaultedDeps = new HashMap<>();
+		HashMap<WildermythManifest, ChrysalisizedVault> vaultedDeps = new LinkedHashMap<>();
 		HashMap<IDownloadable, ChrysalisizedVault> neededDeps = new HashMap<>();
-		HashMap<ISteamDownloadable, VaultedDependencySpec> toDownloadDeps = new HashMap();
-		HashMap<IDownloadable, ChrysalisizedVault> chrysalisizedDownloads = new HashMap();
-		HashMap<IDownloadable, ChrysalisizedVault> toExportDeps = new HashMap<>();
+		HashMap<WildermythManifest, VaultedDependencySpec> toDownloadDeps = new LinkedHashMap<>();
+		HashMap<WildermythManifest, VaultedDependencySpec> specs = new HashMap<>();
+		HashMap<WildermythManifest, ChrysalisizedVault> toExportDeps = new LinkedHashMap<>();
 		
-		//make sure database is correct
-		//add all vaulted deps we need
-		for(VaultedDependencySpec dep : deps) {
-			Vault vault = dep.vault();
-			try {
-				WildermythManifest manifest = WildermythManifest.get(dep.version());
-				ChrysalisizedVault cVault;
+		DownloadPipeline<WildermythManifest> pipeline = null;
+		try(VaultVerifier verifier = new VaultVerifier(verificationThreads, LOGGER::lifecycle)) {
+			//make sure database is correct
+			//add all vaulted deps we need
+			Map<WildermythManifest, VaultVerifier.Verification> blobVerifications = new LinkedHashMap<>();
+			for(VaultedDependencySpec dep : deps) {
+				Vault vault = dep.vault();
 				try {
-					 cVault = vault.chrysalisize(manifest);
+					WildermythManifest manifest = WildermythManifest.get(dep.version());
+					specs.put(manifest, dep);
+					ChrysalisizedVault cVault;
+					try {
+						 cVault = vault.chrysalisize(manifest);
+					}
+					catch(MissingVersionException e) {
+						LOGGER.warn("Version " + manifest.version() + " for " + manifest.os() + " not vaulted. Marking for download.");
+						toDownloadDeps.put(manifest, dep);
+						continue;
+					}
+					vaultedDeps.put(manifest, cVault);
+					blobVerifications.put(manifest, cVault::verifyBlobs);
 				}
-				catch(MissingVersionException e) {
-					LOGGER.warn("Version " + manifest.version() + " for " + manifest.os() + " not vaulted. Marking for download.");
-					toDownloadDeps.put(manifest, dep);
-					continue;
+				catch(Throwable t) {
+					throw new DatabaseError(t);
 				}
-				vaultedDeps.put(manifest, cVault);
-				try {
+			}
+			
+			Map<WildermythManifest, Throwable> blobProblems = verifier.verify("vault blobs", blobVerifications, CopyLocalDependenciesToWorkspaceTask::describe);
+			Map<WildermythManifest, Throwable> brokenVaults = new LinkedHashMap<>();
+			blobProblems.forEach((manifest, problem) -> {
+				if(problem instanceof DatabaseIntegrityError e && e.getProblems().toList().stream().parallel().allMatch(p -> p instanceof DatabaseMissingBlobProblem)) {
+					LOGGER.warn("Version " + manifest.version() + " for " + manifest.os() + " not fully vaulted. Marking for download.");
+					toDownloadDeps.put(manifest, specs.get(manifest));
+				}
+				else {
+					brokenVaults.put(manifest, problem);
+				}
+			});
+			if(!brokenVaults.isEmpty()) {
+				throw new DatabaseError("The vaults of " + brokenVaults.size() + " dependencies are corrupt", aggregate("vault blobs", brokenVaults));
+			}
+			
+			neededDeps.putAll(vaultedDeps);
+			
+			Path gameDir = Path.of(extension.getGameDestDir());
+			MaterializationMode mode = MaterializationMode.fromString(materialization);
+			if(toDownloadDeps.size() > 0) { //download any deps we need, each one is set up as soon as it is downloaded
+				VaultDownloader downloader = this.downloader;
+				if(downloader == null) {
+					String user = extension.getSteamUser();
+					if(user == null || user.isBlank()) {
+						user = UNSUPPLIED_USER;
+					}
+					downloader = VaultDownloader.steam(user);
+				}
+				pipeline = new DownloadPipeline<>(downloader, manifest -> {
+					ChrysalisizedVault cVault = specs.get(manifest).vault().chrysalisize(manifest);
 					cVault.verifyBlobs();
+					export(manifest, cVault, gameDir, mode);
+				}, verificationThreads, CopyLocalDependenciesToWorkspaceTask::describe, LOGGER::lifecycle);
+				pipeline.start(toDownloadDeps.keySet());
+			}
+			else {
+				LOGGER.info("No dependencies to download from steam.");
+			}
+			
+			Map<WildermythManifest, VaultVerifier.Verification> directoryVerifications = new LinkedHashMap<>();
+			for(Entry<WildermythManifest, ChrysalisizedVault> entry : vaultedDeps.entrySet()) { //If we have a dep already downloaded, and our project is only missing blobs from the vault, export the blobs to the project
+				if(toDownloadDeps.containsKey(entry.getKey())) { //downloaded deps are not in the vault yet, the pipeline exports them
+					continue;
 				}
-				catch(DatabaseIntegrityError e) { 
-					boolean allMissingBlobs = e.getProblems().toList().stream().parallel().allMatch(p -> p instanceof DatabaseMissingBlobProblem);
-					if(allMissingBlobs) {
-						LOGGER.warn("Version " + manifest.version() + " for " + manifest.os() + " not fully vaulted. Marking for download.");
-						toDownloadDeps.put(manifest, dep);
+				if(materializationProfile.isSparse()) { //a sparse workspace always misses files of the vault, its files are synced from the verified shared export instead
+					toExportDeps.put(entry.getKey(), entry.getValue());
+					continue;
+				}
+				directoryVerifications.put(entry.getKey(), () -> {
+					workspaceLock.readLock().lock(); //downloaded dependencies may be exported into the workspace meanwhile
+					try {
+						verifyDirectory(entry.getKey(), entry.getValue(), gameDir);
 					}
-					else {
-						throw e;
+					finally {
+						workspaceLock.readLock().unlock();
 					}
+				});
+			}
+			Map<WildermythManifest, Throwable> directoryProblems = verifier.verify("workspace files", directoryVerifications, CopyLocalDependenciesToWorkspaceTask::describe);
+			Map<WildermythManifest, Throwable> brokenDirectories = new LinkedHashMap<>();
+			directoryProblems.forEach((manifest, problem) -> {
+				//if we only have missing resources and no other problems, we can export them from the vault
+				if(problem instanceof IntegrityException e && e.getProblems().toList().stream().parallel().allMatch(p -> p instanceof MissingResourceProblem)) {
+					toExportDeps.put(manifest, vaultedDeps.get(manifest));
 				}
-
+				else {
+					brokenDirectories.put(manifest, problem);
+				}
+			});
+			if(!brokenDirectories.isEmpty()) {
+				Throwable problem = aggregate("workspace files", brokenDirectories);
+				if(problem instanceof IntegrityException e) {
+					throw e;
+				}
+				throw new DatabaseError("The workspace files of " + brokenDirectories.size() + " dependencies could not be verified", problem);
 			}
-			catch(Throwable t) {
-				throw new DatabaseError(t);
+			
+			for(Entry<WildermythManifest, ChrysalisizedVault> entry : toExportDeps.entrySet()) {
+				try {
+					export(entry.getKey(), entry.getValue(), gameDir, mode);
+				}  catch (Throwable t) {
+					throw new DatabaseError("Failed to export " + entry.getKey(), t);
+				}
+			}
+			
+			if(pipeline != null) {
+				Map<WildermythManifest, Throwable> failedDownloads = pipeline.await();
+				if(!failedDownloads.isEmpty()) {
+					throw new DatabaseError("Failed to set up " + failedDownloads.size() + " downloaded dependencies", aggregate("downloads", failedDownloads));
+				}
 			}
 		}
-		
-		neededDeps.putAll(vaultedDeps);
-		
-		if(toDownloadDeps.size() > 0) { //download any deps we need
-			String user = extension.getSteamUser();
-			if(user == null || user.isBlank()) {
-				user = UNSUPPLIED_USER;
+		finally {
+			if(pipeline != null) {
+				pipeline.close();
 			}
-			MassDownloadWeaver downloader = new MassDownloadWeaver(user, toDownloadDeps.keySet());
-			downloader.run();
-			toDownloadDeps.forEach((manifest, dep) -> {
-				try {
-					chrysalisizedDownloads.put(manifest, dep.vault().chrysalisize(manifest));
-				} catch (MissingVersionException | IOException e) {
-					throw new DatabaseError(e);
-				}
-			});
 		}
-		else {
-			LOGGER.info("No dependencies to download from steam.");
+	}
+	
+	/**
+	 * Exports a vaulted dependency into the workspace. Downloaded dependencies are exported while
+	 * others are still downloading or verified, so exports are serialized with each other and
+	 * with the verifications, as they all use the same directory.
+	 */
+	private void export(WildermythManifest manifest, ChrysalisizedVault vault, Path gameDir, MaterializationMode mode) throws IOException, IntegrityException {
+		workspaceLock.writeLock().lock();
+		try {
+			Files.deleteIfExists(WorkspaceManifest.getFile(gameDir, getVerifiedManifestName(manifest)));
+			if(mode != MaterializationMode.copy || materializationProfile.isSparse()) {
+				exportLinked(manifest, vault, gameDir, mode);
+			}
+			else {
+				vault.export(gameDir, true);
+			}
 		}
-		
-		toExportDeps.putAll(chrysalisizedDownloads); //all downloaded deps are not in the vault yet, so we know we have to export them.
-		
-		for(Entry<IDownloadable, ChrysalisizedVault> entry : vaultedDeps.entrySet()) { //If we have a dep already downloaded, and our project is only missing blobs from the vault, export the blobs to the project
-			if(toExportDeps.containsKey(entry.getKey())) {
-				continue;
+		finally {
+			workspaceLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Exports a vaulted dependency once into a directory shared by every project, and clones or
+	 * hardlinks its files from there into the workspace. Exporting a version again, or into
+	 * another project, only links the files that changed, and takes no extra disk space where
+	 * the files can be linked.
+	 */
+	private void exportLinked(WildermythManifest manifest, ChrysalisizedVault vault, Path gameDir, MaterializationMode mode) throws IOException, IntegrityException {
+		Path shared = VAULT_EXPORT_DIR.resolve(getExportName(manifest));
+		if(Files.isDirectory(shared)) {
+			try {
+				verifyDirectory(manifest, vault, shared);
+			}
+			catch(IntegrityException e) {
+				LOGGER.warn("The shared export of " + describe(manifest) + " at " + shared + " is damaged, exporting it again.");
+				PathUtils.deleteDirectory(shared);
 			}
+		}
+		if(!Files.isDirectory(shared)) {
+			Files.createDirectories(VAULT_EXPORT_DIR);
+			Path temp = Files.createTempDirectory(VAULT_EXPORT_DIR, getExportName(manifest));
 			try {
-				entry.getValue().verifyDirectory(Path.of(extension.getGameDestDir()), false);
-			} catch (IntegrityException e) {
-				List<IntegrityProblem> problems = e.getProblems().toList();
-				boolean onlyMissing = problems.stream().parallel().allMatch(p -> p instanceof MissingResourceProblem); //if we only have missing resources and no other problems, we can export them from the vault
-				if (!onlyMissing) {
-					throw e;
+				vault.export(temp, true);
+				Files.move(temp, shared, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(FileAlreadyExistsException | DirectoryNotEmptyException e) {
+				LOGGER.info("The shared export of " + describe(manifest) + " was created by another build in the meantime.");
+			}
+			finally {
+				if(Files.exists(temp)) {
+					PathUtils.deleteDirectory(temp);
 				}
-				toExportDeps.put(entry.getKey(), entry.getValue());
 			}
 		}
 		
-		for(Entry<IDownloadable, ChrysalisizedVault> entry : toExportDeps.entrySet()) {
-			try {
-				entry.getValue().export(Path.of(extension.getGameDestDir()), true);
-			}  catch (Throwable t) {
-				throw new DatabaseError("Failed to export " + entry.getKey(), t);
+		WorkspaceCopier copier = new WorkspaceCopier(shared, gameDir, dir -> dir.toString().equals(WorkspaceCopier.STATE_DIR), false, copyConcurrency, LOGGER::lifecycle);
+		copier.setMode(mode);
+		copier.setFilter(materializationProfile.toFilter());
+		copier.setWrittenFiles(CopyLocalDependenciesToWorkspaceTask::isWrittenByGame);
+		copier.setSync(true);
+		copier.copy();
+	}
+	
+	private static String getExportName(WildermythManifest manifest) {
+		return (manifest.version() + "-" + manifest.os()).replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+	
+	/**
+	 * Verifies the files a vaulted dependency exported into the workspace.
+	 * <p>
+	 * After the vault verified the files, their size, modification time and inode are recorded,
+	 * along with their hash where the workspace copier already computed it. As long as every
+	 * recorded file still has the same metadata, or its hash still matches, the files are known to
+	 * be intact and no file is read. Otherwise the vault verifies them again. Only the files of
+	 * the version are recorded, as listed by its shared export if there is one, so unrelated files
+	 * don't invalidate the record. The directories the game and this plugin write to, such as the
+	 * decompiled sources, are not recorded.
+	 * </p>
+	 */
+	private static void verifyDirectory(WildermythManifest manifest, ChrysalisizedVault vault, Path gameDir) throws IOException, IntegrityException {
+		String name = getVerifiedManifestName(manifest);
+		WorkspaceManifest verified = WorkspaceManifest.read(gameDir, name);
+		if(verified != null) {
+			WorkspaceManifest.Verification verification = verified.verify(gameDir, name);
+			if(verification.isIntact()) {
+				LOGGER.info("The workspace files of " + describe(manifest) + " are unchanged since they were verified, rehashed " + verification.rehashed() + " of " + verification.files() + " files in " + verification.nanos() / 1_000_000 + "ms");
+				return;
 			}
 		}
+		Files.deleteIfExists(WorkspaceManifest.getFile(gameDir, name));
+		vault.verifyDirectory(gameDir, false);
+		
+		//the vault doesn't expose the hashes it verified with, so only the metadata is recorded rather than reading every file again
+		Path shared = VAULT_EXPORT_DIR.resolve(getExportName(manifest));
+		List<String> files = WorkspaceManifest.list(Files.isDirectory(shared) ? shared : gameDir, dir -> isSkippedDirectory(dir) || (dir.getNameCount() == 1 && GENERATED_DIRECTORIES.contains(dir.toString())), CopyLocalDependenciesToWorkspaceTask::isWrittenByGame);
+		WorkspaceManifest copied = WorkspaceManifest.read(gameDir);
+		if(copied != null && !copied.getSource().equals(shared.toString())) {
+			copied = null;
+		}
+		WorkspaceManifest.stamp(gameDir, describe(manifest), files, copied).write(gameDir, name);
+	}
+	
+	private static String getVerifiedManifestName(WildermythManifest manifest) {
+		return "verified-" + getExportName(manifest);
+	}
+	
+	/**
+	 * Logs the problem of every dependency whose verification failed.
+	 * 
+	 * @return the problem of the first dependency, with the problems of the others suppressed by it
+	 */
+	private static Throwable aggregate(String phase, Map<WildermythManifest, Throwable> problems) {
+		Throwable first = null;
+		for(Entry<WildermythManifest, Throwable> entry : problems.entrySet()) {
+			Throwable problem = entry.getValue();
+			String details = problem instanceof IntegrityException e ? e.getProblems().count() + " integrity problems" : problem.toString();
+			LOGGER.error("Verification of the " + phase + " of " + describe(entry.getKey()) + " failed: " + details);
+			if(first == null) {
+				first = problem;
+			}
+			else {
+				first.addSuppressed(problem);
+			}
+		}
+		return first;
+	}
+	
+	private static String describe(WildermythManifest manifest) {
+		return manifest.version() + " for " + manifest.os();
 	}
 	
 	private void copyFromLocalInstallation(Platform platform) throws Exception {
@@ -204,13 +428,11 @@ public class CopyLocalDependenciesToWorkspaceTask extends DefaultTask {
 		if(platform == Platform.thrixlvault) {
 			throw new AssertionError();
 		}
-		Path installDir;
+		Path installDir = resolveInstallDir(platform);
 		if(platform != Platform.filesystem) {
-			installDir = platform.getDefaultInstallDirectory();
 			LOGGER.info("Using default " + platform + " install for " + OS.getOS() + ", located at " + installDir);
 		}
 		else {
-			installDir = Path.of(this.platform);
 			LOGGER.info("Using custom Wildermyth install located at " + installDir);
 		}
 		
@@ -225,30 +447,27 @@ public class CopyLocalDependenciesToWorkspaceTask extends DefaultTask {
 			Files.createDirectories(destDir);
 		}
 		
-		Files.walkFileTree(installDir, new SimpleFileVisitor<Path>() {
-			@Override
-			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-				Path target = destDir.resolve(installDir.relativize(file));
-
-				if(!overwrite && Files.exists(target)) {
-					LOGGER.info("Not copying " + target + " - File at target location already exists.");
-					return FileVisitResult.CONTINUE;
-				}
-				Files.createDirectories(target.getParent());
-				Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
-				return FileVisitResult.CONTINUE;
-			}
-			
-			@Override
-			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-				Path target = destDir.resolve(installDir.relativize(dir));
-				if(Files.isSymbolicLink(dir) || attrs.isSymbolicLink() || dir.getFileName().endsWith("backup") || dir.getFileName().endsWith("feedback") || dir.getFileName().endsWith("logs") || dir.getFileName().endsWith("out") || dir.getFileName().endsWith("players") || dir.getFileName().endsWith("screenshots")) {
-					return FileVisitResult.SKIP_SUBTREE;
-				}
-				Files.createDirectories(target);
-				return FileVisitResult.CONTINUE;
+		boolean repair = false;
+		if(!sync) {
+			WorkspaceManifest.Verification verification = verifyWorkspace(getManifestSource(installDir), destDir);
+			if(verification != null && !verification.isIntact()) {
+				LOGGER.warn("The workspace is damaged, " + verification.describe() + ". Repairing it.");
+				repair = true;
 			}
-		});
+		}
+		
+		if(materializationProfile.isSparse()) {
+			LOGGER.lifecycle("Materializing the " + materializationProfile.name() + " profile of the game, " + String.join(", ", materializationProfile.includes()) + " without " + String.join(", ", materializationProfile.excludes()));
+		}
+		WorkspaceCopier copier = new WorkspaceCopier(installDir, destDir, dir -> false, overwrite, copyConcurrency, LOGGER::lifecycle);
+		copier.setFilter(materializationProfile.toFilter());
+		copier.setSource(getManifestSource(installDir));
+		copier.setMode(MaterializationMode.fromString(materialization));
+		copier.setWrittenFiles(CopyLocalDependenciesToWorkspaceTask::isWrittenByGame);
+		copier.setSync(sync || repair);
+		copier.setChecksum(checksum);
+		copier.setFingerprint(fingerprint);
+		copier.copy();
 		
 		Path patchFile = destDir.resolve("patchline.txt");
 		PathUtils.writeString(patchFile, patchline + " - [WilderWorkspace " + WilderWorkspacePluginImpl.VERSION + "]", Charset.defaultCharset(), StandardOpenOption.TRUNCATE_EXISTING);
@@ -256,6 +475,85 @@ public class CopyLocalDependenciesToWorkspaceTask extends DefaultTask {
 
 	}
 	
+	/**
+	 * @return true if the workspace was copied from the game installation before, and none of its
+	 * files went missing or were modified since. Files are only read if their size or modification
+	 * time changed, so this takes milliseconds.
+	 */
+	public boolean isWorkspaceIntact() {
+		Platform selectedPlatform = Platform.fromString(platform);
+		if(overwrite || sync || selectedPlatform == Platform.thrixlvault) {
+			return false;
+		}
+		try {
+			Path destDir = Path.of(this.destDir).toAbsolutePath().normalize();
+			WorkspaceManifest.Verification verification = verifyWorkspace(getManifestSource(resolveInstallDir(selectedPlatform)), destDir);
+			if(verification == null || !verification.isIntact()) {
+				return false;
+			}
+			LOGGER.lifecycle("Verified the " + verification.files() + " files of the workspace in " + verification.nanos() / 1_000_000 + "ms, nothing to copy");
+			return true;
+		}
+		catch(Exception e) {
+			LOGGER.info("Could not verify the workspace", e);
+			return false;
+		}
+	}
+	
+	/**
+	 * @return the verification of the workspace against its manifest, or null if it has no manifest
+	 * or was copied from a different installation or with a different profile
+	 */
+	private static WorkspaceManifest.Verification verifyWorkspace(String source, Path destDir) throws IOException {
+		WorkspaceManifest manifest = WorkspaceManifest.read(destDir);
+		if(manifest == null || !manifest.getSource().equals(source)) {
+			return null;
+		}
+		return manifest.verify(destDir);
+	}
+	
+	/**
+	 * @return the source recorded in the manifest, the installation directory and, unless the
+	 * default profile is used, the profile the files were selected by
+	 */
+	private String getManifestSource(Path installDir) {
+		if(materializationProfile.equals(MaterializationProfile.RUN)) {
+			return installDir.toString();
+		}
+		return installDir + " " + materializationProfile;
+	}
+	
+	private Path resolveInstallDir(Platform platform) throws Exception {
+		if(platform != Platform.filesystem) {
+			return platform.getDefaultInstallDirectory().toAbsolutePath().normalize();
+		}
+		return Path.of(this.platform).toAbsolutePath().normalize();
+	}
+	
+	/**
+	 * @return whether a directory is one the game writes to while it runs, such directories are not verified
+	 */
+	private static boolean isSkippedDirectory(Path dir) {
+		return SKIPPED_DIRECTORIES.contains(dir.getFileName().toString());
+	}
+	
+	/**
+	 * @return whether the game writes to a file of its installation, such files are always copied
+	 * rather than hardlinked. These are the user mods, the saves, settings, logs and reports in
+	 * the runtime directories, and the {@link #WRITTEN_FILES} in the root directory.
+	 */
+	private static boolean isWrittenByGame(Path file) {
+		for(int i = 0; i < file.getNameCount() - 1; i++) {
+			if(SKIPPED_DIRECTORIES.contains(file.getName(i).toString())) {
+				return true;
+			}
+		}
+		if(file.getNameCount() > 1) {
+			return file.getName(0).toString().equals("mods");
+		}
+		return WRITTEN_FILES.contains(file.getFileName().toString());
+	}
+	
 	public String getPlatform() {
 		return platform;
 	}
@@ -288,6 +586,107 @@ public class CopyLocalDependenciesToWorkspaceTask extends DefaultTask {
 		this.overwrite = overwrite;
 	}
 	
+	/**
+	 * @return whether only new and changed files of the game installation are copied, and files
+	 * which were removed from it are deleted from the workspace
+	 */
+	public boolean isSync() {
+		return sync;
+	}
+	
+	public void setSync(boolean sync) {
+		this.sync = sync;
+	}
+	
+	/**
+	 * @return whether syncing compares the contents of files, rather than their sizes and modification times
+	 */
+	public boolean isChecksum() {
+		return checksum;
+	}
+	
+	@Option(option = "checksum", description = "Compare the contents of files when syncing, rather than their modification times.")
+	public void setChecksum(boolean checksum) {
+		this.checksum = checksum;
+	}
+	
+	/**
+	 * @return whether copied files are hashed for the workspace manifest, so modified files can be
+	 * told apart from files which were only touched
+	 */
+	public boolean isFingerprint() {
+		return fingerprint;
+	}
+	
+	public void setFingerprint(boolean fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+	
+	/**
+	 * @return how the files of the game installation are put into the workspace, see {@link MaterializationMode}
+	 */
+	public String getMaterialization() {
+		return materialization;
+	}
+	
+	public void setMaterialization(String materialization) {
+		this.materialization = materialization;
+	}
+	
+	/**
+	 * @return which files of the game are put into the workspace
+	 */
+	public MaterializationProfile getMaterializationProfile() {
+		return materializationProfile;
+	}
+	
+	public void setMaterializationProfile(MaterializationProfile profile) {
+		this.materializationProfile = profile;
+	}
+	
+	/**
+	 * @return the maximum number of files copied from the game installation at once
+	 */
+	public int getCopyConcurrency() {
+		return copyConcurrency;
+	}
+	
+	/**
+	 * @param copyConcurrency the maximum number of files copied from the game installation at once
+	 */
+	public void setCopyConcurrency(int copyConcurrency) {
+		this.copyConcurrency = copyConcurrency;
+	}
+	
+	/**
+	 * @return the maximum number of vaulted dependencies verified at once
+	 */
+	public int getVerificationThreads() {
+		return verificationThreads;
+	}
+	
+	/**
+	 * @param verificationThreads the maximum number of vaulted dependencies verified at once
+	 */
+	public void setVerificationThreads(int verificationThreads) {
+		this.verificationThreads = verificationThreads;
+	}
+	
+	/**
+	 * @return what downloads vaulted dependencies which are not vaulted yet, or null to download them from Steam
+	 */
+	public VaultDownloader getDownloader() {
+		return downloader;
+	}
+	
+	/**
+	 * @param downloader what downloads vaulted dependencies which are not vaulted yet, such as an
+	 * offline stand-in, or null to download them from Steam
+	 */
+	public void setDownloader(VaultDownloader downloader) {
+		this.downloader = downloader;
+	}
+	
 	public String getSteamUser() {
 		return steamUser;
 	}
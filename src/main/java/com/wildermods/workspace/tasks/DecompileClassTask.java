@@ -0,0 +1,75 @@
+package com.wildermods.workspace.tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+import org.gradle.work.DisableCachingByDefault;
+import org.gradle.workers.WorkerExecutor;
+
+/**
+ * Decompiles individual game classes into the lazy source directories attached to the IDE
+ * when {@code lazyDecompile} is enabled. Classes in the same package which were not
+ * decompiled yet are decompiled along with them.
+ * <p>
+ * The classes are decompiled in a worker process with the jars and settings of the
+ * {@link DecompileJarsTask} which prepared the lazy source directories, so they are
+ * decompiled in the same context.
+ * </p>
+ * <p>
+ * Usage: {@code gradlew decompileClass --class=com.worldwalkergames.legacy.Foo}
+ * </p>
+ */
+@DisableCachingByDefault(because = "Decompiled sources are cached by the lazy source directories")
+public abstract class DecompileClassTask extends DefaultTask {
+	
+	@Internal
+	private DecompileJarsTask decompileJars;
+	
+	@Internal
+	private List<String> classNames = new ArrayList<>();
+	
+	@Inject
+	public abstract WorkerExecutor getWorkerExecutor();
+	
+	@TaskAction
+	public void decompile() {
+		if (classNames.isEmpty()) {
+			throw new IllegalArgumentException("No classes specified, use --class=<binary class name>");
+		}
+		if (decompileJars == null) {
+			throw new IllegalStateException("No decompileJars task to take the jars and settings from");
+		}
+		if (decompileJars.getSourceJars().isEmpty()) {
+			throw new IllegalStateException("No jars to decompile. Please run the 'prepare' task first: ./gradlew prepare");
+		}
+		decompileJars.submit(getWorkerExecutor(), Set.of(), List.copyOf(classNames)).await();
+	}
+	
+	/**
+	 * @return the task whose jars and settings the classes are decompiled with
+	 */
+	public DecompileJarsTask getDecompileJars() {
+		return decompileJars;
+	}
+	
+	public void setDecompileJars(DecompileJarsTask decompileJars) {
+		this.decompileJars = decompileJars;
+	}
+	
+	public List<String> getClassNames() {
+		return classNames;
+	}
+	
+	@Option(option = "class", description = "The binary name of a class to decompile. May be repeated.")
+	public void setClassNames(List<String> classNames) {
+		this.classNames = new ArrayList<>(classNames);
+	}
+	
+}
@@ -1,41 +1,228 @@
 package com.wildermods.workspace.tasks;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
 
 import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
-import org.gradle.work.DisableCachingByDefault;
+import org.gradle.jvm.toolchain.JavaLanguageVersion;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.gradle.jvm.toolchain.JavaToolchainService;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 
-import com.wildermods.workspace.WilderWorkspacePluginImpl;
-import com.wildermods.workspace.capabilities.GradleProject;
-import com.wildermods.workspace.capabilities.ModuleInfo;
-import com.wildermods.workspace.decomp.DecompilerBuilder;
-import com.wildermods.workspace.decomp.GradleDecompilerBuilder;
-import com.wildermods.workspace.decomp.WildermythDecompilerSetup;
+import com.wildermods.workspace.decomp.DecompilationTelemetry;
+import com.wildermods.workspace.decomp.DecompileWorkAction;
+import com.wildermods.workspace.decomp.MixinTargets;
+import com.wildermods.workspace.decomp.PriorityDecompilation;
+import com.wildermods.workspace.decomp.WilderWorkspaceDecompiler;
 
-@DisableCachingByDefault(because = "This task is a one time workspace setup task and should not be cached")
-public class DecompileJarsTask extends DefaultTask {
+/**
+ * Decompiles the game jars into {@code <decompDir>/decomp}.
+ * <p>
+ * The task only depends on its declared inputs, so its outputs can be restored from the
+ * build cache. Jars are compared by their classpath normalized content, the thread and
+ * heap settings of the worker are not inputs since they don't change the decompiled sources.
+ * The decompilation directory is only tracked through {@link #getOutputDir()}, which Gradle
+ * relativizes, so checkouts at other locations share cache entries.
+ * </p>
+ */
+@CacheableTask
+public abstract class DecompileJarsTask extends DefaultTask {
 	
-	@Input
+	@Internal
+	private String rootDir;
+	
+	@Internal
 	private String decompDir;
 	
+	@Internal
+	private String decompCacheDir;
+	
+	@Input
+	private boolean incremental = true;
+	
+	@Input
+	private boolean compressSources = true;
+	
+	@Input
+	private boolean lazy = false;
+	
+	@Input
+	private boolean lowMemory = false;
+	
+	@Internal
+	private boolean priority = false;
+	
+	@Internal
+	private int maxWorkers = Runtime.getRuntime().availableProcessors();
+	
+	@Internal
+	private String maxHeap;
+	
+	@Internal
+	private List<String> jvmArgs = new ArrayList<>();
+	
+	@Internal
+	private Integer javaVersion;
+	
+	@Internal
+	private String telemetryReport;
+	
+	@Internal
+	private int slowestClasses = 10;
+	
+	@Internal
+	private String traceLog;
+	
+	@Input
+	private Map<String, String> decompilerOptions = new LinkedHashMap<>();
+	
+	/**
+	 * @return the jars which are decompiled
+	 */
+	@Classpath
+	public abstract ConfigurableFileCollection getSourceJars();
+	
+	/**
+	 * @return the jars which are only used to resolve references of the decompiled jars
+	 */
+	@Classpath
+	public abstract ConfigurableFileCollection getLibraryJars();
+	
+	/**
+	 * The decompiled source jars are named after the jars they were decompiled from, which
+	 * classpath normalization ignores.
+	 * 
+	 * @return the file names of the source jars
+	 */
+	@Input
+	public List<String> getSourceJarNames() {
+		return getSourceJars().getFiles().stream().map(File::getName).sorted().toList();
+	}
+	
+	/**
+	 * The targets found in these directories only decide what is decompiled first, not what
+	 * is decompiled, so they are not inputs.
+	 * 
+	 * @return the resource and class output directories scanned for mixin configs, mixins and access wideners
+	 */
+	@Internal
+	public abstract ConfigurableFileCollection getMixinRoots();
+	
+	@Input
+	public String getDecompilerVersion() {
+		return WilderWorkspaceDecompiler.getDecompilerVersion();
+	}
+	
+	@OutputDirectory
+	public File getOutputDir() {
+		return getDecompPath().resolve("decomp").toFile();
+	}
+	
+	@Inject
+	public abstract WorkerExecutor getWorkerExecutor();
+	
+	@Inject
+	public abstract JavaToolchainService getJavaToolchainService();
+	
 	@TaskAction
 	public void decompile() throws IOException {
-		// Retrieve the module map from the project's extra properties
-		Object modulesObj = getProject().getExtensions().getExtraProperties().get(WilderWorkspacePluginImpl.DECOMP_MODULES);
-		if (!(modulesObj instanceof Map)) {
-			throw new IllegalStateException("No module map found for decompilation. Ensure setupCapabilities ran first.");
+		Set<File> sources = getSourceJars().getFiles();
+		if (sources.isEmpty()) {
+			getLogger().lifecycle("No jars to decompile");
+			return;
 		}
-		@SuppressWarnings("unchecked")
-		Map<String, ModuleInfo> modules = (Map<String, ModuleInfo>) modulesObj;
-
-		DecompilerBuilder b = new GradleDecompilerBuilder(this);
-		WildermythDecompilerSetup setup = new WildermythDecompilerSetup(b, new GradleProject(getProject()), modules);
-		Path decompPath = Path.of(this.decompDir);
-		setup.decompile(decompPath);
+		Set<String> priorityClasses = priority ? MixinTargets.scan(getMixinRoots().getFiles().stream().map(File::toPath).toList()) : Set.of();
+		if (priority) {
+			getLogger().info("Found " + priorityClasses.size() + " classes targeted by mixins and access wideners to decompile first");
+		}
+		submit(getWorkerExecutor(), priorityClasses, List.of()).await();
+	}
+	
+	/**
+	 * Submits a decompilation with the jars and settings of this task to a worker process, so
+	 * {@link DecompileClassTask} decompiles classes in the same context as this task.
+	 * 
+	 * @param priorityClasses the classes to decompile first
+	 * @param lazyClasses the classes to decompile into the lazy source directories, or empty to decompile the jars
+	 * @return the queue the decompilation was submitted to
+	 */
+	WorkQueue submit(WorkerExecutor executor, Collection<String> priorityClasses, List<String> lazyClasses) {
+		Path decompPath = getDecompPath();
+		Set<File> sources = getSourceJars().getFiles();
+		WorkQueue queue = executor.processIsolation(spec -> {
+			Path vineflower = WilderWorkspaceDecompiler.getDecompilerJar();
+			if (vineflower != null) {
+				spec.getClasspath().from(vineflower.toFile());
+			}
+			spec.forkOptions(fork -> {
+				if (maxHeap != null) {
+					fork.setMaxHeapSize(maxHeap);
+				}
+				fork.jvmArgs(jvmArgs);
+				if (javaVersion != null) {
+					JavaLauncher launcher = getJavaToolchainService().launcherFor(toolchain -> toolchain.getLanguageVersion().set(JavaLanguageVersion.of(javaVersion))).get();
+					fork.setExecutable(launcher.getExecutablePath().getAsFile().getAbsolutePath());
+				}
+			});
+		});
+		queue.submit(DecompileWorkAction.class, parameters -> {
+			parameters.getRootDir().set(rootDir);
+			parameters.getDecompDir().set(decompPath.toString());
+			parameters.getDecompCacheDir().set(decompCacheDir);
+			parameters.getIncremental().set(incremental);
+			parameters.getCompressSources().set(compressSources);
+			parameters.getLazy().set(lazy);
+			parameters.getLowMemory().set(lowMemory);
+			parameters.getMaxWorkers().set(maxWorkers);
+			parameters.getTelemetryReport().set(telemetryReport);
+			parameters.getSlowestClasses().set(slowestClasses);
+			parameters.getTraceLog().set(traceLog);
+			parameters.getOptions().set(decompilerOptions);
+			parameters.getPriorityClasses().set(List.copyOf(priorityClasses));
+			parameters.getLazyClasses().set(lazyClasses);
+			parameters.getSources().set(sources.stream().map(File::getAbsolutePath).toList());
+			parameters.getLibraries().set(getLibraryJars().getFiles().stream().map(File::getAbsolutePath).toList());
+		});
+		return queue;
+	}
+	
+	private Path getDecompPath() {
+		return Path.of(rootDir).resolve(decompDir);
+	}
+	
+	/**
+	 * Gets the root directory of the project, which relative paths are resolved against.
+	 * 
+	 * @return the root directory path as a string
+	 */
+	public String getRootDir() {
+		return rootDir;
+	}
+	
+	/**
+	 * Sets the root directory of the project, which relative paths are resolved against.
+	 * 
+	 * @param rootDir the root directory path as a string
+	 */
+	public void setRootDir(String rootDir) {
+		this.rootDir = rootDir;
 	}
 
 	 /**
@@ -56,4 +243,260 @@ public class DecompileJarsTask extends DefaultTask {
 		this.decompDir = decompDir;
 	}
 	
+	/**
+	 * Gets the directory decompiled sources are cached in.
+	 * 
+	 * @return the cache directory path as a string, or null if caching is disabled
+	 */
+	public String getDecompCacheDir() {
+		return decompCacheDir;
+	}
+	
+	/**
+	 * Sets the directory decompiled sources are cached in.
+	 * 
+	 * @param decompCacheDir the cache directory path as a string, or null to disable caching
+	 */
+	public void setDecompCacheDir(String decompCacheDir) {
+		this.decompCacheDir = decompCacheDir;
+	}
+	
+	/**
+	 * Gets whether only the classes which changed since the previous decompilation are decompiled again.
+	 * 
+	 * @return true if decompilation is incremental
+	 */
+	public boolean isIncremental() {
+		return incremental;
+	}
+	
+	/**
+	 * Sets whether only the classes which changed since the previous decompilation are decompiled again.
+	 * 
+	 * @param incremental true to decompile incrementally, false to always decompile every class
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+	
+	/**
+	 * Gets whether entries in the decompiled source jars are deflated.
+	 * 
+	 * @return true if entries are deflated, false if they are stored uncompressed
+	 */
+	public boolean isCompressSources() {
+		return compressSources;
+	}
+	
+	/**
+	 * Sets whether entries in the decompiled source jars are deflated.
+	 * 
+	 * @param compressSources true to deflate entries, false to store them uncompressed
+	 */
+	public void setCompressSources(boolean compressSources) {
+		this.compressSources = compressSources;
+	}
+	
+	/**
+	 * Gets whether classes are only decompiled when requested, see {@link DecompileClassTask}.
+	 * 
+	 * @return true if decompilation is lazy
+	 */
+	public boolean isLazy() {
+		return lazy;
+	}
+	
+	/**
+	 * Sets whether classes are only decompiled when requested, see {@link DecompileClassTask}.
+	 * 
+	 * @param lazy true to only decompile classes when requested, false to decompile every class
+	 */
+	public void setLazy(boolean lazy) {
+		this.lazy = lazy;
+	}
+	
+	/**
+	 * Gets whether jars are decompiled one at a time in package shards sized to fit the max heap.
+	 * 
+	 * @return true if decompilation runs in low memory mode
+	 */
+	public boolean isLowMemory() {
+		return lowMemory;
+	}
+	
+	/**
+	 * Sets whether jars are decompiled one at a time in package shards sized to fit the max heap.
+	 * 
+	 * @param lowMemory true to bound the peak heap of the decompiler at the cost of speed
+	 */
+	public void setLowMemory(boolean lowMemory) {
+		this.lowMemory = lowMemory;
+	}
+	
+	/**
+	 * Gets whether the classes targeted by the mod's mixins and access wideners are decompiled
+	 * first, see {@link PriorityDecompilation}.
+	 * 
+	 * @return true if targeted classes are decompiled first
+	 */
+	public boolean isPriority() {
+		return priority;
+	}
+	
+	/**
+	 * Sets whether the classes targeted by the mod's mixins and access wideners are decompiled
+	 * first, see {@link PriorityDecompilation}.
+	 * 
+	 * @param priority true to decompile targeted classes first
+	 */
+	public void setPriority(boolean priority) {
+		this.priority = priority;
+	}
+	
+	/**
+	 * Gets the maximum number of decompiler threads and concurrently decompiled jars.
+	 * 
+	 * @return the maximum number of workers
+	 */
+	public int getMaxWorkers() {
+		return maxWorkers;
+	}
+	
+	/**
+	 * Sets the maximum number of decompiler threads and concurrently decompiled jars,
+	 * normally Gradle's {@code --max-workers}.
+	 * 
+	 * @param maxWorkers the maximum number of workers
+	 */
+	public void setMaxWorkers(int maxWorkers) {
+		this.maxWorkers = maxWorkers;
+	}
+	
+	/**
+	 * Gets the maximum heap size of the decompiler worker process.
+	 * 
+	 * @return the heap size in the format used by {@code -Xmx}, such as {@code 4g}, or null for the JVM default
+	 */
+	public String getMaxHeap() {
+		return maxHeap;
+	}
+	
+	/**
+	 * Sets the maximum heap size of the decompiler worker process.
+	 * 
+	 * @param maxHeap the heap size in the format used by {@code -Xmx}, such as {@code 4g}, or null for the JVM default
+	 */
+	public void setMaxHeap(String maxHeap) {
+		this.maxHeap = maxHeap;
+	}
+	
+	/**
+	 * Gets the additional JVM arguments, such as GC flags, of the decompiler worker process.
+	 * 
+	 * @return the JVM arguments
+	 */
+	public List<String> getJvmArgs() {
+		return jvmArgs;
+	}
+	
+	/**
+	 * Sets the additional JVM arguments, such as GC flags, of the decompiler worker process.
+	 * 
+	 * @param jvmArgs the JVM arguments
+	 */
+	public void setJvmArgs(List<String> jvmArgs) {
+		this.jvmArgs = new ArrayList<>(jvmArgs);
+	}
+	
+	/**
+	 * Gets the Java version of the toolchain the decompiler worker process runs on.
+	 * 
+	 * @return the Java language version, or null to use the same Java installation as Gradle
+	 */
+	public Integer getJavaVersion() {
+		return javaVersion;
+	}
+	
+	/**
+	 * Sets the Java version of the toolchain the decompiler worker process runs on. It must
+	 * be able to run this plugin.
+	 * 
+	 * @param javaVersion the Java language version, or null to use the same Java installation as Gradle
+	 */
+	public void setJavaVersion(Integer javaVersion) {
+		this.javaVersion = javaVersion;
+	}
+	
+	/**
+	 * Gets the file the decompilation telemetry report is written to, see {@link DecompilationTelemetry}.
+	 * 
+	 * @return the path of the JSON report, or null to not write one
+	 */
+	public String getTelemetryReport() {
+		return telemetryReport;
+	}
+	
+	/**
+	 * Sets the file the decompilation telemetry report is written to, see {@link DecompilationTelemetry}.
+	 * 
+	 * @param telemetryReport the path of the JSON report, or null to not write one
+	 */
+	public void setTelemetryReport(String telemetryReport) {
+		this.telemetryReport = telemetryReport;
+	}
+	
+	/**
+	 * Gets how many of the slowest classes are listed in the decompilation summary.
+	 * 
+	 * @return the number of classes listed
+	 */
+	public int getSlowestClasses() {
+		return slowestClasses;
+	}
+	
+	/**
+	 * Sets how many of the slowest classes are listed in the decompilation summary.
+	 * 
+	 * @param slowestClasses the number of classes listed
+	 */
+	public void setSlowestClasses(int slowestClasses) {
+		this.slowestClasses = slowestClasses;
+	}
+	
+	/**
+	 * Gets the file every decompiler message is written to, including those below Gradle's log level.
+	 * 
+	 * @return the path of the trace log, or null to not write one
+	 */
+	public String getTraceLog() {
+		return traceLog;
+	}
+	
+	/**
+	 * Sets the file every decompiler message is written to, including those below Gradle's log level.
+	 * 
+	 * @param traceLog the path of the trace log, or null to not write one
+	 */
+	public void setTraceLog(String traceLog) {
+		this.traceLog = traceLog;
+	}
+	
+	/**
+	 * Gets the additional Vineflower options, which override the defaults of WilderWorkspace.
+	 * 
+	 * @return the decompiler options
+	 */
+	public Map<String, String> getDecompilerOptions() {
+		return decompilerOptions;
+	}
+	
+	/**
+	 * Sets the additional Vineflower options, which override the defaults of WilderWorkspace.
+	 * 
+	 * @param decompilerOptions the decompiler options
+	 */
+	public void setDecompilerOptions(Map<String, String> decompilerOptions) {
+		this.decompilerOptions = new LinkedHashMap<>(decompilerOptions);
+	}
+	
 }
@@ -0,0 +1,113 @@
+package com.wildermods.workspace.tasks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+import org.gradle.work.DisableCachingByDefault;
+
+import com.wildermods.workspace.decomp.SymbolIndex;
+
+/**
+ * Finds where game classes, methods and fields are defined and used in the decompiled
+ * sources, using the {@link SymbolIndex symbol indexes} written by {@code decompileJars}.
+ * Nothing is decompiled or extracted.
+ * <p>
+ * Usage: {@code gradlew searchGame --symbol=com.worldwalkergames.legacy.Foo#bar [--usages]}
+ * </p>
+ * <p>
+ * Every result is printed as {@code definition|usage <symbol> <jar>!/<file>:<line>}, usages
+ * are followed by the method they are in.
+ * </p>
+ */
+@DisableCachingByDefault(because = "Searching is not worth caching")
+public class SearchGameTask extends DefaultTask {
+
+	@Internal
+	private String rootDir;
+
+	@Input
+	private String decompDir;
+
+	@Internal
+	private String symbol;
+
+	@Internal
+	private boolean usages = false;
+
+	@TaskAction
+	public void search() throws IOException {
+		if (symbol == null || symbol.isBlank()) {
+			throw new IllegalArgumentException("No symbol specified, use --symbol=<class>[#<member>]");
+		}
+		Path symbolDir = SymbolIndex.getOutputDir(Path.of(rootDir).resolve(decompDir));
+		List<Path> indexes;
+		try (Stream<Path> files = Files.isDirectory(symbolDir) ? Files.list(symbolDir) : Stream.empty()) {
+			indexes = files.filter(file -> file.getFileName().toString().endsWith(".symbols")).sorted().toList();
+		}
+		if (indexes.isEmpty()) {
+			throw new IllegalStateException("No symbol index found in " + symbolDir + ", run decompileJars first");
+		}
+
+		int found = 0;
+		for (Path index : indexes) {
+			String fileName = index.getFileName().toString();
+			String jar = fileName.substring(0, fileName.length() - ".symbols".length());
+			for (SymbolIndex.Match match : SymbolIndex.search(index, symbol, usages)) {
+				String location = jar + "!/" + match.file() + (match.line() > 0 ? ":" + match.line() : "");
+				if (match.definition()) {
+					getLogger().lifecycle("definition " + match.symbol() + " " + location);
+				}
+				else {
+					getLogger().lifecycle("usage " + match.symbol() + " " + location + " in " + match.caller());
+				}
+				found++;
+			}
+		}
+		if (found == 0) {
+			getLogger().lifecycle("No matches for " + symbol);
+		}
+	}
+
+	public String getRootDir() {
+		return rootDir;
+	}
+
+	public void setRootDir(String rootDir) {
+		this.rootDir = rootDir;
+	}
+
+	public String getDecompDir() {
+		return decompDir;
+	}
+
+	public void setDecompDir(String decompDir) {
+		this.decompDir = decompDir;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	@Option(option = "symbol", description = "The class or member to find, such as Foo, com.example.Foo#bar or #bar(I)V.")
+	public void setSymbol(String symbol) {
+		this.symbol = symbol;
+	}
+
+	public boolean isUsages() {
+		return usages;
+	}
+
+	@Option(option = "usages", description = "Also list where the symbol is used.")
+	public void setUsages(boolean usages) {
+		this.usages = usages;
+	}
+
+}
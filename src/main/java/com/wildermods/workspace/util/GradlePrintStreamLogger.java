@@ -4,32 +4,37 @@ import java.io.IOException;
 
 import org.gradle.api.Task;
 import org.gradle.api.logging.LogLevel;
+import org.gradle.api.logging.Logger;
 import org.jetbrains.java.decompiler.main.extern.IFernflowerLogger;
 
 import net.fabricmc.loom.util.IOStringConsumer;
 
 public class GradlePrintStreamLogger extends IFernflowerLogger implements IOStringConsumer {
 
-	private final Task task;
+	private final Logger logger;
 	
 	public GradlePrintStreamLogger(Task task) {
-		this.task = task;
+		this(task.getLogger());
+	}
+	
+	public GradlePrintStreamLogger(Logger logger) {
+		this.logger = logger;
 	}
 	
 	@Override
 	public void writeMessage(String message, Severity severity) {
 		switch(severity) {
 			case ERROR:
-				task.getLogger().error(message);
+				logger.error(message);
 				break;
 			case INFO:
-				task.getLogger().info(message);
+				logger.info(message);
 				break;
 			case TRACE:
-				task.getLogger().trace(message);
+				logger.trace(message);
 				break;
 			case WARN:
-				task.getLogger().warn(message);
+				logger.warn(message);
 				break;
 			default:
 				break;
@@ -40,16 +45,16 @@ public class GradlePrintStreamLogger extends IFernflowerLogger implements IOStri
 	public void writeMessage(String message, Severity severity, Throwable t) {
 		switch(severity) {
 		case ERROR:
-			task.getLogger().log(LogLevel.ERROR, message, t);
+			logger.log(LogLevel.ERROR, message, t);
 			break;
 		case INFO:
-			task.getLogger().log(LogLevel.INFO, message, t);
+			logger.log(LogLevel.INFO, message, t);
 			break;
 		case TRACE:
-			task.getLogger().log(LogLevel.DEBUG, message, t);
+			logger.log(LogLevel.DEBUG, message, t);
 			break;
 		case WARN:
-			task.getLogger().log(LogLevel.WARN, message, t);
+			logger.log(LogLevel.WARN, message, t);
 			break;
 		default:
 			break;